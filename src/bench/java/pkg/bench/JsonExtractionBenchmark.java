@@ -0,0 +1,135 @@
+package pkg.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import pkg.JsonScanner;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the previous regex based JSON extraction with the linear JsonScanner
+ * on model responses of a few hundred KB that embed code inside "commands".
+ *
+ * Run with: ./gradlew benchmark -Pbench=JsonExtractionBenchmark
+ */
+public class JsonExtractionBenchmark {
+
+    private static final Pattern FENCED = Pattern.compile("```json\\s*(\\{.*?\\})\\s*```", Pattern.DOTALL);
+    private static final Pattern ANY = Pattern.compile("\\{.*?\\}", Pattern.DOTALL);
+
+    private static final String FLASK_APP = "from flask import Flask, request, render_template_string\n\n"
+            + "app = Flask(__name__)\n"
+            + "config = {'debug': True, 'port': 8081, 'users': {'admin': 'admin'}}\n"
+            + "page = \"<form method='POST'>{{ message }}<input name='username'></form>\"\n\n"
+            + "@app.route('/', methods=['GET', 'POST'])\n"
+            + "def login():\n"
+            + "    if request.form.get('username') in config['users']:\n"
+            + "        return {'status': 'ok', 'data': [1, 2, {\"nested\": \"}\"}]}\n"
+            + "    return render_template_string(page, message='\\\\ try again')\n";
+
+    public static void main(String[] args) {
+        int[] sizesKb = {100, 300, 800};
+        for (int sizeKb : sizesKb) {
+            run(buildResponse(sizeKb * 1024, true), "fenced");
+            run(buildResponse(sizeKb * 1024, false), "unfenced");
+        }
+    }
+
+    private static void run(String response, String kind) {
+        System.out.printf("%s response of %d KB%n", kind, response.length() / 1024);
+        System.out.printf("  regex               parses: %s%n", parses(legacyExtract(response)));
+        System.out.printf("  scanner             parses: %s%n", parses(scannerExtract(response)));
+        System.out.printf("  incremental scanner parses: %s%n", parses(incrementalExtract(response)));
+
+        measure("regex", response, () -> legacyExtract(response));
+        measure("scanner", response, () -> scannerExtract(response));
+        measure("incremental scanner", response, () -> incrementalExtract(response));
+    }
+
+    /**
+     * The extraction previously done by OllamaClient.extracted() and extractAnyJson()
+     */
+    private static String legacyExtract(String text) {
+        Matcher matcher = FENCED.matcher(text);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        matcher = ANY.matcher(text);
+        return matcher.find() ? matcher.group(0) : null;
+    }
+
+    private static String scannerExtract(String text) {
+        int fence = text.indexOf("```json");
+        String json = fence >= 0 ? JsonScanner.extractFirst(text, fence, false) : null;
+        return json != null ? json : JsonScanner.extractFirst(text, false);
+    }
+
+    private static String incrementalExtract(String text) {
+        // Feed in token-sized chunks as a streamed response would arrive
+        JsonScanner scanner = new JsonScanner(false);
+        for (int i = 0; i < text.length() && !scanner.isComplete(); i += 8) {
+            scanner.feed(text.subSequence(i, Math.min(text.length(), i + 8)));
+        }
+        return scanner.getJson();
+    }
+
+    private static void measure(String name, String response, Runnable extraction) {
+        for (int i = 0; i < 20; i++) {
+            extraction.run();
+        }
+        int iterations = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            extraction.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytes = (double) response.length() * iterations / (1024 * 1024);
+        System.out.printf("  %-20s %8.3f ms/op %8.1f MB/s%n", name, seconds * 1000 / iterations, megabytes / seconds);
+    }
+
+    private static boolean parses(String json) {
+        if (json == null) {
+            return false;
+        }
+        try {
+            JsonObject plan = JsonParser.parseString(json).getAsJsonObject();
+            return plan.has("subtasks");
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static String buildResponse(int targetChars, boolean fenced) {
+        JsonObject plan = new JsonObject();
+        plan.addProperty("taskAnalysis", "Create a Flask server with a login page.");
+        JsonArray subtasks = new JsonArray();
+        int id = 1;
+        int length = 0;
+        while (length < targetChars) {
+            JsonObject task = new JsonObject();
+            task.addProperty("id", id++);
+            task.addProperty("description", "Write the server module {step " + id + "}");
+            JsonArray commands = new JsonArray();
+            commands.add("echo \"" + FLASK_APP + "\" > server_" + id + ".py");
+            task.add("commands", commands);
+            task.addProperty("successCriteria", "server_" + id + ".py exists");
+            task.addProperty("isAtomic", false);
+
+            JsonArray nested = new JsonArray();
+            JsonObject child = new JsonObject();
+            child.addProperty("id", id * 100);
+            child.addProperty("description", "Verify {server} responds");
+            nested.add(child);
+            task.add("subtasks", nested);
+            subtasks.add(task);
+            length += task.toString().length();
+        }
+        plan.add("subtasks", subtasks);
+        if (!fenced) {
+            return "Here is the plan for {your} request:\n" + plan + "\nLet me know if {anything} should change.";
+        }
+        return "Here is the plan for {your} request:\n```json\n" + plan + "\n```\nLet me know if {anything} should change.";
+    }
+}
@@ -0,0 +1,181 @@
+package pkg.bench;
+
+import com.google.gson.Gson;
+import pkg.Plan;
+import pkg.PlanEditor;
+import pkg.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the previous recursive task lookup and removal with the plan's ID index on synthetic
+ * plans of 10k+ tasks, and checks that the index, parent links and ID allocation stay consistent
+ * through the mutators.
+ *
+ * Run with: ./gradlew benchmark -Pbench=PlanIndexBenchmark
+ */
+public class PlanIndexBenchmark {
+
+    public static void main(String[] args) {
+        checkConsistency();
+
+        int[] sizes = {10_000, 50_000};
+        for (int size : sizes) {
+            Plan plan = buildPlan(size, 8);
+            Random random = new Random(42);
+            int lookups = 2000;
+            int[] ids = new int[lookups];
+            for (int i = 0; i < lookups; i++) {
+                ids[i] = 1 + random.nextInt(size);
+            }
+
+            // Warm up both paths
+            for (int id : ids) {
+                scan(plan.getTopLevelTasks(), id);
+                plan.getTask(id);
+            }
+
+            long start = System.nanoTime();
+            for (int id : ids) {
+                scan(plan.getTopLevelTasks(), id);
+            }
+            double scanMicros = (System.nanoTime() - start) / 1e3 / lookups;
+
+            start = System.nanoTime();
+            for (int id : ids) {
+                plan.getTask(id);
+            }
+            double indexMicros = (System.nanoTime() - start) / 1e3 / lookups;
+
+            start = System.nanoTime();
+            int ancestors = 0;
+            for (int id : ids) {
+                ancestors += plan.getAncestors(plan.getTask(id)).size();
+            }
+            double ancestorMicros = (System.nanoTime() - start) / 1e3 / lookups;
+
+            PlanEditor editor = new PlanEditor(plan);
+            start = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                editor.removeTask(size - i);
+            }
+            double removeMicros = (System.nanoTime() - start) / 1e3 / 200;
+
+            System.out.printf("%,d tasks%n", size);
+            System.out.printf("  recursive lookup  %10.2f us%n", scanMicros);
+            System.out.printf("  indexed lookup    %10.2f us (%.0fx)%n", indexMicros, scanMicros / indexMicros);
+            System.out.printf("  ancestors         %10.2f us (avg depth %.1f)%n", ancestorMicros, (double) ancestors / lookups);
+            System.out.printf("  indexed removal   %10.2f us%n", removeMicros);
+        }
+    }
+
+    /**
+     * The previous lookup: a depth-first scan of the whole tree.
+     */
+    private static Task scan(List<Task> tasks, int id) {
+        for (Task task : tasks) {
+            if (task.getId() == id) {
+                return task;
+            }
+            Task found = scan(task.getSubTasks(), id);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A plan of the given number of tasks, numbered breadth first, where each task has up to fanOut subtasks.
+     */
+    private static Plan buildPlan(int size, int fanOut) {
+        Plan plan = new Plan();
+        List<Task> level = new ArrayList<>();
+        int id = 1;
+        for (int i = 0; i < fanOut && id <= size; i++) {
+            level.add(task(id++));
+        }
+        plan.addTasks(level);
+        while (id <= size) {
+            List<Task> next = new ArrayList<>();
+            for (Task parent : level) {
+                List<Task> subTasks = new ArrayList<>();
+                for (int i = 0; i < fanOut && id <= size; i++) {
+                    subTasks.add(task(id++));
+                }
+                parent.addSubTasks(subTasks);
+                next.addAll(subTasks);
+            }
+            level = next;
+        }
+        return plan;
+    }
+
+    private static Task task(int id) {
+        Task task = new Task(true, id, "task " + id, List.of("true"), "done");
+        task.initSubTasks();
+        return task;
+    }
+
+    private static void checkConsistency() {
+        Plan plan = buildPlan(10_000, 8);
+        check(plan.size() == 10_000, "all tasks indexed");
+        Task deep = plan.getTask(4_681);
+        check(deep != null && deep.getId() == 4_681, "lookup of a deep task");
+        check(plan.getAncestors(deep).size() == 4, "ancestors of a deep task");
+
+        // The model reuses IDs: added tasks are renumbered, with the dependsOn of their siblings
+        Task first = task(1);
+        Task second = task(2);
+        second.setDependsOn(new ArrayList<>(List.of(1)));
+        plan.addTasks(List.of(first, second));
+        check(first.getId() == 10_001 && second.getId() == 10_002, "duplicate IDs renumbered");
+        check(second.getDependsOn().equals(List.of(10_001)), "dependsOn follows the renumbering");
+        check(plan.nextId() == 10_003, "allocator past the largest ID");
+
+        // Removing a subtree drops it from the index and detaches it
+        Task parent = plan.getTask(2);
+        Task child = parent.getSubTasks().get(0);
+        int childId = child.getId();
+        new PlanEditor(plan).removeTask(childId);
+        check(plan.getTask(childId) == null && child.getParent() == null, "removed subtree unindexed");
+        check(plan.size() == 10_002 - 1 - countSubtree(child), "subtree of the removed task unindexed");
+
+        // Replacing subtasks and changing IDs keeps index and links in step
+        Task replacement = task(500);
+        parent.setSubTasks(List.of(replacement));
+        check(replacement.getParent() == parent && plan.getTask(replacement.getId()) == replacement, "setSubTasks indexed");
+        int oldId = replacement.getId();
+        replacement.setId(20_000);
+        check(plan.getTask(20_000) == replacement && plan.getTask(oldId) == null, "setId reindexed");
+        try {
+            replacement.setId(1);
+            check(false, "setId to a used ID rejected");
+        } catch (IllegalArgumentException expected) {
+            // An ID stays unique
+        }
+
+        // A plan read from JSON is indexed on first use
+        Gson gson = new Gson();
+        Plan copy = gson.fromJson(gson.toJson(plan), Plan.class);
+        check(copy.size() == plan.size(), "copy indexed");
+        check(copy.getTask(4_681).getParent().getId() == deep.getParent().getId(), "copy parent links");
+        System.out.println("consistency checks passed");
+    }
+
+    private static int countSubtree(Task task) {
+        int count = 0;
+        for (Task subTask : task.getSubTasks()) {
+            count += 1 + countSubtree(subTask);
+        }
+        return count;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new IllegalStateException("Check failed: " + what);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package pkg.bench;
+
+import pkg.Plan;
+import pkg.Task;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+/**
+ * Compares picking the next task with the previous breadth-first scan of the whole plan against
+ * the plan's incrementally updated ready queue, over complete runs of plans of 100, 1k and 10k
+ * tasks in which tasks are completed, broken down, added and removed. Before timing, every pick of
+ * the ready queue is checked against the scan.
+ *
+ * Run with: ./gradlew benchmark -Pbench=ReadyQueueBenchmark
+ */
+public class ReadyQueueBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = {100, 1_000, 10_000};
+        for (int size : sizes) {
+            int steps = run(buildPlan(size, new Random(size)), new Random(7), true);
+            System.out.printf("%,d tasks: %,d picks identical to the scan%n", size, steps);
+        }
+
+        for (int size : sizes) {
+            int rounds = Math.max(1, 100_000 / size);
+            // Warm up both paths
+            for (int i = 0; i < Math.min(rounds, 5); i++) {
+                scanRun(buildPlan(size, new Random(size)), new Random(7));
+                run(buildPlan(size, new Random(size)), new Random(7), false);
+            }
+
+            long scanNanos = 0;
+            long queueNanos = 0;
+            int steps = 0;
+            for (int i = 0; i < rounds; i++) {
+                Plan plan = buildPlan(size, new Random(size));
+                long start = System.nanoTime();
+                steps = scanRun(plan, new Random(7));
+                scanNanos += System.nanoTime() - start;
+
+                plan = buildPlan(size, new Random(size));
+                start = System.nanoTime();
+                run(plan, new Random(7), false);
+                queueNanos += System.nanoTime() - start;
+            }
+            double scanMillis = scanNanos / 1e6 / rounds;
+            double queueMillis = queueNanos / 1e6 / rounds;
+            System.out.printf("%,d tasks, %,d picks per run%n", size, steps);
+            System.out.printf("  breadth-first scan  %10.3f ms/run%n", scanMillis);
+            System.out.printf("  ready queue         %10.3f ms/run (%.0fx)%n", queueMillis, scanMillis / queueMillis);
+        }
+    }
+
+    /**
+     * Works through the plan with the ready queue, as executePlan does, optionally checking each pick.
+     *
+     * @return the number of picks
+     */
+    private static int run(Plan plan, Random random, boolean check) {
+        int steps = 0;
+        while (true) {
+            Task next = plan.getNextOpenTask();
+            if (check) {
+                Task expected = scan(plan);
+                if (next != expected) {
+                    throw new IllegalStateException("Step " + steps + ": ready queue picked " + describe(next)
+                            + ", the scan " + describe(expected));
+                }
+            }
+            if (next == null) {
+                return steps;
+            }
+            steps++;
+            work(plan, next, random);
+        }
+    }
+
+    /**
+     * The same run with the previous scan.
+     */
+    private static int scanRun(Plan plan, Random random) {
+        int steps = 0;
+        Task next;
+        while ((next = scan(plan)) != null) {
+            steps++;
+            work(plan, next, random);
+        }
+        return steps;
+    }
+
+    /**
+     * What executePlan and the plan editor do with the next task: break it down, complete it, and
+     * now and then add a task to the plan or remove an open one.
+     */
+    private static void work(Plan plan, Task next, Random random) {
+        if (!next.isAtomic() && next.getSubTasks().isEmpty()) {
+            List<Task> subTasks = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                subTasks.add(task(plan.nextId(), true));
+            }
+            next.addSubTasks(subTasks);
+            return;
+        }
+        next.setCompleted(true);
+        Task parent = next.getParent();
+        if (parent != null && parent.getSubTasks().stream().allMatch(Task::isCompleted)) {
+            parent.setCompleted(true);
+        }
+
+        int edit = random.nextInt(50);
+        if (edit == 0) {
+            plan.addTask(task(plan.nextId(), random.nextBoolean()));
+        } else if (edit == 1) {
+            Task removed = plan.getTask(1 + random.nextInt(plan.nextId()));
+            if (removed != null && !removed.isCompleted()) {
+                plan.removeTask(removed.getId());
+            }
+        }
+    }
+
+    /**
+     * The previous lookup: a breadth-first walk of the whole plan.
+     */
+    private static Task scan(Plan plan) {
+        Queue<Task> queue = new ArrayDeque<>(plan.getTopLevelTasks());
+        while (!queue.isEmpty()) {
+            Task current = queue.poll();
+            if (current.isCompleted()) {
+                continue;
+            }
+            if (current.isAtomic() || current.getSubTasks().isEmpty()) {
+                return current;
+            }
+            queue.addAll(current.getSubTasks());
+        }
+        return null;
+    }
+
+    /**
+     * A plan of about the given number of tasks: non-atomic tasks with 2 to 6 subtasks, a third of
+     * them atomic; the non-atomic leaves are broken down during the run.
+     */
+    private static Plan buildPlan(int size, Random random) {
+        Plan plan = new Plan();
+        List<Task> topLevel = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            topLevel.add(task(i + 1, false));
+        }
+        plan.addTasks(topLevel);
+
+        List<Task> open = new ArrayList<>(topLevel);
+        int count = topLevel.size();
+        while (count < size && !open.isEmpty()) {
+            Task parent = open.remove(random.nextInt(open.size()));
+            List<Task> subTasks = new ArrayList<>();
+            int fanOut = Math.min(2 + random.nextInt(5), size - count);
+            for (int i = 0; i < fanOut; i++) {
+                Task subTask = task(plan.nextId(), random.nextInt(3) == 0);
+                subTasks.add(subTask);
+                if (!subTask.isAtomic()) {
+                    open.add(subTask);
+                }
+            }
+            parent.addSubTasks(subTasks);
+            count += fanOut;
+        }
+        return plan;
+    }
+
+    private static Task task(int id, boolean atomic) {
+        Task task = new Task(atomic, id, "task " + id, List.of("true"), "done");
+        task.initSubTasks();
+        return task;
+    }
+
+    private static String describe(Task task) {
+        return task == null ? "nothing" : "task " + task.getId();
+    }
+}
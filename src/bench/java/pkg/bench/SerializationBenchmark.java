@@ -0,0 +1,273 @@
+package pkg.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import pkg.JsonCodec;
+import pkg.Plan;
+import pkg.Task;
+import pkg.TaskSnapshot;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the previous reflective, tree-building serialization of plans with the streaming
+ * adapters of JsonCodec, for plan persistence (saving and loading a plan file) and for prompt
+ * building (the plan as embedded in prompts, and the per-task JSON that plan changes are
+ * described with), on plans of 1k and 10k tasks. Reports throughput and bytes allocated per
+ * operation. Before timing, checks that both write and read the same JSON.
+ *
+ * Run with: ./gradlew benchmark -Pbench=SerializationBenchmark
+ */
+public class SerializationBenchmark {
+
+    // PlanService kept one reflective pretty printer
+    private static final Gson LEGACY_PRETTY = new GsonBuilder().setPrettyPrinting().create();
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static int sink;
+
+    public static void main(String[] args) {
+        int[] sizes = {1_000, 10_000};
+        for (int size : sizes) {
+            Plan plan = buildPlan(size, new Random(size));
+            check(plan);
+
+            String legacyFile = LEGACY_PRETTY.toJson(plan);
+            String file = JsonCodec.PRETTY_GSON.toJson(plan);
+            System.out.printf("%,d tasks, plan file %,d KB%n", size, file.length() / 1024);
+
+            measure("save, reflective", () -> { LEGACY_PRETTY.toJson(plan, Writer.nullWriter()); return null; });
+            measure("save, streaming", () -> { JsonCodec.PRETTY_GSON.toJson(plan, Writer.nullWriter()); return null; });
+            // A plan read reflectively is indexed on first use, the streaming one as it is read
+            measure("load, reflective", () -> LEGACY_PRETTY.fromJson(new StringReader(legacyFile), Plan.class).size());
+            measure("load, streaming", () -> JsonCodec.PRETTY_GSON.fromJson(new StringReader(file), Plan.class));
+            measure("prompt plan, tree", () -> legacyPlanToJson(plan));
+            measure("prompt plan, streaming", () -> JsonCodec.planToJson(plan));
+            measure("task changes, tree", () -> legacyFlattenTasks(plan));
+            measure("task changes, streaming", () -> flattenTasks(plan));
+        }
+    }
+
+    /**
+     * Checks that the streaming adapters write and read what the reflective path did.
+     */
+    private static void check(Plan plan) {
+        String file = JsonCodec.PRETTY_GSON.toJson(plan);
+        Plan loaded = JsonCodec.PRETTY_GSON.fromJson(file, Plan.class);
+        checkThat(tasksOf(JsonCodec.PRETTY_GSON.toJson(loaded)).equals(tasksOf(file)), "round trip");
+        checkThat(loaded.size() == plan.size(), "loaded plan indexed");
+        checkThat(loaded.getVersion() == plan.getVersion(), "version kept");
+
+        // Files saved before still load, and files saved now load with the reflective path
+        Plan fromLegacy = JsonCodec.GSON.fromJson(LEGACY_PRETTY.toJson(plan), Plan.class);
+        checkThat(tasksOf(JsonCodec.PRETTY_GSON.toJson(fromLegacy)).equals(tasksOf(file)), "legacy file read");
+        checkThat(tasksOf(LEGACY_PRETTY.toJson(LEGACY_PRETTY.fromJson(file, Plan.class)))
+                .equals(tasksOf(LEGACY_PRETTY.toJson(plan))), "file read by the reflective path");
+
+        // The prompt plan is the previous one without the duplicate "subTasks" arrays
+        JsonElement legacyPrompt = JsonParser.parseString(legacyPlanToJson(plan));
+        removeSubTasks(legacyPrompt);
+        addEmptySubtasks(legacyPrompt);
+        checkThat(legacyPrompt.equals(JsonParser.parseString(JsonCodec.planToJson(plan))), "prompt plan");
+
+        // Task JSON compared against what was sent before must not change at all
+        checkThat(legacyFlattenTasks(plan).equals(flattenTasks(plan)), "task changes");
+        System.out.printf("%,d tasks: serialization checks passed%n", plan.size());
+    }
+
+    private static void measure(String name, Supplier<Object> operation) {
+        // Warm up
+        long end = System.nanoTime() + 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            consume(operation.get());
+        }
+
+        int ops = 0;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        end = start + 2_000_000_000L;
+        long now;
+        do {
+            consume(operation.get());
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+        allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        double seconds = (now - start) / 1e9;
+        System.out.printf("  %-24s %10.1f ops/s %12.1f KB/op%n", name, ops / seconds, allocated / 1024.0 / ops);
+    }
+
+    private static void consume(Object result) {
+        sink += result == null ? 0 : result.hashCode();
+    }
+
+    /**
+     * The previous PlanExecutor.planToJson: a reflective tree per task, plus "subtasks".
+     */
+    private static String legacyPlanToJson(Plan plan) {
+        JsonObject planJson = new JsonObject();
+        JsonArray tasksArray = new JsonArray();
+        for (Task task : plan.getTopLevelTasks()) {
+            tasksArray.add(legacyTaskToJson(task));
+        }
+        planJson.add("tasks", tasksArray);
+        return planJson.toString();
+    }
+
+    private static JsonObject legacyTaskToJson(Task task) {
+        Gson gson = new Gson();
+        JsonObject taskJson = gson.toJsonTree(task).getAsJsonObject();
+        if (!task.getSubTasks().isEmpty()) {
+            JsonArray subTasksArray = new JsonArray();
+            for (Task subTask : task.getSubTasks()) {
+                subTasksArray.add(legacyTaskToJson(subTask));
+            }
+            taskJson.add("subtasks", subTasksArray);
+        }
+        return taskJson;
+    }
+
+    /**
+     * The previous PlanExecutor.flattenTasks.
+     */
+    private static Map<Integer, String> legacyFlattenTasks(Plan plan) {
+        Map<Integer, String> tasks = new LinkedHashMap<>();
+        for (Task task : plan.getTopLevelTasks()) {
+            legacyFlattenTask(task, null, tasks);
+        }
+        return tasks;
+    }
+
+    private static void legacyFlattenTask(Task task, Integer parentId, Map<Integer, String> tasks) {
+        JsonObject taskJson = new Gson().toJsonTree(task).getAsJsonObject();
+        taskJson.remove("subTasks");
+        if (parentId != null) {
+            taskJson.addProperty("parentId", parentId);
+        }
+        tasks.put(task.getId(), taskJson.toString());
+        for (Task subTask : task.getSubTasks()) {
+            legacyFlattenTask(subTask, task.getId(), tasks);
+        }
+    }
+
+    /**
+     * PlanExecutor.flattenTasks as it is now.
+     */
+    private static Map<Integer, String> flattenTasks(Plan plan) {
+        Map<Integer, String> tasks = new LinkedHashMap<>();
+        for (TaskSnapshot task : plan.getSnapshot().getTopLevelTasks()) {
+            flattenTask(task, null, tasks);
+        }
+        return tasks;
+    }
+
+    private static void flattenTask(TaskSnapshot task, Integer parentId, Map<Integer, String> tasks) {
+        tasks.put(task.getId(), JsonCodec.taskToJson(task, parentId));
+        for (TaskSnapshot subTask : task.getSubTasks()) {
+            flattenTask(subTask, task.getId(), tasks);
+        }
+    }
+
+    /**
+     * The tasks of a saved plan, leaving out its version.
+     */
+    private static JsonElement tasksOf(String planJson) {
+        return JsonParser.parseString(planJson).getAsJsonObject().get("topLevelTasks");
+    }
+
+    private static void removeSubTasks(JsonElement element) {
+        if (element.isJsonObject()) {
+            element.getAsJsonObject().remove("subTasks");
+            element.getAsJsonObject().entrySet().forEach(entry -> removeSubTasks(entry.getValue()));
+        } else if (element.isJsonArray()) {
+            element.getAsJsonArray().forEach(SerializationBenchmark::removeSubTasks);
+        }
+    }
+
+    /**
+     * The streaming plan writes "subtasks" for leaves too.
+     */
+    private static void addEmptySubtasks(JsonElement element) {
+        if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            if (object.has("id") && !object.has("subtasks")) {
+                object.add("subtasks", new JsonArray());
+            }
+            object.entrySet().forEach(entry -> addEmptySubtasks(entry.getValue()));
+        } else if (element.isJsonArray()) {
+            element.getAsJsonArray().forEach(SerializationBenchmark::addEmptySubtasks);
+        }
+    }
+
+    /**
+     * A plan of about the given number of tasks with realistic fields: multi-line commands with
+     * redirections, dependencies, declared inputs and outputs, some tasks completed.
+     */
+    private static Plan buildPlan(int size, Random random) {
+        Plan plan = new Plan();
+        List<Task> topLevel = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            topLevel.add(task(i + 1, false, random));
+        }
+        plan.addTasks(topLevel);
+
+        List<Task> open = new ArrayList<>(topLevel);
+        int count = topLevel.size();
+        while (count < size && !open.isEmpty()) {
+            Task parent = open.remove(0);
+            List<Task> subTasks = new ArrayList<>();
+            int fanOut = Math.min(2 + random.nextInt(5), size - count);
+            for (int i = 0; i < fanOut; i++) {
+                Task subTask = task(plan.nextId(), random.nextInt(3) == 0, random);
+                if (i > 0 && random.nextBoolean()) {
+                    subTask.setDependsOn(new ArrayList<>(List.of(subTasks.get(i - 1).getId())));
+                }
+                subTasks.add(subTask);
+                if (!subTask.isAtomic()) {
+                    open.add(subTask);
+                }
+            }
+            parent.addSubTasks(subTasks);
+            count += fanOut;
+        }
+        return plan;
+    }
+
+    private static Task task(int id, boolean atomic, Random random) {
+        List<String> commands = List.of(
+                "mkdir -p app/templates && cd app",
+                "cat > app/module_" + id + ".py << 'EOF'\nfrom flask import Flask\napp = Flask(__name__)\n\n"
+                        + "@app.route('/')\ndef index():\n    return \"<h1>Task " + id + "</h1>\"\nEOF");
+        Task task = new Task(atomic, id, "Create module " + id + " of the login server",
+                commands, "app/module_" + id + ".py exists and imports");
+        task.initSubTasks();
+        task.setCompleted(random.nextInt(4) == 0);
+        if (random.nextInt(3) == 0) {
+            task.setInputs(new ArrayList<>(List.of("requirements.txt")));
+            task.setOutputs(new ArrayList<>(List.of("app/module_" + id + ".py")));
+        }
+        if (random.nextInt(10) == 0) {
+            task.setTimeoutSeconds(600);
+        }
+        return task;
+    }
+
+    private static void checkThat(boolean condition, String what) {
+        if (!condition) {
+            throw new IllegalStateException("Check failed: " + what);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package pkg.bench;
+
+import pkg.CommandResult;
+import pkg.OutputCapture;
+import pkg.ShellSession;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Compares the per-command latency of spawning "sh -c" for every command with running the
+ * commands in a persistent ShellSession, and checks that the session keeps state between commands.
+ *
+ * Run with: ./gradlew benchmark -Pbench=ShellBenchmark
+ */
+public class ShellBenchmark {
+
+    private static final String[] COMMANDS = {"true", "echo hello", "pwd", "ls -a > /dev/null", "test -d ."};
+
+    public static void main(String[] args) throws Exception {
+        File workspace = Files.createTempDirectory("shell-bench").toFile();
+        String shell = args.length > 0 ? args[0] : "bash";
+
+        try (ShellSession session = new ShellSession(shell, workspace)) {
+            checkState(session);
+
+            int iterations = 2000;
+            for (int i = 0; i < 200; i++) {
+                spawn(workspace, COMMANDS[i % COMMANDS.length]);
+                run(session, COMMANDS[i % COMMANDS.length]);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                spawn(workspace, COMMANDS[i % COMMANDS.length]);
+            }
+            double spawnMicros = (System.nanoTime() - start) / 1e3 / iterations;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                run(session, COMMANDS[i % COMMANDS.length]);
+            }
+            double sessionMicros = (System.nanoTime() - start) / 1e3 / iterations;
+
+            System.out.printf("%d commands%n", iterations);
+            System.out.printf("  sh -c per command   %8.1f us/command%n", spawnMicros);
+            System.out.printf("  persistent %-8s %8.1f us/command (%.1fx)%n", shell, sessionMicros, spawnMicros / sessionMicros);
+        }
+    }
+
+    /**
+     * The sequence that used to lose its state: change directory, export, then use both.
+     */
+    private static void checkState(ShellSession session) throws Exception {
+        run(session, "mkdir -p sub && cd sub");
+        run(session, "export GREETING=hello");
+        String output = run(session, "echo \"$GREETING from $(basename \"$PWD\")\"").getOutput().trim();
+        System.out.println("state carried over:  " + output.equals("hello from sub") + " (" + output + ")");
+
+        int exitCode = run(session, "exit 3").getExitCode();
+        String afterRestart = run(session, "basename \"$PWD\"").getOutput().trim();
+        System.out.println("exit code of exit 3: " + exitCode + ", restarted in " + afterRestart
+                + " (restarts " + session.getRestarts() + ")");
+    }
+
+    private static CommandResult run(ShellSession session, String command) throws Exception {
+        return session.run(command, new OutputCapture(1000, 3000, null));
+    }
+
+    /**
+     * The previous path: one process per command.
+     */
+    private static int spawn(File workspace, String command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("sh", "-c", command).directory(workspace).redirectErrorStream(true).start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            while (reader.readLine() != null) {
+                // Drain the output as the executor used to
+            }
+        }
+        return process.waitFor();
+    }
+}
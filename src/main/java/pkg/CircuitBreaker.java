@@ -0,0 +1,100 @@
+package pkg;
+
+/**
+ * Circuit breaker around the LLM backend.
+ * After failureThreshold consecutive transient failures the circuit opens and calls fail fast
+ * with a {@link CircuitOpenException} instead of adding load to a saturated or unreachable server.
+ * Once openDuration has passed a single trial call is let through: if it succeeds the circuit
+ * closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+    // Start of the current outage, kept across re-opens after a failed trial call
+    private long outageStart;
+    private boolean trialInFlight = false;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Called before each attempt.
+     *
+     * @throws CircuitOpenException if the circuit is open, or a trial call is already in flight
+     */
+    public synchronized void beforeCall() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            Metrics.increment("llm.breaker.rejected");
+            throw new CircuitOpenException(Math.max(1, millisUntilRetry()));
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = true;
+        }
+    }
+
+    /**
+     * The backend answered.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            Metrics.add("llm.breaker.open.millis", System.currentTimeMillis() - outageStart);
+            state = State.CLOSED;
+            trialInFlight = false;
+            System.out.println("LLM circuit breaker closed, backend is available again");
+        }
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            outageStart = System.currentTimeMillis();
+            Metrics.increment("llm.breaker.trips");
+            System.out.println("LLM circuit breaker opened after " + consecutiveFailures + " consecutive failures");
+            open();
+        }
+    }
+
+    /**
+     * The attempt says nothing about the backend: it was cancelled before it got an answer, or
+     * failed permanently (e.g. a 4xx), which must not reset the count of transient failures.
+     */
+    public synchronized void onAbort() {
+        trialInFlight = false;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long calls will still be rejected, 0 if the circuit lets calls through
+     */
+    public synchronized long millisUntilRetry() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openMillis - (System.currentTimeMillis() - openedAt));
+    }
+}
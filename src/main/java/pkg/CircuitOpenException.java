@@ -0,0 +1,19 @@
+package pkg;
+
+/**
+ * Thrown without contacting the backend while the circuit breaker is open.
+ */
+public class CircuitOpenException extends OllamaException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(long retryAfterMillis) {
+        super("LLM backend unavailable, circuit breaker open for another " + retryAfterMillis + " ms", 0, true, null);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
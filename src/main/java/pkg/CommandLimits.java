@@ -0,0 +1,103 @@
+package pkg;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Wall-clock limits of one command: its own timeout, what is left of its task's timeout, and
+ * how long it may go without printing anything before it is taken to be waiting for input
+ * (an editor, a password prompt) or to be serving forever.
+ */
+public class CommandLimits {
+
+    private static final long POLL_MILLIS = 200;
+
+    private final long commandDeadline;
+    private final long taskDeadline;
+    private final long idleNanos;
+
+    /**
+     * @param commandTimeout timeout of the command (null or zero for none)
+     * @param taskDeadline   System.nanoTime() by which the whole task must be done, or Long.MAX_VALUE
+     * @param idleTimeout    longest time without output (null or zero for none)
+     */
+    public CommandLimits(Duration commandTimeout, long taskDeadline, Duration idleTimeout) {
+        long now = System.nanoTime();
+        this.commandDeadline = isSet(commandTimeout) ? now + commandTimeout.toNanos() : Long.MAX_VALUE;
+        this.taskDeadline = taskDeadline;
+        this.idleNanos = isSet(idleTimeout) ? idleTimeout.toNanos() : Long.MAX_VALUE;
+    }
+
+    public static CommandLimits none() {
+        return new CommandLimits(null, Long.MAX_VALUE, null);
+    }
+
+    private static boolean isSet(Duration duration) {
+        return duration != null && !duration.isZero() && !duration.isNegative();
+    }
+
+    /**
+     * @return the limit the command has exceeded, or null if it may keep running
+     */
+    public ExecutionResult.FailureKind exceeded(OutputCapture output) {
+        long now = System.nanoTime();
+        if (now - taskDeadline >= 0) {
+            return ExecutionResult.FailureKind.TASK_TIMEOUT;
+        }
+        if (now - commandDeadline >= 0) {
+            return ExecutionResult.FailureKind.COMMAND_TIMEOUT;
+        }
+        if (output.getIdleNanos() >= idleNanos) {
+            return ExecutionResult.FailureKind.IDLE_TIMEOUT;
+        }
+        return null;
+    }
+
+    /**
+     * How long to wait before checking the limits again.
+     */
+    public long pollMillis() {
+        return POLL_MILLIS;
+    }
+
+    /**
+     * Describes a limit for the output and the prompt.
+     */
+    public static String describe(ExecutionResult.FailureKind limit) {
+        switch (limit) {
+            case TASK_TIMEOUT:
+                return "killed: the task ran out of time";
+            case COMMAND_TIMEOUT:
+                return "killed: the command ran out of time";
+            case IDLE_TIMEOUT:
+                return "killed: no output for too long, the command is probably waiting for input"
+                        + " (an editor or prompt) or serving forever (a server); run it non-interactively or in the background";
+            default:
+                return "killed";
+        }
+    }
+
+    /**
+     * @return the PIDs of the current descendants of a process
+     */
+    public static Set<Long> descendantPids(ProcessHandle process) {
+        return process.descendants().map(ProcessHandle::pid).collect(Collectors.toSet());
+    }
+
+    /**
+     * Forcibly kills the descendants of a process that are not in keep, and the process itself if
+     * killRoot is set. The tree is listed before anything is killed, since orphans are reparented.
+     */
+    public static void killTree(ProcessHandle process, boolean killRoot, Set<Long> keep) {
+        List<ProcessHandle> descendants = process.descendants()
+                .filter(handle -> !keep.contains(handle.pid()))
+                .collect(Collectors.toList());
+        if (killRoot) {
+            process.destroyForcibly();
+        }
+        descendants.forEach(ProcessHandle::destroyForcibly);
+        Metrics.add("command.killed.processes", descendants.size() + (killRoot ? 1 : 0));
+    }
+}
@@ -0,0 +1,35 @@
+package pkg;
+
+/**
+ * Exit code and captured output (stdout and stderr, head and tail only if it was long) of a command.
+ */
+public class CommandResult {
+    private final int exitCode;
+    private final String output;
+    private final ExecutionResult.FailureKind limitExceeded;
+
+    public CommandResult(int exitCode, String output) {
+        this(exitCode, output, null);
+    }
+
+    /**
+     * @param limitExceeded the limit the command was killed for, or null if it ran to its end
+     */
+    public CommandResult(int exitCode, String output, ExecutionResult.FailureKind limitExceeded) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.limitExceeded = limitExceeded;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public ExecutionResult.FailureKind getLimitExceeded() {
+        return limitExceeded;
+    }
+}
@@ -0,0 +1,240 @@
+package pkg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs the atomic tasks of a plan whose tasks declare dependsOn as a DAG.
+ * Every task whose dependencies, and those of its ancestors, are completed runs on a bounded
+ * worker pool, and each completion starts the tasks it made ready. When a task fails, only the
+ * tasks that depend on it, directly or transitively, are held back; independent branches keep
+ * running. Task state is only changed on the calling thread.
+ *
+ * Only tasks that declare dependsOn (possibly empty) run in parallel; in a partially annotated
+ * plan, a task without it waits for its previous sibling, as in sequential execution.
+ */
+public class DagScheduler {
+
+    private final ExecutorService workers;
+
+    public DagScheduler(int maxParallelTasks) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, maxParallelTasks), runnable -> {
+            Thread thread = new Thread(runnable, "task-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return true if any task of the plan declares dependencies; other plans run sequentially
+     */
+    public static boolean hasDependencies(Plan plan) {
+        Deque<Task> stack = new ArrayDeque<>(plan.getTopLevelTasks());
+        while (!stack.isEmpty()) {
+            Task task = stack.pop();
+            if (task.getDependsOn() != null) {
+                return true;
+            }
+            stack.addAll(task.getSubTasks());
+        }
+        return false;
+    }
+
+    /**
+     * Runs ready atomic tasks until none is left, calling onCompleted for each task that succeeded.
+     * Non-atomic tasks that still need to be broken down are left to the caller.
+     */
+    public Outcome run(Plan plan, Function<Task, ExecutionResult> runner, Consumer<Task> onCompleted)
+            throws InterruptedException {
+        CompletionService<ExecutionResult> completions = new ExecutorCompletionService<>(workers);
+        Map<Future<ExecutionResult>, Task> running = new HashMap<>();
+        Set<Task> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        Outcome outcome = new Outcome();
+
+        try {
+            while (true) {
+                for (Task task : readyTasks(plan, failed)) {
+                    if (!running.containsValue(task)) {
+                        task.setInProgress(true);
+                        running.put(completions.submit(() -> runner.apply(task)), task);
+                    }
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+
+                Future<ExecutionResult> done = completions.take();
+                Task task = running.remove(done);
+                task.setInProgress(false);
+                ExecutionResult result;
+                try {
+                    result = done.get();
+                } catch (ExecutionException e) {
+                    result = new ExecutionResult(false, "Error executing task: " + e.getCause());
+                }
+                outcome.executed++;
+
+                if (result.isSuccess()) {
+                    onCompleted.accept(task);
+                    completeFinishedParents(task, onCompleted);
+                } else {
+                    failed.add(task);
+                    outcome.failures.put(task, result);
+                    for (Task dependent : dependentsOf(task, plan)) {
+                        outcome.quarantined.add(dependent.getId());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<ExecutionResult> future : running.keySet()) {
+                future.cancel(true);
+            }
+            for (Task task : running.values()) {
+                task.setInProgress(false);
+            }
+            throw e;
+        }
+        return outcome;
+    }
+
+    /**
+     * Open atomic tasks, in plan order, whose dependencies are all completed.
+     * Dependencies on ids that are not in the plan (e.g. removed tasks) count as met.
+     */
+    private static List<Task> readyTasks(Plan plan, Set<Task> failed) {
+        List<Task> ready = new ArrayList<>();
+        Deque<Task> queue = new ArrayDeque<>(plan.getTopLevelTasks());
+        while (!queue.isEmpty()) {
+            Task task = queue.poll();
+            if (task.isCompleted()) {
+                continue;
+            }
+            if (!task.isAtomic()) {
+                queue.addAll(task.getSubTasks());
+                continue;
+            }
+            if (failed.contains(task)) {
+                continue;
+            }
+            boolean met = true;
+            for (Integer dependency : dependenciesOf(task, plan)) {
+                Task required = plan.getTask(dependency);
+                if (required != null && required != task && !required.isCompleted()) {
+                    met = false;
+                    break;
+                }
+            }
+            if (met) {
+                ready.add(task);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * The task's own dependencies plus those inherited from its ancestors. A task that declares no
+     * dependsOn at all (e.g. one added by the plan editor) depends on its previous sibling, as in
+     * sequential execution; an empty dependsOn means it depends on nothing.
+     */
+    static Set<Integer> dependenciesOf(Task task, Plan plan) {
+        Set<Integer> dependencies = new LinkedHashSet<>();
+        for (Task current = task; current != null; current = current.getParent()) {
+            if (current.getDependsOn() != null) {
+                dependencies.addAll(current.getDependsOn());
+            } else {
+                List<Task> siblings = current.getParent() != null ? current.getParent().getSubTasks() : plan.getTopLevelTasks();
+                int index = siblings.indexOf(current);
+                if (index > 0) {
+                    dependencies.add(siblings.get(index - 1).getId());
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Every task that can no longer run because it depends, directly or transitively, on the failed
+     * task or on one of its ancestors (which cannot complete now either).
+     */
+    private static List<Task> dependentsOf(Task failedTask, Plan plan) {
+        Set<Integer> blocked = new HashSet<>();
+        for (Task current = failedTask; current != null; current = current.getParent()) {
+            blocked.add(current.getId());
+        }
+        List<Task> dependents = new ArrayList<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Task task : plan.getAllTasks()) {
+                if (task.isCompleted() || blocked.contains(task.getId())) {
+                    continue;
+                }
+                for (Integer dependency : dependenciesOf(task, plan)) {
+                    if (blocked.contains(dependency)) {
+                        blocked.add(task.getId());
+                        dependents.add(task);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return dependents;
+    }
+
+    private static void completeFinishedParents(Task task, Consumer<Task> onCompleted) {
+        for (Task parent = task.getParent(); parent != null; parent = parent.getParent()) {
+            for (Task subTask : parent.getSubTasks()) {
+                if (!subTask.isCompleted()) {
+                    return;
+                }
+            }
+            onCompleted.accept(parent);
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * What a run did: how many tasks were executed, which failed, and which were held back.
+     */
+    public static class Outcome {
+        private int executed;
+        private final Map<Task, ExecutionResult> failures = new LinkedHashMap<>();
+        private final Set<Integer> quarantined = new HashSet<>();
+
+        public int getExecuted() {
+            return executed;
+        }
+
+        public Map<Task, ExecutionResult> getFailures() {
+            return failures;
+        }
+
+        public Set<Integer> getQuarantined() {
+            return quarantined;
+        }
+    }
+}
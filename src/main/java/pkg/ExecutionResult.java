@@ -1,12 +1,42 @@
 package pkg;
 
 public class ExecutionResult {
+
+    /**
+     * Why a task failed.
+     */
+    public enum FailureKind {
+        COMMAND_FAILED,
+        COMMAND_TIMEOUT,
+        TASK_TIMEOUT,
+        // No output for longer than the idle timeout, e.g. an editor or a prompt waiting for input
+        IDLE_TIMEOUT,
+        // The executor stopped while the task was running
+        INTERRUPTED,
+        ERROR
+    }
+
     private boolean success;
     private String message;
+    private String output;
+    private FailureKind failureKind;
 
     public ExecutionResult(boolean success, String message) {
+        this(success, message, null);
+    }
+
+    /**
+     * @param output what the commands printed, head and tail of each command only, or null
+     */
+    public ExecutionResult(boolean success, String message, String output) {
+        this(success, message, output, success ? null : FailureKind.COMMAND_FAILED);
+    }
+
+    public ExecutionResult(boolean success, String message, String output, FailureKind failureKind) {
         this.success = success;
         this.message = message;
+        this.output = output;
+        this.failureKind = failureKind;
     }
 
     public boolean isSuccess() {
@@ -16,4 +46,15 @@ public class ExecutionResult {
     public String getMessage() {
         return message;
     }
-}
\ No newline at end of file
+
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return why the task failed, or null if it succeeded
+     */
+    public FailureKind getFailureKind() {
+        return failureKind;
+    }
+}
@@ -0,0 +1,136 @@
+package pkg;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for running plan tasks, bound from the "execution.*" properties.
+ */
+@Component
+@ConfigurationProperties(prefix = "execution")
+public class ExecutionSettings {
+    private int maxParallelTasks = 4;
+    private boolean pipelined = true;
+    private String validationPolicy = "always";
+    private int maxConcurrentPlans = 2;
+    private int planQueueCapacity = 8;
+    private String workspaceRoot = "workspaces";
+    private boolean persistentShell = true;
+    private String shell = "bash";
+    private int outputHeadChars = 1000;
+    private int outputTailChars = 3000;
+    private Duration commandTimeout = Duration.ofMinutes(10);
+    private Duration taskTimeout = Duration.ofMinutes(30);
+    private Duration idleTimeout = Duration.ofMinutes(3);
+    private String interruptedTaskPolicy = "retry";
+    private final TaskCache taskCache = new TaskCache();
+
+    /**
+     * Number of independent tasks of a plan with dependencies that may run at the same time.
+     */
+    public int getMaxParallelTasks() { return maxParallelTasks; }
+    public void setMaxParallelTasks(int maxParallelTasks) { this.maxParallelTasks = maxParallelTasks; }
+
+    /**
+     * Validate the plan and break down the following task while a task's commands run, assuming it succeeds.
+     */
+    public boolean isPipelined() { return pipelined; }
+    public void setPipelined(boolean pipelined) { this.pipelined = pipelined; }
+
+    /**
+     * Default {@link ValidationPolicy} spec of a plan run: always, on-failure, on-change or every-N.
+     */
+    public String getValidationPolicy() { return validationPolicy; }
+    public void setValidationPolicy(String validationPolicy) { this.validationPolicy = validationPolicy; }
+
+    /**
+     * Number of plans executed at the same time.
+     */
+    public int getMaxConcurrentPlans() { return maxConcurrentPlans; }
+    public void setMaxConcurrentPlans(int maxConcurrentPlans) { this.maxConcurrentPlans = maxConcurrentPlans; }
+
+    /**
+     * Number of plan runs that may wait for a free slot before new runs are rejected.
+     */
+    public int getPlanQueueCapacity() { return planQueueCapacity; }
+    public void setPlanQueueCapacity(int planQueueCapacity) { this.planQueueCapacity = planQueueCapacity; }
+
+    /**
+     * Directory holding one working directory per plan, named after the plan ID, that its commands run in.
+     */
+    public String getWorkspaceRoot() { return workspaceRoot; }
+    public void setWorkspaceRoot(String workspaceRoot) { this.workspaceRoot = workspaceRoot; }
+
+    /**
+     * Run a plan's commands in a long-lived {@link ShellSession} instead of one process per command.
+     */
+    public boolean isPersistentShell() { return persistentShell; }
+    public void setPersistentShell(boolean persistentShell) { this.persistentShell = persistentShell; }
+
+    /**
+     * Shell started for persistent sessions; sh is used if it is not installed.
+     */
+    public String getShell() { return shell; }
+    public void setShell(String shell) { this.shell = shell; }
+
+    /**
+     * Characters kept from the start and from the end of each command's output for the reevaluation prompt.
+     */
+    public int getOutputHeadChars() { return outputHeadChars; }
+    public void setOutputHeadChars(int outputHeadChars) { this.outputHeadChars = outputHeadChars; }
+    public int getOutputTailChars() { return outputTailChars; }
+    public void setOutputTailChars(int outputTailChars) { this.outputTailChars = outputTailChars; }
+
+    /**
+     * Wall-clock limits of a command and of all commands of a task; a plan task can override them
+     * with commandTimeoutSeconds and timeoutSeconds. Zero disables a limit.
+     */
+    public Duration getCommandTimeout() { return commandTimeout; }
+    public void setCommandTimeout(Duration commandTimeout) { this.commandTimeout = commandTimeout; }
+    public Duration getTaskTimeout() { return taskTimeout; }
+    public void setTaskTimeout(Duration taskTimeout) { this.taskTimeout = taskTimeout; }
+
+    /**
+     * A command that prints nothing for this long is taken to wait for input (or to serve forever) and killed.
+     */
+    public Duration getIdleTimeout() { return idleTimeout; }
+    public void setIdleTimeout(Duration idleTimeout) { this.idleTimeout = idleTimeout; }
+
+    /**
+     * Default {@link InterruptedTaskPolicy} of a resumed plan: retry or ask.
+     */
+    public String getInterruptedTaskPolicy() { return interruptedTaskPolicy; }
+    public void setInterruptedTaskPolicy(String interruptedTaskPolicy) { this.interruptedTaskPolicy = interruptedTaskPolicy; }
+
+    public TaskCache getTaskCache() { return taskCache; }
+
+    /**
+     * Memoization of successful atomic tasks ("execution.task-cache.*"), off unless enabled.
+     * An empty directory keeps the results in memory only.
+     */
+    public static class TaskCache {
+        private boolean enabled = false;
+        private int maxEntries = 1024;
+        private String directory = "";
+        private List<String> environment = new ArrayList<>(List.of("PATH", "VIRTUAL_ENV"));
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getMaxEntries() { return maxEntries; }
+        public void setMaxEntries(int maxEntries) { this.maxEntries = maxEntries; }
+
+        public String getDirectory() { return directory; }
+        public void setDirectory(String directory) { this.directory = directory; }
+
+        /**
+         * Environment variables of the shell that are part of a task's cache key.
+         */
+        public List<String> getEnvironment() { return environment; }
+        public void setEnvironment(List<String> environment) { this.environment = environment; }
+    }
+}
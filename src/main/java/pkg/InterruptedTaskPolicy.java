@@ -0,0 +1,27 @@
+package pkg;
+
+import java.util.Locale;
+
+/**
+ * What a resumed plan does with the tasks that were in progress when its execution stopped.
+ * Their commands may have been partially applied.
+ */
+public enum InterruptedTaskPolicy {
+    // Run the task again from its first command
+    RETRY,
+    // Report the interruption to the model like a failure; the plan is fixed if it deems it invalid,
+    // otherwise the task runs again
+    ASK;
+
+    /**
+     * @param spec "retry" or "ask"
+     * @throws IllegalArgumentException for any other spec
+     */
+    public static InterruptedTaskPolicy fromSpec(String spec) {
+        try {
+            return valueOf(spec.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown interrupted task policy '" + spec + "', expected retry or ask");
+        }
+    }
+}
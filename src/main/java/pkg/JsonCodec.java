@@ -0,0 +1,533 @@
+package pkg;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import pkg.web.LogEntry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared Gson instances with hand-written streaming adapters for Plan, Task, their snapshots,
+ * ExecutionResult and LogEntry, so that serializing them neither reflects over fields nor builds a
+ * JsonElement tree, and no caller creates its own Gson. Gson instances are immutable and thread-safe.
+ *
+ * A plan is always written from its current snapshot, so saving it while it is executed writes one
+ * consistent version, and the version number is saved with it.
+ *
+ * Tasks are written with the fields of Task in declaration order, null fields left out, and their
+ * subtasks last. A task is read from "subTasks" (saved plans) or "subtasks" (model responses), and
+ * a single value is accepted where a list is expected. HTML escaping is off, so commands keep their
+ * {@code >} and {@code &&} in saved plans and prompts.
+ */
+public final class JsonCodec {
+
+    public static final Gson GSON = builder().create();
+    public static final Gson PRETTY_GSON = builder().setPrettyPrinting().create();
+
+    private JsonCodec() {
+    }
+
+    private static GsonBuilder builder() {
+        return new GsonBuilder()
+                .disableHtmlEscaping()
+                .registerTypeAdapter(Plan.class, new PlanAdapter())
+                .registerTypeAdapter(PlanSnapshot.class, new PlanSnapshotAdapter())
+                .registerTypeAdapter(Task.class, new TaskAdapter())
+                .registerTypeAdapter(TaskSnapshot.class, new TaskSnapshotAdapter())
+                .registerTypeAdapter(ExecutionResult.class, new ExecutionResultAdapter())
+                .registerTypeAdapter(LogEntry.class, new LogEntryAdapter());
+    }
+
+    /**
+     * The plan as embedded in prompts and logs: {"tasks":[...]}, subtasks under "subtasks".
+     */
+    public static String planToJson(Plan plan) {
+        return planToJson(plan.getSnapshot());
+    }
+
+    public static String planToJson(PlanSnapshot plan) {
+        StringWriter buffer = new StringWriter();
+        try {
+            JsonWriter out = new JsonWriter(buffer);
+            out.beginObject();
+            out.name("tasks").beginArray();
+            for (TaskSnapshot task : plan.getTopLevelTasks()) {
+                writeTask(out, task, "subtasks");
+            }
+            out.endArray();
+            out.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * A task without its subtasks, with the ID of its parent unless it is null.
+     */
+    public static String taskToJson(TaskSnapshot task, Integer parentId) {
+        StringWriter buffer = new StringWriter();
+        try {
+            JsonWriter out = new JsonWriter(buffer);
+            out.beginObject();
+            writeTaskFields(out, task);
+            if (parentId != null) {
+                out.name("parentId").value(parentId);
+            }
+            out.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * What a client that has an earlier version of a plan needs to catch up: the tasks that changed,
+     * without their subtasks but with the IDs of their subtasks, and the IDs of the top-level tasks.
+     * If changed is null, the whole plan instead.
+     *
+     * @param changed tasks as returned by {@link PlanSnapshot#changedSince}
+     */
+    public static String planChangesToJson(PlanSnapshot plan, List<TaskSnapshot> changed) {
+        StringWriter buffer = new StringWriter();
+        try {
+            JsonWriter out = new JsonWriter(buffer);
+            out.beginObject();
+            out.name("version").value(plan.getVersion());
+            out.name("full").value(changed == null);
+            if (changed == null) {
+                out.name("plan");
+                writePlan(out, plan);
+            } else {
+                out.name("topLevelTaskIds");
+                writeIds(out, plan.getTopLevelTasks());
+                out.name("tasks").beginArray();
+                for (TaskSnapshot task : changed) {
+                    out.beginObject();
+                    writeTaskFields(out, task);
+                    out.name("subTaskIds");
+                    writeIds(out, task.getSubTasks());
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+
+    private static void writeIds(JsonWriter out, List<TaskSnapshot> tasks) throws IOException {
+        out.beginArray();
+        for (TaskSnapshot task : tasks) {
+            out.value(task.getId());
+        }
+        out.endArray();
+    }
+
+    /**
+     * Writes a task and its subtasks under the given name.
+     */
+    static void writeTask(JsonWriter out, TaskSnapshot task, String subTasksName) throws IOException {
+        out.beginObject();
+        writeTaskFields(out, task);
+        out.name(subTasksName).beginArray();
+        for (TaskSnapshot subTask : task.getSubTasks()) {
+            writeTask(out, subTask, subTasksName);
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private static void writeTaskFields(JsonWriter out, TaskSnapshot task) throws IOException {
+        out.name("isAtomic").value(task.isAtomic());
+        out.name("id").value(task.getId());
+        writeString(out, "description", task.getDescription());
+        writeStrings(out, "commands", task.getCommands());
+        writeString(out, "successCriteria", task.getSuccessCriteria());
+        out.name("completed").value(task.isCompleted());
+        out.name("inProgress").value(task.isInProgress());
+        if (task.getDependsOn() != null) {
+            out.name("dependsOn").beginArray();
+            for (Integer dependency : task.getDependsOn()) {
+                out.value(dependency);
+            }
+            out.endArray();
+        }
+        if (task.getTimeoutSeconds() != null) {
+            out.name("timeoutSeconds").value(task.getTimeoutSeconds());
+        }
+        if (task.getCommandTimeoutSeconds() != null) {
+            out.name("commandTimeoutSeconds").value(task.getCommandTimeoutSeconds());
+        }
+        writeStrings(out, "inputs", task.getInputs());
+        writeStrings(out, "outputs", task.getOutputs());
+    }
+
+    static Task readTask(JsonReader in) throws IOException {
+        boolean isAtomic = false;
+        int id = 0;
+        String description = null;
+        List<String> commands = null;
+        String successCriteria = null;
+        boolean completed = false;
+        boolean inProgress = false;
+        List<Integer> dependsOn = null;
+        Integer timeoutSeconds = null;
+        Integer commandTimeoutSeconds = null;
+        List<String> inputs = null;
+        List<String> outputs = null;
+        List<Task> subTasks = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "isAtomic": isAtomic = readBoolean(in); break;
+                case "id": id = readInt(in); break;
+                case "description": description = in.nextString(); break;
+                case "commands": commands = readStrings(in); break;
+                case "successCriteria": successCriteria = in.nextString(); break;
+                case "completed": completed = readBoolean(in); break;
+                case "inProgress": inProgress = readBoolean(in); break;
+                case "dependsOn": dependsOn = readInts(in); break;
+                case "timeoutSeconds": timeoutSeconds = readInt(in); break;
+                case "commandTimeoutSeconds": commandTimeoutSeconds = readInt(in); break;
+                case "inputs": inputs = readStrings(in); break;
+                case "outputs": outputs = readStrings(in); break;
+                case "subTasks":
+                case "subtasks":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        subTasks.add(readTask(in));
+                    }
+                    in.endArray();
+                    break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+
+        Task task = new Task(isAtomic, id, description, commands, successCriteria);
+        task.setCompleted(completed);
+        task.setInProgress(inProgress);
+        task.setDependsOn(dependsOn);
+        task.setTimeoutSeconds(timeoutSeconds);
+        task.setCommandTimeoutSeconds(commandTimeoutSeconds);
+        task.setInputs(inputs);
+        task.setOutputs(outputs);
+        if (!subTasks.isEmpty()) {
+            task.addSubTasks(subTasks);
+        }
+        return task;
+    }
+
+    /**
+     * A task on its own; it is copied to a snapshot first.
+     */
+    static class TaskAdapter extends TypeAdapter<Task> {
+        @Override
+        public void write(JsonWriter out, Task task) throws IOException {
+            if (task == null) {
+                out.nullValue();
+            } else {
+                writeTask(out, TaskSnapshot.of(task), "subTasks");
+            }
+        }
+
+        @Override
+        public Task read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readTask(in);
+        }
+    }
+
+    static class TaskSnapshotAdapter extends TypeAdapter<TaskSnapshot> {
+        @Override
+        public void write(JsonWriter out, TaskSnapshot task) throws IOException {
+            if (task == null) {
+                out.nullValue();
+            } else {
+                writeTask(out, task, "subTasks");
+            }
+        }
+
+        @Override
+        public TaskSnapshot read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return TaskSnapshot.of(readTask(in));
+        }
+    }
+
+    private static void writePlan(JsonWriter out, PlanSnapshot plan) throws IOException {
+        out.beginObject();
+        out.name("version").value(plan.getVersion());
+        out.name("topLevelTasks").beginArray();
+        for (TaskSnapshot task : plan.getTopLevelTasks()) {
+            writeTask(out, task, "subTasks");
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * Reads a plan as saved; it is indexed as it is read, and its snapshot has the saved version.
+     */
+    private static Plan readPlan(JsonReader in) throws IOException {
+        long version = 0;
+        List<Task> tasks = new ArrayList<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("topLevelTasks") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    tasks.add(readTask(in));
+                }
+                in.endArray();
+            } else if (name.equals("version") && in.peek() == JsonToken.NUMBER) {
+                version = in.nextLong();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        Plan plan = new Plan();
+        // Publishing the tasks makes the saved version again: the same version is the same plan
+        plan.setVersion(version - 1);
+        plan.addTasks(tasks);
+        return plan;
+    }
+
+    /**
+     * A plan as saved: {"version":N,"topLevelTasks":[...]}.
+     */
+    static class PlanAdapter extends TypeAdapter<Plan> {
+        @Override
+        public void write(JsonWriter out, Plan plan) throws IOException {
+            if (plan == null) {
+                out.nullValue();
+            } else {
+                writePlan(out, plan.getSnapshot());
+            }
+        }
+
+        @Override
+        public Plan read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readPlan(in);
+        }
+    }
+
+    static class PlanSnapshotAdapter extends TypeAdapter<PlanSnapshot> {
+        @Override
+        public void write(JsonWriter out, PlanSnapshot plan) throws IOException {
+            if (plan == null) {
+                out.nullValue();
+            } else {
+                writePlan(out, plan);
+            }
+        }
+
+        @Override
+        public PlanSnapshot read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readPlan(in).getSnapshot();
+        }
+    }
+
+    static class ExecutionResultAdapter extends TypeAdapter<ExecutionResult> {
+        @Override
+        public void write(JsonWriter out, ExecutionResult result) throws IOException {
+            if (result == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("success").value(result.isSuccess());
+            writeString(out, "message", result.getMessage());
+            writeString(out, "output", result.getOutput());
+            if (result.getFailureKind() != null) {
+                out.name("failureKind").value(result.getFailureKind().name());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ExecutionResult read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            boolean success = false;
+            String message = null;
+            String output = null;
+            ExecutionResult.FailureKind failureKind = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "success": success = readBoolean(in); break;
+                    case "message": message = in.nextString(); break;
+                    case "output": output = in.nextString(); break;
+                    case "failureKind": failureKind = readEnum(in, ExecutionResult.FailureKind.class); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ExecutionResult(success, message, output, failureKind);
+        }
+    }
+
+    /**
+     * A log entry, with its timestamp as an ISO-8601 local date-time.
+     */
+    static class LogEntryAdapter extends TypeAdapter<LogEntry> {
+        @Override
+        public void write(JsonWriter out, LogEntry entry) throws IOException {
+            if (entry == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (entry.getId() != null) {
+                out.name("id").value(entry.getId());
+            }
+            writeString(out, "message", entry.getMessage());
+            if (entry.getTimestamp() != null) {
+                out.name("timestamp").value(entry.getTimestamp().toString());
+            }
+            if (entry.getLevel() != null) {
+                out.name("level").value(entry.getLevel().name());
+            }
+            if (entry.getStreamId() != null) {
+                out.name("streamId").value(entry.getStreamId());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public LogEntry read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            LogEntry entry = new LogEntry();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id": entry.setId(in.nextLong()); break;
+                    case "message": entry.setMessage(in.nextString()); break;
+                    case "timestamp": entry.setTimestamp(LocalDateTime.parse(in.nextString())); break;
+                    case "level": entry.setLevel(readEnum(in, LogEntry.LogLevel.class)); break;
+                    case "streamId": entry.setStreamId(in.nextLong()); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return entry;
+        }
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    private static void writeStrings(JsonWriter out, String name, List<String> values) throws IOException {
+        if (values != null) {
+            out.name(name).beginArray();
+            for (String value : values) {
+                out.value(value);
+            }
+            out.endArray();
+        }
+    }
+
+    private static boolean readBoolean(JsonReader in) throws IOException {
+        // Models sometimes quote booleans
+        return in.peek() == JsonToken.STRING ? Boolean.parseBoolean(in.nextString()) : in.nextBoolean();
+    }
+
+    private static int readInt(JsonReader in) throws IOException {
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException("Expected an integer at " + in.getPath(), e);
+        }
+    }
+
+    private static List<Integer> readInts(JsonReader in) throws IOException {
+        List<Integer> values = new ArrayList<>();
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            values.add(readInt(in));
+            return values;
+        }
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(readInt(in));
+        }
+        in.endArray();
+        return values;
+    }
+
+    private static List<String> readStrings(JsonReader in) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            values.add(in.nextString());
+            return values;
+        }
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(in.nextString());
+        }
+        in.endArray();
+        return values;
+    }
+
+    private static <E extends Enum<E>> E readEnum(JsonReader in, Class<E> type) throws IOException {
+        String name = in.nextString();
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new JsonSyntaxException("Unknown " + type.getSimpleName() + " " + name + " at " + in.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package pkg;
+
+/**
+ * Scanner that finds the first balanced top-level JSON value in text in a single linear pass.
+ * Text can be scanned in one go with {@link #extractFirst} or fed incrementally in arbitrary
+ * chunks (e.g. streamed model tokens). The scanner tracks braces, brackets, strings and escapes,
+ * so braces inside string values (such as code embedded in commands) do not end the value early.
+ * An opening brace only starts a value when the next non-whitespace character can start JSON
+ * content, so placeholders in prose such as "{your request}" are skipped.
+ */
+public class JsonScanner {
+
+    private final boolean acceptArrays;
+    private final StringBuilder json = new StringBuilder();
+    private char pendingOpen = 0;
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean complete = false;
+
+    /**
+     * @param acceptArrays true to also accept a top-level array, false to only accept objects
+     */
+    public JsonScanner(boolean acceptArrays) {
+        this.acceptArrays = acceptArrays;
+    }
+
+    /**
+     * Finds the first balanced top-level JSON object (or array, if accepted) in the text.
+     *
+     * @return the JSON text, or null if no balanced value is found
+     */
+    public static String extractFirst(CharSequence text, boolean acceptArrays) {
+        return extractFirst(text, 0, acceptArrays);
+    }
+
+    /**
+     * Finds the first balanced top-level JSON object (or array, if accepted) starting at fromIndex.
+     *
+     * @return the JSON text, or null if no balanced value is found
+     */
+    public static String extractFirst(CharSequence text, int fromIndex, boolean acceptArrays) {
+        int start = -1;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+
+        for (int i = fromIndex; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (depth == 0) {
+                if (c == '{' || (acceptArrays && c == '[')) {
+                    int next = i + 1;
+                    while (next < text.length() && Character.isWhitespace(text.charAt(next))) {
+                        next++;
+                    }
+                    if (next < text.length() && canStartContent(c, text.charAt(next))) {
+                        start = i;
+                        depth = 1;
+                    }
+                }
+            } else if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return text.subSequence(start, i + 1).toString();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Feeds the next chunk of text.
+     *
+     * @return true once a complete top-level value has been seen (further input is ignored)
+     */
+    public boolean feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length() && !complete; i++) {
+            feed(chunk.charAt(i));
+        }
+        return complete;
+    }
+
+    /**
+     * Feeds a single character.
+     *
+     * @return true once a complete top-level value has been seen
+     */
+    public boolean feed(char c) {
+        if (complete) {
+            return true;
+        }
+        if (depth == 0) {
+            if (pendingOpen != 0) {
+                // Decide whether the last opening brace really starts a value
+                if (Character.isWhitespace(c)) {
+                    json.append(c);
+                    return false;
+                }
+                if (canStartContent(pendingOpen, c)) {
+                    pendingOpen = 0;
+                    depth = 1;
+                    return feedValue(c);
+                }
+                pendingOpen = 0;
+                json.setLength(0);
+            }
+            // Skip any prose before the value starts
+            if (c == '{' || (acceptArrays && c == '[')) {
+                pendingOpen = c;
+                json.append(c);
+            }
+            return false;
+        }
+        return feedValue(c);
+    }
+
+    private boolean feedValue(char c) {
+        json.append(c);
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+            }
+        } else if (c == '"') {
+            inString = true;
+        } else if (c == '{' || c == '[') {
+            depth++;
+        } else if (c == '}' || c == ']') {
+            depth--;
+            if (depth == 0) {
+                complete = true;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * An object must continue with a key or be empty; an array with any value or be empty.
+     */
+    private static boolean canStartContent(char open, char next) {
+        if (open == '{') {
+            return next == '"' || next == '}';
+        }
+        return next == ']' || next == '{' || next == '[' || next == '"' || next == '-'
+                || (next >= '0' && next <= '9') || next == 't' || next == 'f' || next == 'n';
+    }
+
+    /**
+     * Discards everything fed so far, e.g. before a failed call is retried.
+     */
+    public void reset() {
+        json.setLength(0);
+        pendingOpen = 0;
+        depth = 0;
+        inString = false;
+        escaped = false;
+        complete = false;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the complete JSON text, or null if no complete value has been seen yet
+     */
+    public String getJson() {
+        return complete ? json.toString() : null;
+    }
+}
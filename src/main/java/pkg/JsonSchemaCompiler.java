@@ -0,0 +1,80 @@
+package pkg;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Translates the example-style "jsonScheme" blocks of prompts.json into JSON Schema,
+ * as accepted by Ollama's structured output "format" field.
+ *
+ * Objects become objects with every key required, arrays use their first element as the
+ * item schema, and string leaves are read as type descriptions:
+ * "number", "boolean - ...", "string - ...", "list of strings - ...".
+ */
+public final class JsonSchemaCompiler {
+
+    private JsonSchemaCompiler() {
+    }
+
+    public static JsonObject compile(JsonElement example) {
+        if (example == null || example.isJsonNull()) {
+            return typeSchema("string");
+        }
+        if (example.isJsonObject()) {
+            JsonObject properties = new JsonObject();
+            JsonArray required = new JsonArray();
+            for (Map.Entry<String, JsonElement> entry : example.getAsJsonObject().entrySet()) {
+                properties.add(entry.getKey(), compile(entry.getValue()));
+                required.add(entry.getKey());
+            }
+            JsonObject schema = typeSchema("object");
+            schema.add("properties", properties);
+            schema.add("required", required);
+            return schema;
+        }
+        if (example.isJsonArray()) {
+            JsonArray array = example.getAsJsonArray();
+            JsonObject schema = typeSchema("array");
+            schema.add("items", array.size() > 0 ? compile(array.get(0)) : new JsonObject());
+            return schema;
+        }
+
+        if (example.getAsJsonPrimitive().isBoolean()) {
+            return typeSchema("boolean");
+        }
+        if (example.getAsJsonPrimitive().isNumber()) {
+            return typeSchema("number");
+        }
+        return fromDescription(example.getAsString());
+    }
+
+    private static JsonObject fromDescription(String description) {
+        String text = description.trim().toLowerCase(Locale.ROOT);
+        if (text.startsWith("list of") || text.startsWith("array of")) {
+            String itemType = text.substring(text.indexOf(" of ") + 4);
+            JsonObject schema = typeSchema("array");
+            schema.add("items", fromDescription(itemType));
+            return schema;
+        }
+        if (text.startsWith("boolean")) {
+            return typeSchema("boolean");
+        }
+        if (text.startsWith("integer") || text.startsWith("int ")) {
+            return typeSchema("integer");
+        }
+        if (text.startsWith("number")) {
+            return typeSchema("number");
+        }
+        return typeSchema("string");
+    }
+
+    private static JsonObject typeSchema(String type) {
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", type);
+        return schema;
+    }
+}
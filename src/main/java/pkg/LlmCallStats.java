@@ -0,0 +1,80 @@
+package pkg;
+
+/**
+ * Timing figures for a single LLM call.
+ */
+public class LlmCallStats {
+    private final long timeToFirstTokenMillis;
+    private final long totalMillis;
+    private final int evalCount;
+    private final double tokensPerSecond;
+    private final boolean stoppedEarly;
+    private final int promptEvalCount;
+    private final long promptEvalMillis;
+    private final int reusedPromptTokens;
+
+    public LlmCallStats(long timeToFirstTokenMillis, long totalMillis, int evalCount,
+                        double tokensPerSecond, boolean stoppedEarly) {
+        this(timeToFirstTokenMillis, totalMillis, evalCount, tokensPerSecond, stoppedEarly, -1, 0, 0);
+    }
+
+    public LlmCallStats(long timeToFirstTokenMillis, long totalMillis, int evalCount,
+                        double tokensPerSecond, boolean stoppedEarly,
+                        int promptEvalCount, long promptEvalMillis, int reusedPromptTokens) {
+        this.timeToFirstTokenMillis = timeToFirstTokenMillis;
+        this.totalMillis = totalMillis;
+        this.evalCount = evalCount;
+        this.tokensPerSecond = tokensPerSecond;
+        this.stoppedEarly = stoppedEarly;
+        this.promptEvalCount = promptEvalCount;
+        this.promptEvalMillis = promptEvalMillis;
+        this.reusedPromptTokens = reusedPromptTokens;
+    }
+
+    public long getTimeToFirstTokenMillis() {
+        return timeToFirstTokenMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public int getEvalCount() {
+        return evalCount;
+    }
+
+    public double getTokensPerSecond() {
+        return tokensPerSecond;
+    }
+
+    public boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+
+    /**
+     * @return the number of prompt tokens Ollama evaluated, or -1 if it did not report it
+     */
+    public int getPromptEvalCount() {
+        return promptEvalCount;
+    }
+
+    public long getPromptEvalMillis() {
+        return promptEvalMillis;
+    }
+
+    /**
+     * @return the estimated number of prompt tokens served from Ollama's KV cache instead of evaluated again
+     */
+    public int getReusedPromptTokens() {
+        return reusedPromptTokens;
+    }
+
+    @Override
+    public String toString() {
+        String prompt = promptEvalCount < 0 ? ""
+                : String.format(", prompt=%d tokens in %dms (~%d reused)", promptEvalCount, promptEvalMillis, reusedPromptTokens);
+        return String.format("ttft=%dms, total=%dms, tokens=%d, %.1f tokens/s%s%s",
+                timeToFirstTokenMillis, totalMillis, evalCount, tokensPerSecond, prompt,
+                stoppedEarly ? ", stopped early" : "");
+    }
+}
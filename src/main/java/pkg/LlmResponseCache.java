@@ -0,0 +1,183 @@
+package pkg;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of LLM responses.
+ * Entries are keyed by a SHA-256 of the model, messages and request options, held in a bounded
+ * LRU map, and optionally appended to segment files on disk so they survive restarts.
+ * On startup the segments are replayed oldest first; once there are more than the configured
+ * number of segments, the oldest segment file is deleted.
+ */
+public class LlmResponseCache {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final int maxEntries;
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final int maxSegments;
+    private final LinkedHashMap<String, String> entries;
+
+    private BufferedWriter segmentWriter;
+    private long segmentBytes;
+    private int nextSegment = 1;
+
+    public LlmResponseCache(OllamaSettings.Cache settings) {
+        this.maxEntries = Math.max(1, settings.getMaxEntries());
+        this.maxSegmentBytes = settings.getMaxSegmentBytes();
+        this.maxSegments = Math.max(1, settings.getMaxSegments());
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() > maxEntries) {
+                    Metrics.increment("llm.cache.evictions");
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        String dir = settings.getDirectory();
+        this.directory = (dir == null || dir.isBlank()) ? null : Paths.get(dir);
+        if (directory != null) {
+            loadSegments();
+        }
+    }
+
+    /**
+     * Computes the cache key of a chat request. Fields that do not change the answer
+     * ("stream") are ignored; jsonOnly distinguishes calls that stop after the first JSON object.
+     */
+    public static String key(JsonObject requestBody, boolean jsonOnly) {
+        JsonObject keyed = requestBody.deepCopy();
+        keyed.remove("stream");
+        keyed.addProperty("jsonOnly", jsonOnly);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(keyed.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public synchronized String get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, String response) {
+        entries.put(key, response);
+        if (directory != null) {
+            appendToSegment(key, response);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void loadSegments() {
+        try {
+            Files.createDirectories(directory);
+            for (Path segment : listSegments()) {
+                try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        try {
+                            JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                            entries.put(record.get("k").getAsString(), record.get("v").getAsString());
+                        } catch (RuntimeException e) {
+                            // A torn last line after a crash; skip it
+                            System.out.println("Skipping corrupt cache record in " + segment.getFileName());
+                        }
+                    }
+                }
+                nextSegment = Math.max(nextSegment, segmentNumber(segment) + 1);
+            }
+            System.out.println("Loaded " + entries.size() + " cached LLM responses from " + directory);
+        } catch (IOException e) {
+            System.out.println("Failed to load LLM response cache: " + e.getMessage());
+        }
+    }
+
+    private void appendToSegment(String key, String response) {
+        JsonObject record = new JsonObject();
+        record.addProperty("k", key);
+        record.addProperty("v", response);
+        String line = record.toString() + "\n";
+        try {
+            if (segmentWriter == null || segmentBytes >= maxSegmentBytes) {
+                rollSegment();
+            }
+            segmentWriter.write(line);
+            segmentWriter.flush();
+            // Segments are UTF-8, so non-ASCII responses take more bytes than chars
+            segmentBytes += line.getBytes(StandardCharsets.UTF_8).length;
+        } catch (IOException e) {
+            System.out.println("Failed to persist LLM response cache entry: " + e.getMessage());
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (segmentWriter != null) {
+            segmentWriter.close();
+        }
+        Path segment = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        segmentWriter = Files.newBufferedWriter(segment, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        segmentBytes = 0;
+
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package pkg;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversation with the model that spans several calls for one plan, such as the successive
+ * PlanReevaluation turns. The system prompt and earlier turns are resent unchanged, so they form
+ * a stable prefix that Ollama can serve from its KV cache, and each new turn only carries what
+ * changed. The history is dropped after maxTurns turns so the context does not grow without bound.
+ */
+public class LlmSession {
+    private final String systemPrompt;
+    private final int maxTurns;
+    private final List<JsonObject> turns = new ArrayList<>();
+    // JSON of each task as last sent in this session, by task id
+    private final Map<Integer, String> sentTasks = new HashMap<>();
+
+    public LlmSession(String systemPrompt, int maxTurns) {
+        this.systemPrompt = systemPrompt;
+        this.maxTurns = Math.max(1, maxTurns);
+    }
+
+    public String getSystemPrompt() {
+        return systemPrompt;
+    }
+
+    /**
+     * @return true if the next turn starts a new conversation and must carry the full context
+     */
+    public synchronized boolean isFresh() {
+        return turns.isEmpty();
+    }
+
+    /**
+     * @return the system prompt, the earlier turns and the new user prompt
+     */
+    synchronized JsonArray messagesWith(String userPrompt) {
+        JsonArray messages = new JsonArray();
+        messages.add(message("system", systemPrompt));
+        for (JsonObject turn : turns) {
+            messages.add(turn);
+        }
+        messages.add(message("user", userPrompt));
+        return messages;
+    }
+
+    synchronized void recordTurn(String userPrompt, String assistantResponse) {
+        turns.add(message("user", userPrompt));
+        turns.add(message("assistant", assistantResponse));
+        if (turns.size() / 2 >= maxTurns) {
+            reset();
+        }
+    }
+
+    public synchronized void reset() {
+        turns.clear();
+        sentTasks.clear();
+    }
+
+    public synchronized Map<Integer, String> getSentTasks() {
+        return sentTasks;
+    }
+
+    static JsonObject message(String role, String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", role);
+        message.addProperty("content", content);
+        return message;
+    }
+}
@@ -0,0 +1,13 @@
+package pkg;
+
+/**
+ * Thrown when the LLM backend has been unavailable for longer than a plan run is willing to pause,
+ * which ends the run instead of treating the missing answers as an invalid plan.
+ */
+public class LlmUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public LlmUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,107 @@
+package pkg;
+
+import com.google.gson.JsonObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous LLM client.
+ * Every call runs with a deadline on one of maxInFlight worker threads, so at most maxInFlight
+ * calls talk to the backend at once; the rest wait in the pool's queue without holding a thread.
+ * When the returned future is cancelled or its deadline passes, a queued call is dropped and a
+ * running one is interrupted, which aborts the blocking HTTP exchange.
+ */
+@Service
+public class OllamaAsyncClient {
+
+    private final ThreadPoolExecutor executor;
+    private final Duration defaultDeadline;
+
+    @Autowired
+    public OllamaAsyncClient(OllamaSettings settings) {
+        OllamaClient.configure(settings);
+        this.defaultDeadline = settings.getCallDeadline();
+        int maxInFlight = Math.max(1, settings.getMaxInFlight());
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "llm-call-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        OllamaClient.setAsyncClient(this);
+    }
+
+    public CompletableFuture<String> query(String promptType, String systemPrompt, String userPrompt) {
+        return query(promptType, systemPrompt, userPrompt, defaultDeadline);
+    }
+
+    public CompletableFuture<String> query(String promptType, String systemPrompt, String userPrompt, Duration deadline) {
+        return submit(() -> OllamaClient.executeQuery(promptType, systemPrompt, userPrompt), deadline);
+    }
+
+    public CompletableFuture<JsonObject> queryWithSchema(String promptType, String systemPrompt, String userPrompt,
+                                                         JsonObject expectedSchema) {
+        return queryWithSchema(promptType, systemPrompt, userPrompt, expectedSchema, defaultDeadline);
+    }
+
+    public CompletableFuture<JsonObject> queryWithSchema(String promptType, String systemPrompt, String userPrompt,
+                                                         JsonObject expectedSchema, Duration deadline) {
+        return submit(() -> OllamaClient.executeQueryWithSchema(promptType, systemPrompt, userPrompt, expectedSchema), deadline);
+    }
+
+    /**
+     * Sends the prompt as the next turn of the session.
+     */
+    public CompletableFuture<JsonObject> queryWithSchema(String promptType, LlmSession session, String userPrompt,
+                                                         JsonObject expectedSchema) {
+        return submit(() -> OllamaClient.executeQueryWithSchema(promptType, session, null, userPrompt, expectedSchema),
+                defaultDeadline);
+    }
+
+    /**
+     * Runs a blocking LLM call under the in-flight limit and the given deadline.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> call, Duration deadline) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> worker = executor.submit(() -> {
+            try {
+                // Cancelled or past its deadline while queued
+                if (!result.isDone()) {
+                    result.complete(call.call());
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+
+        result.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                // Cancelled or past its deadline: interrupt the worker to abort the exchange
+                worker.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    public int getAvailableSlots() {
+        return executor.getMaximumPoolSize() - executor.getActiveCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
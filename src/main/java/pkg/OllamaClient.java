@@ -3,79 +3,339 @@ package pkg;
 import com.google.gson.*;
 import pkg.web.LogService;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 public class OllamaClient {
 
     private static LogService logService;
+    private static volatile OllamaTransport transport;
+    private static volatile OllamaAsyncClient asyncClient;
+    private static volatile LlmCallStats lastCallStats;
+    private static volatile LlmResponseCache responseCache;
+    private static volatile CircuitBreaker circuitBreaker;
+    private static volatile Map<String, PromptProfile> promptProfiles = Collections.emptyMap();
+    private static JsonObject registeredPrompts;
 
     // Setter for the logService (to be injected)
     public static void setLogService(LogService service) {
         logService = service;
     }
 
+    // Setter for the backend settings (to be injected)
+    public static void configure(OllamaSettings settings) {
+        if (transport != null) {
+            transport.close();
+        }
+        transport = new OllamaTransport(settings);
+        circuitBreaker = new CircuitBreaker(settings.getBreaker().getFailureThreshold(),
+                settings.getBreaker().getOpenDuration().toMillis());
+        responseCache = settings.getCache().isEnabled() ? new LlmResponseCache(settings.getCache()) : null;
+    }
+
+    /**
+     * Registers the per prompt type options of the loaded prompts.json
+     */
+    public static synchronized void registerPrompts(JsonObject prompts) {
+        // Schemas are compiled once; later loads of the same prompts are no-ops
+        if (prompts.equals(registeredPrompts)) {
+            return;
+        }
+        Map<String, PromptProfile> profiles = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : prompts.entrySet()) {
+            if (entry.getValue().isJsonObject()) {
+                profiles.put(entry.getKey(), PromptProfile.fromJson(entry.getKey(), entry.getValue().getAsJsonObject()));
+            }
+        }
+        promptProfiles = profiles;
+        registeredPrompts = prompts.deepCopy();
+    }
+
+    // Setter for the async client the static helpers delegate to (to be injected)
+    static void setAsyncClient(OllamaAsyncClient client) {
+        asyncClient = client;
+    }
+
+    private static synchronized OllamaAsyncClient asyncClient() {
+        if (asyncClient == null) {
+            // Standalone use without Spring: the client configures the transport with defaults
+            new OllamaAsyncClient(new OllamaSettings());
+        }
+        return asyncClient;
+    }
+
+    private static OllamaTransport transport() {
+        if (transport == null) {
+            asyncClient();
+        }
+        return transport;
+    }
+
+    /**
+     * @return the options of a prompt type from the loaded prompts.json, or null if unknown
+     */
+    public static PromptProfile getPromptProfile(String promptType) {
+        return promptProfiles.get(promptType);
+    }
+
+    public static CircuitBreaker getCircuitBreaker() {
+        transport();
+        return circuitBreaker;
+    }
+
+    /**
+     * Tells whether a failed call failed because the backend is unavailable or overloaded,
+     * as opposed to the request or the response being wrong. A call that ran past its deadline
+     * counts as the backend being overloaded.
+     */
+    public static boolean isBackendUnavailable(Throwable error) {
+        if (error instanceof TimeoutException) {
+            return true;
+        }
+        return error instanceof OllamaException && ((OllamaException) error).isTransient();
+    }
+
+    /**
+     * Get the timing figures of the most recent LLM call
+     */
+    public static LlmCallStats getLastCallStats() {
+        return lastCallStats;
+    }
+
     // Your original query function.
     static String queryOllama(String systemPrompt, String userPrompt) throws Exception {
-        URL url = new URL("http://localhost:11434/api/chat");
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setDoOutput(true);
+        return await(asyncClient().query(null, systemPrompt, userPrompt));
+    }
 
-        JsonObject requestBody = new JsonObject();
-        requestBody.addProperty("model", "phi4:latest"); // Replace with your model
+    /**
+     * Starts a query without waiting for it; cancelling the future aborts the call.
+     */
+    static CompletableFuture<String> queryOllamaAsync(String systemPrompt, String userPrompt) {
+        return asyncClient().query(null, systemPrompt, userPrompt);
+    }
+
+    /**
+     * Blocking call used by the async client's workers.
+     */
+    static String executeQuery(String promptType, String systemPrompt, String userPrompt) throws Exception {
+        return queryOllama(promptType, systemPrompt, userPrompt, null, null, null);
+    }
+
+    /**
+     * Opens a conversation for the given system prompt, e.g. the reevaluation turns of one plan.
+     */
+    public static LlmSession openSession(String systemPrompt) {
+        return new LlmSession(systemPrompt, transport().getSettings().getSessionMaxTurns());
+    }
+
+    /**
+     * Waits for an async call and rethrows its failure as the original exception.
+     */
+    static <T> T await(CompletableFuture<T> call) throws Exception {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new TimeoutException("LLM call exceeded its deadline");
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            throw e;
+        }
+    }
 
-        JsonArray messages = new JsonArray();
+    /**
+     * Sends the prompts to the model. In streaming mode, partial output is pushed to the
+     * conversation log as it arrives, and if a JSON scanner is given, reading stops as soon as
+     * the scanner has seen a complete JSON object.
+     * Responses of prompt types that opted in with "cache": true are served from the response cache.
+     * A non-null format (a JSON Schema) constrains the output through Ollama's structured output.
+     * With a session, the prompt is sent as the next turn of its conversation and the session's
+     * system prompt is used.
+     */
+    private static String queryOllama(String promptType, String systemPrompt, String userPrompt,
+                                      JsonScanner jsonScanner, JsonObject format, LlmSession session) throws Exception {
+        OllamaTransport transport = transport();
+        OllamaSettings settings = transport.getSettings();
 
-        // Add system prompt
-        JsonObject systemMessage = new JsonObject();
-        systemMessage.addProperty("role", "system");
-        systemMessage.addProperty("content", systemPrompt);
-        messages.add(systemMessage);
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("model", settings.getModel());
 
-        // Add user prompt
-        JsonObject userMessage = new JsonObject();
-        userMessage.addProperty("role", "user");
-        userMessage.addProperty("content", userPrompt);
-        messages.add(userMessage);
+        JsonArray messages;
+        if (session != null) {
+            messages = session.messagesWith(userPrompt);
+        } else {
+            messages = new JsonArray();
+            messages.add(LlmSession.message("system", systemPrompt));
+            messages.add(LlmSession.message("user", userPrompt));
+        }
 
         requestBody.add("messages", messages);
-        requestBody.addProperty("stream", false); // Set to true if streaming responses are desired
+        requestBody.addProperty("stream", settings.isStream());
+        if (format != null) {
+            requestBody.add("format", format);
+        }
+        if (settings.getKeepAlive() != null && !settings.getKeepAlive().isEmpty()) {
+            // Keep the model loaded between the steps of a plan
+            requestBody.addProperty("keep_alive", settings.getKeepAlive());
+        }
 
         // Log user prompt
-        String userPromptMessage = messages.get(1).getAsJsonObject().get("content").getAsString();
         if (logService != null) {
-            logService.addLlmRequest("USER PROMPT: " + userPromptMessage);
+            logService.addLlmRequest("USER PROMPT: " + userPrompt);
         } else {
-            System.out.println("USER PROMPT: " + userPromptMessage);
+            System.out.println("USER PROMPT: " + userPrompt);
         }
 
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = requestBody.toString().getBytes("utf-8");
-            os.write(input, 0, input.length);
+        PromptProfile profile = promptType == null ? null : promptProfiles.get(promptType);
+        LlmResponseCache cache = responseCache;
+        String cacheKey = null;
+        if (cache != null && profile != null && profile.isCacheable()) {
+            cacheKey = LlmResponseCache.key(requestBody, jsonScanner != null);
+            String cached = cache.get(cacheKey);
+            if (cached != null) {
+                Metrics.increment("llm.cache.hits");
+                Metrics.increment("llm.cache.hits." + promptType);
+                if (logService != null) {
+                    logService.addLlmResponse("ASSISTANT RESPONSE (cached): " + cached);
+                } else {
+                    System.out.println("ASSISTANT PROMPT (cached): " + cached);
+                }
+                if (jsonScanner != null) {
+                    jsonScanner.feed(cached);
+                }
+                if (session != null) {
+                    session.recordTurn(userPrompt, cached);
+                }
+                return cached;
+            }
+            Metrics.increment("llm.cache.misses");
+            Metrics.increment("llm.cache.misses." + promptType);
+        }
+
+        String assistantResponse = sendWithRetry(transport, requestBody, jsonScanner);
+
+        // Only keep answers that contain the JSON the caller asked for
+        if (cacheKey != null && (jsonScanner == null || jsonScanner.isComplete())) {
+            cache.put(cacheKey, assistantResponse);
+        }
+        if (session != null) {
+            session.recordTurn(userPrompt, assistantResponse);
         }
+        return assistantResponse;
+    }
+
+    /**
+     * Sends the request through the circuit breaker, retrying transient failures with jittered
+     * exponential backoff. Other failures (e.g. a 4xx) are thrown right away.
+     */
+    private static String sendWithRetry(OllamaTransport transport, JsonObject requestBody,
+                                        JsonScanner jsonScanner) throws Exception {
+        OllamaSettings.Retry retry = transport.getSettings().getRetry();
+        int maxAttempts = Math.max(1, retry.getMaxAttempts());
+        CircuitBreaker breaker = circuitBreaker;
+
+        for (int attempt = 1; ; attempt++) {
+            breaker.beforeCall();
+            OllamaException failure = null;
+            boolean succeeded = false;
+            try {
+                String assistantResponse;
+                if (transport.getSettings().isStream()) {
+                    assistantResponse = streamResponse(transport, requestBody, jsonScanner);
+                } else {
+                    assistantResponse = postForResponse(transport, requestBody);
+                    if (jsonScanner != null) {
+                        jsonScanner.feed(assistantResponse);
+                    }
+                }
+                breaker.onSuccess();
+                succeeded = true;
+                return assistantResponse;
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The call was cancelled, which aborted the exchange
+                    throw e;
+                }
+                failure = new OllamaException("Ollama request failed: " + e.getMessage(), 0, true, e);
+            } catch (OllamaException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                // A malformed response or no host for the model: retrying the same request will not help
+                failure = new OllamaException("Unexpected response from Ollama: " + e, 0, false, e);
+            } finally {
+                if (!succeeded && failure == null) {
+                    // Cancelled or failed with an Error: give back a half-open trial call
+                    breaker.onAbort();
+                }
+            }
+
+            if (!failure.isTransient()) {
+                // Says nothing either way about an outage; a half-open breaker may try again
+                breaker.onAbort();
+                Metrics.increment("llm.failures.permanent");
+                throw failure;
+            }
+            breaker.onFailure();
+            Metrics.increment("llm.failures.transient");
+            if (attempt >= maxAttempts || breaker.getState() == CircuitBreaker.State.OPEN) {
+                throw failure;
+            }
 
-        int code = connection.getResponseCode();
-        if (code != 200) {
-            throw new RuntimeException("Failed : HTTP error code : " + code);
+            long backoffMillis = backoffMillis(retry, attempt);
+            Metrics.increment("llm.retries");
+            String message = "LLM call failed (" + failure.getMessage() + "), retrying in " + backoffMillis
+                    + " ms (attempt " + (attempt + 1) + " of " + maxAttempts + ")";
+            if (logService != null) {
+                logService.addWarning(message);
+            } else {
+                System.out.println(message);
+            }
+            Thread.sleep(backoffMillis);
+            if (jsonScanner != null) {
+                jsonScanner.reset();
+            }
         }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random,
+     * so callers that failed together do not retry in lockstep.
+     */
+    static long backoffMillis(OllamaSettings.Retry retry, int attempt) {
+        long initial = Math.max(1, retry.getInitialBackoff().toMillis());
+        long ceiling = Math.max(initial, retry.getMaxBackoff().toMillis());
+        long delay = Math.min(ceiling, initial << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"));
-        StringBuilder response = new StringBuilder();
-        String line;
-        while ((line = in.readLine()) != null) {
-            response.append(line.trim());
+    /**
+     * Rough token count of the whole prompt, used to estimate how much of it Ollama served from its KV cache.
+     */
+    private static int estimatePromptTokens(JsonObject requestBody) {
+        int tokens = 0;
+        for (JsonElement message : requestBody.getAsJsonArray("messages")) {
+            tokens += PromptCompactor.estimateTokens(message.getAsJsonObject().get("content").getAsString());
         }
-        in.close();
+        return tokens;
+    }
 
-        JsonObject jsonResponse = JsonParser.parseString(response.toString()).getAsJsonObject();
+    private static String postForResponse(OllamaTransport transport, JsonObject requestBody) throws Exception {
+        long start = System.nanoTime();
+        JsonObject jsonResponse = transport.postJson("api/chat", requestBody);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
 
         JsonObject message = jsonResponse.getAsJsonObject("message");
         String assistantResponse = message.get("content").getAsString();
@@ -86,10 +346,128 @@ public class OllamaClient {
         } else {
             System.out.println("ASSISTANT PROMPT: " + assistantResponse);
         }
+
+        // Without streaming the first token is only seen with the full response
+        recordCallStats(requestBody, jsonResponse, elapsedMillis, elapsedMillis, 0, false);
         
         return assistantResponse;
     }
 
+    private static String streamResponse(OllamaTransport transport, JsonObject requestBody, JsonScanner jsonScanner) throws Exception {
+        StreamingResponse response = new StreamingResponse(jsonScanner);
+        JsonObject finalChunk = transport.postJsonStream("api/chat", requestBody, response);
+        response.flushLog();
+
+        long end = System.nanoTime();
+        long totalMillis = (end - response.startNanos) / 1_000_000;
+        long ttftMillis = response.firstTokenNanos == 0 ? totalMillis : (response.firstTokenNanos - response.startNanos) / 1_000_000;
+        // Ollama sends one chunk per generated token, which is the best estimate if we stopped early
+        double chunkRate = response.firstTokenNanos == 0 || end == response.firstTokenNanos ? 0
+                : response.chunkCount / ((end - response.firstTokenNanos) / 1e9);
+        recordCallStats(requestBody, finalChunk, ttftMillis, totalMillis, chunkRate, finalChunk == null);
+
+        String assistantResponse = response.content.toString();
+        if (logService == null) {
+            System.out.println("ASSISTANT PROMPT: " + assistantResponse);
+        }
+        return assistantResponse;
+    }
+
+    private static void recordCallStats(JsonObject requestBody, JsonObject finalResponse, long ttftMillis, long totalMillis,
+                                        double estimatedTokensPerSecond, boolean stoppedEarly) {
+        int evalCount = 0;
+        double tokensPerSecond = estimatedTokensPerSecond;
+        if (finalResponse != null && finalResponse.has("eval_count")) {
+            evalCount = finalResponse.get("eval_count").getAsInt();
+            long evalDuration = finalResponse.has("eval_duration") ? finalResponse.get("eval_duration").getAsLong() : 0;
+            if (evalDuration > 0) {
+                tokensPerSecond = evalCount / (evalDuration / 1e9);
+            }
+        }
+
+        // Ollama only counts the prompt tokens it had to evaluate; the rest came from its KV cache
+        int promptEvalCount = -1;
+        long promptEvalMillis = 0;
+        int reusedPromptTokens = 0;
+        if (finalResponse != null && finalResponse.has("prompt_eval_count")) {
+            promptEvalCount = finalResponse.get("prompt_eval_count").getAsInt();
+            promptEvalMillis = finalResponse.has("prompt_eval_duration")
+                    ? finalResponse.get("prompt_eval_duration").getAsLong() / 1_000_000 : 0;
+            reusedPromptTokens = Math.max(0, estimatePromptTokens(requestBody) - promptEvalCount);
+            Metrics.add("llm.prompt.tokens.evaluated", promptEvalCount);
+            Metrics.add("llm.prompt.tokens.reused", reusedPromptTokens);
+            Metrics.add("llm.prompt.eval.millis", promptEvalMillis);
+        }
+
+        LlmCallStats stats = new LlmCallStats(ttftMillis, totalMillis, evalCount, tokensPerSecond, stoppedEarly,
+                promptEvalCount, promptEvalMillis, reusedPromptTokens);
+        lastCallStats = stats;
+        if (logService != null) {
+            logService.addInfo("LLM call stats: " + stats);
+        } else {
+            System.out.println("LLM call stats: " + stats);
+        }
+    }
+
+    /**
+     * Collects streamed chunks, forwards them to the conversation log in small batches,
+     * and tells the transport to stop once the JSON scanner (if any) is satisfied.
+     */
+    private static class StreamingResponse implements Predicate<JsonObject> {
+        private static final int LOG_FLUSH_CHARS = 120;
+        private static final long LOG_FLUSH_NANOS = 250_000_000L;
+
+        private final JsonScanner jsonScanner;
+        private final StringBuilder content = new StringBuilder();
+        private final StringBuilder pendingLog = new StringBuilder();
+        private final long startNanos = System.nanoTime();
+        private long firstTokenNanos = 0;
+        private long lastFlushNanos = startNanos;
+        private int chunkCount = 0;
+        private long streamId = -1;
+
+        StreamingResponse(JsonScanner jsonScanner) {
+            this.jsonScanner = jsonScanner;
+        }
+
+        @Override
+        public boolean test(JsonObject chunk) {
+            JsonObject message = chunk.getAsJsonObject("message");
+            String token = (message != null && message.has("content")) ? message.get("content").getAsString() : "";
+            if (token.isEmpty()) {
+                return true;
+            }
+
+            long now = System.nanoTime();
+            if (firstTokenNanos == 0) {
+                firstTokenNanos = now;
+            }
+            chunkCount++;
+            content.append(token);
+
+            pendingLog.append(token);
+            if (token.indexOf('\n') >= 0 || pendingLog.length() >= LOG_FLUSH_CHARS || now - lastFlushNanos >= LOG_FLUSH_NANOS) {
+                flushLog();
+            }
+
+            // Keep reading unless the caller only needs the first JSON object and it is complete
+            return jsonScanner == null || !jsonScanner.feed(token);
+        }
+
+        void flushLog() {
+            lastFlushNanos = System.nanoTime();
+            if (logService == null || pendingLog.length() == 0) {
+                return;
+            }
+            if (streamId < 0) {
+                streamId = logService.startLlmResponseStream();
+                pendingLog.insert(0, "ASSISTANT RESPONSE: ");
+            }
+            logService.addLlmResponseChunk(streamId, pendingLog.toString());
+            pendingLog.setLength(0);
+        }
+    }
+
     /**
      * Checks if the response JSON contains all keys defined in the expected schema.
      * (You might want to enhance this check to include type validation or nested structure checks.)
@@ -151,12 +529,78 @@ public class OllamaClient {
      * @throws Exception If an error occurs during the query.
      */
     public static JsonObject queryOllamaWithSchema(String systemPrompt, String userPrompt, JsonObject expectedSchema) throws Exception {
-        String responseText = queryOllama(systemPrompt, userPrompt);
-        String responseTextClean = extracted(responseText);
+        return queryOllamaWithSchema(null, systemPrompt, userPrompt, expectedSchema);
+    }
+
+    /**
+     * Same as {@link #queryOllamaWithSchema(String, String, JsonObject)}, for a prompt type from prompts.json
+     * (e.g. "PlanReevaluation") so its per type options such as caching apply.
+     */
+    public static JsonObject queryOllamaWithSchema(String promptType, String systemPrompt, String userPrompt, JsonObject expectedSchema) throws Exception {
+        return await(asyncClient().queryWithSchema(promptType, systemPrompt, userPrompt, expectedSchema));
+    }
+
+    /**
+     * Starts a {@link #queryOllamaWithSchema(String, String, String, JsonObject)} call without waiting for it;
+     * cancelling the future aborts the call.
+     */
+    public static CompletableFuture<JsonObject> queryOllamaWithSchemaAsync(String promptType, String systemPrompt,
+                                                                          String userPrompt, JsonObject expectedSchema) {
+        return asyncClient().queryWithSchema(promptType, systemPrompt, userPrompt, expectedSchema);
+    }
+
+    /**
+     * Same as {@link #queryOllamaWithSchema(String, String, String, JsonObject)}, sent as the next turn of a session.
+     */
+    public static JsonObject queryOllamaWithSchema(String promptType, LlmSession session, String userPrompt, JsonObject expectedSchema) throws Exception {
+        return await(asyncClient().queryWithSchema(promptType, session, userPrompt, expectedSchema));
+    }
+
+    /**
+     * Blocking call used by the async client's workers.
+     */
+    static JsonObject executeQueryWithSchema(String promptType, String systemPrompt, String userPrompt, JsonObject expectedSchema) throws Exception {
+        return executeQueryWithSchema(promptType, null, systemPrompt, userPrompt, expectedSchema);
+    }
+
+    /**
+     * Blocking call used by the async client's workers; with a session the system prompt is the session's.
+     */
+    static JsonObject executeQueryWithSchema(String promptType, LlmSession session, String systemPrompt,
+                                             String userPrompt, JsonObject expectedSchema) throws Exception {
+        if (session != null) {
+            systemPrompt = session.getSystemPrompt();
+        }
+        JsonObject format = null;
+        if (transport().getSettings().isStructuredOutput()) {
+            PromptProfile profile = promptType == null ? null : promptProfiles.get(promptType);
+            format = (profile != null && profile.getResponseSchema() != null)
+                    ? profile.getResponseSchema()
+                    : JsonSchemaCompiler.compile(expectedSchema);
+        }
+
+        // When streaming, stop reading as soon as the first complete JSON object has arrived
+        JsonScanner jsonScanner = new JsonScanner(false);
+        String responseText = queryOllama(promptType, systemPrompt, userPrompt, jsonScanner, format, session);
 
+        if (format != null) {
+            JsonObject constrained = parseConstrainedResponse(jsonScanner, responseText, expectedSchema);
+            if (constrained != null) {
+                return constrained;
+            }
+
+            // The heuristic repair path below only runs when the output does not follow the schema
+            String typeLabel = promptType == null ? "untyped" : promptType;
+            Metrics.increment("llm.schema.fallback");
+            Metrics.increment("llm.schema.fallback." + typeLabel);
+            if (logService != null) {
+                logService.addWarning("Response for " + typeLabel + " did not match the schema, using JSON repair fallback");
+            }
+        }
+
+        String responseTextClean = jsonScanner.getJson();
         if (responseTextClean == null) {
-            // If extraction failed, try to find JSON anywhere in the response
-            responseTextClean = extractAnyJson(responseText);
+            responseTextClean = extractJson(responseText);
             if (responseTextClean == null) {
                 System.out.println("No valid JSON found in response. Original response:\n" + responseText);
                 responseTextClean = "{}";  // Provide an empty object to avoid NPE
@@ -263,6 +707,26 @@ public class OllamaClient {
         return jsonResponse;
     }
 
+    /**
+     * Parses a structured output response. With the "format" field set the content is plain JSON,
+     * so no extraction or repair should be needed.
+     *
+     * @return the response object, or null if it is not JSON or does not match the expected schema
+     */
+    private static JsonObject parseConstrainedResponse(JsonScanner jsonScanner, String responseText, JsonObject expectedSchema) {
+        String jsonText = jsonScanner.getJson() != null ? jsonScanner.getJson() : responseText;
+        try {
+            JsonElement parsed = JsonParser.parseString(jsonText);
+            if (parsed.isJsonObject() && matchesSchema(parsed, expectedSchema)) {
+                Metrics.increment("llm.schema.constrained");
+                return parsed.getAsJsonObject();
+            }
+        } catch (JsonParseException e) {
+            System.out.println("Structured output was not valid JSON: " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Print to original console output without timestamps
      */
@@ -270,8 +734,8 @@ public class OllamaClient {
         try {
             // Try to get the ConsoleRedirector instance
             pkg.web.ConsoleRedirector redirector = pkg.web.ConsoleRedirector.getInstance();
-            if (redirector != null && redirector.originalOut != null) {
-                redirector.originalOut.println(message);
+            if (redirector != null && redirector.getOriginalOut() != null) {
+                redirector.getOriginalOut().println(message);
                 return;
             }
         } catch (Exception e) {
@@ -280,45 +744,50 @@ public class OllamaClient {
         }
     }
 
-    private static String extracted(String rawText) {
-        Pattern pattern = Pattern.compile("```json\\s*(\\{.*?\\})\\s*```", Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(rawText);
+    /**
+     * Extracts the first JSON object from the model output in a single linear pass.
+     * The content of a ```json fenced block is preferred; otherwise the first balanced
+     * object anywhere in the text is used. Nested objects and braces inside strings are handled.
+     */
+    static String extractJson(String rawText) {
+        int fence = rawText.indexOf("```json");
+        String jsonText = fence >= 0 ? JsonScanner.extractFirst(rawText, fence, false) : null;
+        if (jsonText == null) {
+            jsonText = JsonScanner.extractFirst(rawText, false);
+        }
+        if (jsonText == null) {
+            System.out.println("No JSON object found in the input text.");
+            return null;
+        }
 
-        if (matcher.find()) {
-            // Extract the JSON string (group 1)
-            String jsonText = matcher.group(1);
-            System.out.println("Extracted JSON:");
+        System.out.println("Extracted JSON:");
             
-            // Format and print JSON without timestamps
+        // Format and print JSON without timestamps
+        try {
+            JsonObject jsonObject = JsonParser.parseString(jsonText).getAsJsonObject();
+            String prettyJson = JsonCodec.PRETTY_GSON.toJson(jsonObject);
+            
+            // Try to get the LogService instance from Spring context
             try {
-                JsonObject jsonObject = JsonParser.parseString(jsonText).getAsJsonObject();
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                String prettyJson = gson.toJson(jsonObject);
-                
-                // Try to get the LogService instance from Spring context
-                try {
-                    pkg.web.LogService logService = getLogService();
-                    if (logService != null) {
-                        // Use the special method to log JSON without timestamps
-                        logService.addRawJson(prettyJson);
-                    } else {
-                        // Fall back to direct printing
-                        printRawToConsole("\n--- JSON OUTPUT START ---\n" + prettyJson + "\n--- JSON OUTPUT END ---\n");
-                    }
-                } catch (Exception e) {
+                pkg.web.LogService logService = getLogService();
+                if (logService != null) {
+                    // Use the special method to log JSON without timestamps
+                    logService.addRawJson(prettyJson);
+                } else {
                     // Fall back to direct printing
                     printRawToConsole("\n--- JSON OUTPUT START ---\n" + prettyJson + "\n--- JSON OUTPUT END ---\n");
                 }
             } catch (Exception e) {
-                // If JSON parsing fails, print the raw text
-                System.out.println(jsonText);
+                // Fall back to direct printing
+                printRawToConsole("\n--- JSON OUTPUT START ---\n" + prettyJson + "\n--- JSON OUTPUT END ---\n");
             }
-
-            return jsonText;
-        } else {
-            System.out.println("No JSON code block found in the input text.");
+        } catch (Exception e) {
+            // If JSON parsing fails, print the raw text; the caller will ask the model to fix it
+            System.out.println(jsonText);
+            System.out.println("Extracted text is not valid JSON: " + e.getMessage());
         }
-        return null;
+
+        return jsonText;
     }
 
     /**
@@ -354,62 +823,19 @@ public class OllamaClient {
         return null;
     }
 
-    /**
-     * Extract any JSON object from the text
-     */
-    private static String extractAnyJson(String rawText) {
-        // Try to extract any JSON object from { to matching }
-        Pattern pattern = Pattern.compile("\\{.*?\\}", Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(rawText);
-        
-        if (matcher.find()) {
-            String jsonText = matcher.group(0);
-            System.out.println("Extracted potential JSON:");
-            
-            // Format and print as a single block to avoid timestamps on each line
-            try {
-                JsonObject jsonObject = JsonParser.parseString(jsonText).getAsJsonObject();
-                Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                String prettyJson = gson.toJson(jsonObject);
-                
-                // Try to get the LogService instance from Spring context
-                try {
-                    pkg.web.LogService logService = getLogService();
-                    if (logService != null) {
-                        // Use the special method to log JSON without timestamps
-                        logService.addRawJson(prettyJson);
-                    } else {
-                        // Fall back to direct printing
-                        printRawToConsole("\n--- JSON OUTPUT START ---\n" + prettyJson + "\n--- JSON OUTPUT END ---\n");
-                    }
-                } catch (Exception e) {
-                    // Fall back to direct printing
-                    printRawToConsole("\n--- JSON OUTPUT START ---\n" + prettyJson + "\n--- JSON OUTPUT END ---\n");
-                }
-                
-                return jsonText;
-            } catch (Exception e) {
-                // If JSON parsing fails, print the raw text
-                System.out.println(jsonText);
-                System.out.println("Extracted text is not valid JSON: " + e.getMessage());
-            }
-        }
-        
-        return null;
-    }
-
     /**
      * Fallback method in case the initial response isn't valid JSON.
      * Asks the agent to output a JSON that fits the expected schema.
      */
     private static JsonObject fixJsonResponse(String systemPrompt, JsonObject expectedSchema) throws Exception {
         String fixPrompt = "The response was not valid JSON. Please output a JSON following this schema: " + expectedSchema.toString();
-        String fixedResponseText = queryOllama(systemPrompt, fixPrompt);
-        String fixedResponseTextClean = extracted(fixedResponseText);
+        JsonObject format = transport().getSettings().isStructuredOutput() ? JsonSchemaCompiler.compile(expectedSchema) : null;
+        String fixedResponseText = queryOllama(null, systemPrompt, fixPrompt, null, format, null);
+        String fixedResponseTextClean = extractJson(fixedResponseText);
         
         if (fixedResponseTextClean == null) {
-            // If no JSON block is found, try to parse the entire response
-            System.out.println("No JSON code block found, attempting to parse the entire response");
+            // If no JSON object is found, try to parse the entire response
+            System.out.println("No JSON object found, attempting to parse the entire response");
             try {
                 return JsonParser.parseString(fixedResponseText).getAsJsonObject();
             } catch (Exception e) {
@@ -0,0 +1,85 @@
+package pkg;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One Ollama host of the endpoint pool, with its routing and health state.
+ */
+public class OllamaEndpoint {
+    private final URI baseUri;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean healthy = true;
+    // Models reported by the last successful /api/tags probe, null until the first probe
+    private volatile Set<String> models;
+
+    public OllamaEndpoint(String endpoint) {
+        this.baseUri = URI.create(endpoint.endsWith("/") ? endpoint : endpoint + "/");
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    public URI resolve(String path) {
+        return baseUri.resolve(path);
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    void end() {
+        outstanding.decrementAndGet();
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    int recordFailure() {
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    void resetFailures() {
+        consecutiveFailures.set(0);
+    }
+
+    public Set<String> getModels() {
+        return models;
+    }
+
+    void setModels(Set<String> models) {
+        this.models = models;
+    }
+
+    /**
+     * @return true if the host has the model, or if its models are not known yet
+     */
+    public boolean servesModel(String model) {
+        Set<String> known = models;
+        return model == null || known == null || known.contains(normalizeModel(model));
+    }
+
+    /**
+     * Ollama reports untagged models as "name:latest"
+     */
+    static String normalizeModel(String model) {
+        return model.contains(":") ? model : model + ":latest";
+    }
+
+    @Override
+    public String toString() {
+        return baseUri + (healthy ? "" : " (unhealthy)") + " outstanding=" + outstanding.get();
+    }
+}
@@ -0,0 +1,163 @@
+package pkg;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of Ollama hosts.
+ * Each request goes to the healthy host with the fewest outstanding requests among those that
+ * have the requested model. Hosts are probed periodically through /api/tags, which also refreshes
+ * their model list; a host is ejected after maxFailures consecutive failed calls or probes and
+ * reinstated as soon as a probe succeeds again.
+ */
+public class OllamaEndpointPool {
+
+    private final List<OllamaEndpoint> endpoints;
+    private final HttpClient httpClient;
+    private final int maxFailures;
+    private final Duration probeTimeout;
+    private final AtomicInteger nextStart = new AtomicInteger();
+    private ScheduledExecutorService prober;
+
+    public OllamaEndpointPool(List<String> urls, HttpClient httpClient, OllamaSettings settings) {
+        List<OllamaEndpoint> list = new ArrayList<>();
+        for (String url : urls) {
+            list.add(new OllamaEndpoint(url.trim()));
+        }
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("No Ollama endpoint configured");
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.httpClient = httpClient;
+        this.maxFailures = Math.max(1, settings.getMaxFailures());
+        this.probeTimeout = settings.getConnectTimeout();
+    }
+
+    public List<OllamaEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Picks the least loaded healthy host for the model and counts the request as outstanding on it.
+     * When every host that has the model is ejected the least loaded of them is tried anyway,
+     * since a probe may simply not have run yet.
+     */
+    public OllamaEndpoint acquire(String model) {
+        OllamaEndpoint best = pick(model, true);
+        if (best == null) {
+            best = pick(model, false);
+        }
+        if (best == null) {
+            throw new IllegalStateException("No Ollama endpoint has the model " + model);
+        }
+        best.begin();
+        return best;
+    }
+
+    private OllamaEndpoint pick(String model, boolean healthyOnly) {
+        // Rotate the starting point so ties are spread over the hosts
+        int start = Math.floorMod(nextStart.getAndIncrement(), endpoints.size());
+        OllamaEndpoint best = null;
+        for (int i = 0; i < endpoints.size(); i++) {
+            OllamaEndpoint endpoint = endpoints.get((start + i) % endpoints.size());
+            if ((healthyOnly && !endpoint.isHealthy()) || !endpoint.servesModel(model)) {
+                continue;
+            }
+            if (best == null || endpoint.getOutstanding() < best.getOutstanding()) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    public void release(OllamaEndpoint endpoint) {
+        endpoint.end();
+    }
+
+    public void markSuccess(OllamaEndpoint endpoint) {
+        endpoint.resetFailures();
+        if (!endpoint.isHealthy()) {
+            endpoint.setHealthy(true);
+            Metrics.increment("llm.endpoint.reinstated");
+            System.out.println("Ollama endpoint reinstated: " + endpoint.getBaseUri());
+        }
+    }
+
+    public void markFailure(OllamaEndpoint endpoint) {
+        if (endpoint.recordFailure() >= maxFailures && endpoint.isHealthy()) {
+            endpoint.setHealthy(false);
+            Metrics.increment("llm.endpoint.ejected");
+            System.out.println("Ollama endpoint ejected: " + endpoint.getBaseUri());
+        }
+    }
+
+    /**
+     * Starts the periodic health probes; the first round runs immediately.
+     */
+    public synchronized void startHealthChecks(Duration interval) {
+        if (prober != null || interval.isZero() || interval.isNegative()) {
+            return;
+        }
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ollama-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probeAll, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+    }
+
+    void probeAll() {
+        for (OllamaEndpoint endpoint : endpoints) {
+            probe(endpoint);
+        }
+    }
+
+    private void probe(OllamaEndpoint endpoint) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint.resolve("api/tags"))
+                .timeout(probeTimeout)
+                .GET()
+                .build();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                markFailure(endpoint);
+                return;
+            }
+            Set<String> models = new HashSet<>();
+            JsonObject tags = JsonParser.parseString(response.body()).getAsJsonObject();
+            if (tags.has("models")) {
+                for (JsonElement model : tags.getAsJsonArray("models")) {
+                    models.add(OllamaEndpoint.normalizeModel(model.getAsJsonObject().get("name").getAsString()));
+                }
+            }
+            endpoint.setModels(models);
+            markSuccess(endpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            markFailure(endpoint);
+        }
+    }
+}
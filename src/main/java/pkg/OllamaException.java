@@ -0,0 +1,39 @@
+package pkg;
+
+/**
+ * Failure of a call to the Ollama backend.
+ * Transient failures (timeouts, connection errors, 408, 429 and 5xx responses) are worth retrying;
+ * anything else, such as a 4xx for an unknown model, fails the same way on every attempt.
+ */
+public class OllamaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final boolean transientFailure;
+
+    public OllamaException(String message, int statusCode, boolean transientFailure, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.transientFailure = transientFailure;
+    }
+
+    public static OllamaException forStatus(int statusCode) {
+        return new OllamaException("Failed : HTTP error code : " + statusCode, statusCode,
+                isTransientStatus(statusCode), null);
+    }
+
+    static boolean isTransientStatus(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || (statusCode >= 500 && statusCode != 501);
+    }
+
+    /**
+     * @return the HTTP status code, or 0 if the failure happened below HTTP
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isTransient() {
+        return transientFailure;
+    }
+}
@@ -0,0 +1,143 @@
+package pkg;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection settings for the Ollama backend, bound from the "ollama.*" properties.
+ * The defaults match the previously hardcoded values so the standalone main() keeps working.
+ */
+@Component
+@ConfigurationProperties(prefix = "ollama")
+public class OllamaSettings {
+    private String endpoint = "http://localhost:11434";
+    private List<String> endpoints = new ArrayList<>();
+    private Duration healthCheckInterval = Duration.ofSeconds(15);
+    private int maxFailures = 2;
+    private String model = "phi4:latest";
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration readTimeout = Duration.ofMinutes(5);
+    private int poolSize = 4;
+    private boolean stream = true;
+    private boolean structuredOutput = true;
+    private Duration callDeadline = Duration.ofMinutes(10);
+    private int maxInFlight = 4;
+    private String keepAlive = "30m";
+    private int sessionMaxTurns = 8;
+    private final Cache cache = new Cache();
+    private final Retry retry = new Retry();
+    private final Breaker breaker = new Breaker();
+
+    public String getEndpoint() { return endpoint; }
+    public void setEndpoint(String endpoint) { this.endpoint = endpoint; }
+
+    /**
+     * Hosts of the endpoint pool; when empty, the single endpoint is used.
+     */
+    public List<String> getEndpoints() { return endpoints; }
+    public void setEndpoints(List<String> endpoints) { this.endpoints = endpoints; }
+
+    public Duration getHealthCheckInterval() { return healthCheckInterval; }
+    public void setHealthCheckInterval(Duration healthCheckInterval) { this.healthCheckInterval = healthCheckInterval; }
+
+    public int getMaxFailures() { return maxFailures; }
+    public void setMaxFailures(int maxFailures) { this.maxFailures = maxFailures; }
+
+    public String getModel() { return model; }
+    public void setModel(String model) { this.model = model; }
+
+    public Duration getConnectTimeout() { return connectTimeout; }
+    public void setConnectTimeout(Duration connectTimeout) { this.connectTimeout = connectTimeout; }
+
+    public Duration getReadTimeout() { return readTimeout; }
+    public void setReadTimeout(Duration readTimeout) { this.readTimeout = readTimeout; }
+
+    public int getPoolSize() { return poolSize; }
+    public void setPoolSize(int poolSize) { this.poolSize = poolSize; }
+
+    public boolean isStream() { return stream; }
+    public void setStream(boolean stream) { this.stream = stream; }
+
+    public boolean isStructuredOutput() { return structuredOutput; }
+    public void setStructuredOutput(boolean structuredOutput) { this.structuredOutput = structuredOutput; }
+
+    public Duration getCallDeadline() { return callDeadline; }
+    public void setCallDeadline(Duration callDeadline) { this.callDeadline = callDeadline; }
+
+    public int getMaxInFlight() { return maxInFlight; }
+    public void setMaxInFlight(int maxInFlight) { this.maxInFlight = maxInFlight; }
+
+    public String getKeepAlive() { return keepAlive; }
+    public void setKeepAlive(String keepAlive) { this.keepAlive = keepAlive; }
+
+    public int getSessionMaxTurns() { return sessionMaxTurns; }
+    public void setSessionMaxTurns(int sessionMaxTurns) { this.sessionMaxTurns = sessionMaxTurns; }
+
+    public Cache getCache() { return cache; }
+
+    public Retry getRetry() { return retry; }
+
+    public Breaker getBreaker() { return breaker; }
+
+    /**
+     * Response cache settings ("ollama.cache.*"). An empty directory keeps the cache in memory only.
+     */
+    public static class Cache {
+        private boolean enabled = true;
+        private int maxEntries = 256;
+        private String directory = "";
+        private long maxSegmentBytes = 16L * 1024 * 1024;
+        private int maxSegments = 8;
+
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+        public int getMaxEntries() { return maxEntries; }
+        public void setMaxEntries(int maxEntries) { this.maxEntries = maxEntries; }
+
+        public String getDirectory() { return directory; }
+        public void setDirectory(String directory) { this.directory = directory; }
+
+        public long getMaxSegmentBytes() { return maxSegmentBytes; }
+        public void setMaxSegmentBytes(long maxSegmentBytes) { this.maxSegmentBytes = maxSegmentBytes; }
+
+        public int getMaxSegments() { return maxSegments; }
+        public void setMaxSegments(int maxSegments) { this.maxSegments = maxSegments; }
+    }
+
+    /**
+     * Retry settings for transient failures ("ollama.retry.*"); the backoff doubles per attempt, with jitter.
+     */
+    public static class Retry {
+        private int maxAttempts = 3;
+        private Duration initialBackoff = Duration.ofMillis(500);
+        private Duration maxBackoff = Duration.ofSeconds(10);
+
+        public int getMaxAttempts() { return maxAttempts; }
+        public void setMaxAttempts(int maxAttempts) { this.maxAttempts = maxAttempts; }
+
+        public Duration getInitialBackoff() { return initialBackoff; }
+        public void setInitialBackoff(Duration initialBackoff) { this.initialBackoff = initialBackoff; }
+
+        public Duration getMaxBackoff() { return maxBackoff; }
+        public void setMaxBackoff(Duration maxBackoff) { this.maxBackoff = maxBackoff; }
+    }
+
+    /**
+     * Circuit breaker settings ("ollama.breaker.*").
+     */
+    public static class Breaker {
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        public int getFailureThreshold() { return failureThreshold; }
+        public void setFailureThreshold(int failureThreshold) { this.failureThreshold = failureThreshold; }
+
+        public Duration getOpenDuration() { return openDuration; }
+        public void setOpenDuration(Duration openDuration) { this.openDuration = openDuration; }
+    }
+}
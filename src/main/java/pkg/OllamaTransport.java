@@ -0,0 +1,178 @@
+package pkg;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+/**
+ * HTTP transport to the Ollama server.
+ * A single keep-alive HttpClient is shared by all calls so the TCP connection is reused
+ * instead of being set up again for every prompt. The number of concurrent exchanges is
+ * capped at the configured pool size per host, which bounds the number of connections the
+ * client opens and keeps idle.
+ * Requests are spread over the hosts of the endpoint pool.
+ */
+public class OllamaTransport {
+
+    private final OllamaSettings settings;
+    private final HttpClient httpClient;
+    private final OllamaEndpointPool endpointPool;
+    private final Semaphore connectionSlots;
+
+    public OllamaTransport(OllamaSettings settings) {
+        this.settings = settings;
+        List<String> endpoints = settings.getEndpoints().isEmpty()
+                ? Collections.singletonList(settings.getEndpoint())
+                : settings.getEndpoints();
+        int poolSize = Math.max(1, settings.getPoolSize()) * endpoints.size();
+
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.getConnectTimeout())
+                .build();
+        this.connectionSlots = new Semaphore(poolSize, true);
+        this.endpointPool = new OllamaEndpointPool(endpoints, httpClient, settings);
+        endpointPool.startHealthChecks(settings.getHealthCheckInterval());
+    }
+
+    public OllamaEndpointPool getEndpointPool() {
+        return endpointPool;
+    }
+
+    /**
+     * Stops the health checks of the endpoint pool
+     */
+    public void close() {
+        endpointPool.close();
+    }
+
+    public OllamaSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * POSTs a JSON body to the given API path (e.g. "api/chat") and parses the
+     * response directly from the body stream.
+     */
+    public JsonObject postJson(String path, JsonObject body) throws IOException, InterruptedException {
+        OllamaEndpoint endpoint = acquire(body);
+        try {
+            HttpResponse<InputStream> response = httpClient.send(buildPost(endpoint, path, body),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw statusFailure(endpoint, response.statusCode());
+                }
+                JsonObject result = JsonParser.parseReader(new InputStreamReader(in, StandardCharsets.UTF_8)).getAsJsonObject();
+                endpointPool.markSuccess(endpoint);
+                return result;
+            }
+        } catch (IOException e) {
+            recordFailure(endpoint);
+            throw e;
+        } finally {
+            endpointPool.release(endpoint);
+            connectionSlots.release();
+        }
+    }
+
+    /**
+     * POSTs a JSON body to a streaming API path and hands each NDJSON chunk to the callback
+     * as it arrives. Returning false from the callback stops reading and closes the body,
+     * which cancels the exchange.
+     *
+     * @return the final chunk (the one with "done": true), or null if the callback stopped early
+     */
+    public JsonObject postJsonStream(String path, JsonObject body, Predicate<JsonObject> onChunk)
+            throws IOException, InterruptedException {
+        OllamaEndpoint endpoint = acquire(body);
+        try {
+            HttpResponse<InputStream> response = httpClient.send(buildPost(endpoint, path, body),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+                if (response.statusCode() != 200) {
+                    throw statusFailure(endpoint, response.statusCode());
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    JsonObject chunk = JsonParser.parseString(line).getAsJsonObject();
+                    if (chunk.has("error")) {
+                        throw new OllamaException("Ollama error: " + chunk.get("error").getAsString(), 0, false, null);
+                    }
+                    if (chunk.has("done") && chunk.get("done").getAsBoolean()) {
+                        endpointPool.markSuccess(endpoint);
+                        onChunk.test(chunk);
+                        return chunk;
+                    }
+                    if (!onChunk.test(chunk)) {
+                        endpointPool.markSuccess(endpoint);
+                        return null;
+                    }
+                }
+                throw new IOException("Stream ended before the final chunk was received");
+            }
+        } catch (IOException e) {
+            recordFailure(endpoint);
+            throw e;
+        } finally {
+            endpointPool.release(endpoint);
+            connectionSlots.release();
+        }
+    }
+
+    /**
+     * Takes a connection slot and a host serving the body's model; the slot is given back if no
+     * host can be had.
+     */
+    private OllamaEndpoint acquire(JsonObject body) throws InterruptedException {
+        connectionSlots.acquire();
+        try {
+            return endpointPool.acquire(modelOf(body));
+        } catch (RuntimeException e) {
+            connectionSlots.release();
+            throw e;
+        }
+    }
+
+    private OllamaException statusFailure(OllamaEndpoint endpoint, int statusCode) {
+        OllamaException failure = OllamaException.forStatus(statusCode);
+        if (failure.isTransient()) {
+            endpointPool.markFailure(endpoint);
+        }
+        return failure;
+    }
+
+    private void recordFailure(OllamaEndpoint endpoint) {
+        // An exchange aborted by a cancelled call says nothing about the host
+        if (!Thread.currentThread().isInterrupted()) {
+            endpointPool.markFailure(endpoint);
+        }
+    }
+
+    private static String modelOf(JsonObject body) {
+        return body.has("model") ? body.get("model").getAsString() : null;
+    }
+
+    private HttpRequest buildPost(OllamaEndpoint endpoint, String path, JsonObject body) {
+        return HttpRequest.newBuilder(endpoint.resolve(path))
+                .timeout(settings.getReadTimeout())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+    }
+}
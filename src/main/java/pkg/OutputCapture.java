@@ -0,0 +1,144 @@
+package pkg;
+
+import java.util.function.Consumer;
+
+/**
+ * Bounded capture of a command's output: the first headChars and the last tailChars are kept,
+ * whatever is in between is only counted. Lines are also handed to a log sink in batches,
+ * whenever the producer has nothing more to read for the moment, instead of one at a time.
+ * Thread-safe, so it can be filled from a pump thread and read from another.
+ */
+public class OutputCapture implements OutputPump.LineHandler {
+
+    // Lines per log entry at most, when output arrives faster than it is flushed
+    private static final int MAX_BATCH_LINES = 200;
+
+    private final int headChars;
+    private final char[] tail;
+    private final StringBuilder head = new StringBuilder();
+    private final Consumer<String> logSink;
+    private final StringBuilder batch = new StringBuilder();
+    private int batchLines;
+    private int tailStart;
+    private int tailLength;
+    private long totalChars;
+    private volatile long lastOutputNanos = System.nanoTime();
+
+    /**
+     * @param logSink receives batches of lines as they are captured, or null to only capture
+     */
+    public OutputCapture(int headChars, int tailChars, Consumer<String> logSink) {
+        this.headChars = Math.max(0, headChars);
+        this.tail = new char[Math.max(0, tailChars)];
+        this.logSink = logSink;
+    }
+
+    @Override
+    public synchronized void onLine(String line) {
+        lastOutputNanos = System.nanoTime();
+        append(line);
+        append("\n");
+        if (logSink != null) {
+            batch.append(line).append('\n');
+            if (++batchLines >= MAX_BATCH_LINES) {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public void onIdle() {
+        flush();
+    }
+
+    @Override
+    public void onEnd() {
+        flush();
+    }
+
+    private void append(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            totalChars++;
+            if (head.length() < headChars) {
+                head.append(c);
+            } else if (tail.length > 0) {
+                // Ring buffer: once full, the oldest character is overwritten
+                tail[(tailStart + tailLength) % tail.length] = c;
+                if (tailLength < tail.length) {
+                    tailLength++;
+                } else {
+                    tailStart = (tailStart + 1) % tail.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an empty capture with the same limits and log sink, e.g. for the stderr of the same command
+     */
+    public OutputCapture sibling() {
+        return new OutputCapture(headChars, tail.length, logSink);
+    }
+
+    /**
+     * Appends another capture (already logged) under a title line, e.g. stderr after stdout.
+     */
+    public synchronized void appendSection(String title, OutputCapture other) {
+        String text = other.toString();
+        if (!text.isEmpty()) {
+            append(title + "\n" + text);
+        }
+    }
+
+    /**
+     * Hands the lines captured since the last flush to the log sink.
+     */
+    public void flush() {
+        String lines;
+        synchronized (this) {
+            if (batch.length() == 0) {
+                return;
+            }
+            batch.setLength(batch.length() - 1);
+            lines = batch.toString();
+            batch.setLength(0);
+            batchLines = 0;
+        }
+        logSink.accept(lines);
+    }
+
+    /**
+     * @return the number of characters that were dropped between head and tail
+     */
+    public synchronized long getOmittedChars() {
+        return totalChars - head.length() - tailLength;
+    }
+
+    public synchronized long getTotalChars() {
+        return totalChars;
+    }
+
+    /**
+     * @return nanoseconds since the last line was captured (or since the capture was created)
+     */
+    public long getIdleNanos() {
+        return System.nanoTime() - lastOutputNanos;
+    }
+
+    /**
+     * @return the head and tail of the output, with a marker where characters were dropped
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder(head);
+        long omitted = getOmittedChars();
+        if (omitted > 0) {
+            text.append("...[").append(omitted).append(" chars omitted]...\n");
+        }
+        for (int i = 0; i < tailLength; i++) {
+            text.append(tail[(tailStart + i) % tail.length]);
+        }
+        return text.toString();
+    }
+}
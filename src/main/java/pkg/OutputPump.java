@@ -0,0 +1,67 @@
+package pkg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains an output stream of a process on a pump thread and hands it over line by line, so the
+ * process never blocks on a full pipe and the thread running the task does not read its output.
+ */
+public final class OutputPump {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService PUMPS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "output-pump-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private OutputPump() {
+    }
+
+    /**
+     * Receives the lines read from a stream.
+     */
+    public interface LineHandler {
+        void onLine(String line);
+
+        /**
+         * Called when no more output is available for the moment, e.g. to flush buffered lines.
+         */
+        default void onIdle() {
+        }
+
+        /**
+         * Called once the stream is closed, i.e. the process exited or closed its end.
+         */
+        void onEnd();
+    }
+
+    /**
+     * Starts draining the stream; the returned future completes after {@link LineHandler#onEnd()}.
+     */
+    public static Future<?> start(InputStream stream, LineHandler handler) {
+        return PUMPS.submit(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    handler.onLine(line);
+                    if (!reader.ready()) {
+                        handler.onIdle();
+                    }
+                }
+            } catch (IOException e) {
+                // The stream was closed while reading, e.g. the process was destroyed
+            } finally {
+                handler.onEnd();
+            }
+        });
+    }
+}
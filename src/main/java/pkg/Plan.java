@@ -1,20 +1,397 @@
 package pkg;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * A tree of tasks. The plan keeps an index of its tasks by ID and the parent of every task, so
+ * lookups and removals do not scan the tree; every mutator of the plan and of its tasks keeps both
+ * up to date. IDs are unique within the plan: a task attached with an ID that is already taken
+ * (the model reuses IDs, breakdowns number their subtasks from 1) gets the next free one, and
+ * dependsOn references of its siblings are renamed with it.
+ *
+ * The plan also keeps the {@link ReadyQueue} of the tasks to work on next, built on first use.
+ *
+ * The tasks are changed by the thread executing the plan (and the workers running its tasks);
+ * everything else reads {@link #getSnapshot()}. Every change is made under the plan's lock and
+ * publishes a new {@link PlanSnapshot}, which copies only the changed task and its ancestors and
+ * shares all other task snapshots with the previous version. Changes made through {@link #edit}
+ * are published together, as one version.
+ *
+ * The index, parent links, ready queue and snapshot are transient; a plan read through JsonCodec is
+ * indexed as it is read, one read reflectively on first use.
+ */
 public class Plan {
     private List<Task> topLevelTasks;
+    // Version of the last published snapshot, saved with the plan
+    private long version;
+
+    private transient Map<Integer, Task> tasksById;
+    private transient int maxId;
+    private transient ReadyQueue readyQueue;
+    private transient volatile PlanSnapshot snapshot;
+    // Tasks changed by the edit in progress, published when it ends; null outside edits
+    private transient List<Task> editedTasks;
+    private transient boolean editedTopLevelTasks;
 
     public Plan() {
         this.topLevelTasks = new ArrayList<>();
     }
 
+    /**
+     * @return the top-level tasks, read-only; use addTask and removeTask to change them
+     */
     public List<Task> getTopLevelTasks() {
-        return topLevelTasks;
+        return Collections.unmodifiableList(topLevelTasks);
     }
 
     public void addTask(Task task) {
-        topLevelTasks.add(task);
+        addTasks(List.of(task));
+    }
+
+    /**
+     * Adds top-level tasks at once, so that dependsOn references between them survive renumbering.
+     */
+    public synchronized void addTasks(List<Task> tasks) {
+        index();
+        topLevelTasks.addAll(tasks);
+        attach(tasks, null);
+        publish(null);
+    }
+
+    /**
+     * @return the task with the given ID anywhere in the plan, or null
+     */
+    public Task getTask(int id) {
+        return index().get(id);
+    }
+
+    /**
+     * @return every task of the plan, in no particular order
+     */
+    public Collection<Task> getAllTasks() {
+        return Collections.unmodifiableCollection(index().values());
+    }
+
+    public int size() {
+        return index().size();
+    }
+
+    /**
+     * Removes the task with the given ID, with its subtasks, from wherever it is in the plan.
+     *
+     * @return the removed task, or null if there is none
+     */
+    public synchronized Task removeTask(int id) {
+        Task task = index().get(id);
+        if (task == null) {
+            return null;
+        }
+        Task parent = task.getParent();
+        if (parent != null) {
+            parent.removeSubTask(task);
+        } else {
+            topLevelTasks.remove(task);
+            detach(task);
+            publish(null);
+        }
+        return task;
+    }
+
+    /**
+     * Makes several changes to the plan as one version: readers see the plan before all of them or
+     * after all of them. The changes run under the plan's lock; if one throws, the changes made
+     * before it are kept and published.
+     */
+    public synchronized void edit(Runnable changes) {
+        if (editedTasks != null) {
+            changes.run();
+            return;
+        }
+        editedTasks = new ArrayList<>();
+        editedTopLevelTasks = false;
+        try {
+            changes.run();
+        } finally {
+            List<Task> changed = editedTasks;
+            editedTasks = null;
+            if (!changed.isEmpty() || editedTopLevelTasks) {
+                publishEdit(changed);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the plan and its tasks, not connected to this plan, that gives new tasks
+     * the IDs this plan would give them
+     */
+    synchronized Plan copy() {
+        Plan copy = JsonCodec.GSON.fromJson(JsonCodec.GSON.toJson(getSnapshot()), Plan.class);
+        copy.index();
+        copy.maxId = Math.max(copy.maxId, maxId);
+        return copy;
+    }
+
+    /**
+     * @return the first open task in breadth-first order that is atomic or still has to be broken
+     * down, or null if every task is completed
+     */
+    public Task getNextOpenTask() {
+        if (readyQueue == null) {
+            index();
+            readyQueue = new ReadyQueue(topLevelTasks);
+        }
+        return readyQueue.first();
+    }
+
+    /**
+     * @return the current version of the plan; never blocks, and never changes once returned
+     */
+    public PlanSnapshot getSnapshot() {
+        PlanSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            // A plan read reflectively is published on first use
+            if (snapshot == null) {
+                index();
+                publishAll();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return the version of the current snapshot
+     */
+    public long getVersion() {
+        return getSnapshot().getVersion();
+    }
+
+    /**
+     * Sets the version of the last published snapshot, which the next one follows; for a plan read
+     * from its file.
+     */
+    synchronized void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Publishes a new snapshot after a change of a task of the plan (its fields or its list of
+     * subtasks), or of the top-level tasks if task is null. The caller holds the plan's lock.
+     */
+    void publish(Task task) {
+        if (editedTasks != null) {
+            // Copied again when the edit ends
+            if (task == null) {
+                editedTopLevelTasks = true;
+            } else {
+                task.setSnapshot(null);
+                editedTasks.add(task);
+            }
+            return;
+        }
+        if (snapshot == null || (task != null && task.getSnapshot() == null)) {
+            publishAll();
+            return;
+        }
+        long next = version + 1;
+        if (task != null) {
+            task.setSnapshot(TaskSnapshot.of(task, snapshotsOf(task.getSubTasks(), next), next));
+            // Ancestors keep their fields and get the new snapshots of their subtasks
+            for (Task ancestor = task.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                ancestor.setSnapshot(ancestor.getSnapshot().withSubTasks(snapshotsOf(ancestor.getSubTasks(), next), next));
+            }
+        }
+        snapshot = new PlanSnapshot(next, snapshotsOf(topLevelTasks, next));
+        version = next;
+    }
+
+    /**
+     * Publishes the changes of an edit as one version. The changed tasks have no snapshot, so they
+     * are copied with the subtasks of their first ancestor that still has one, or with the
+     * top-level tasks.
+     */
+    private void publishEdit(List<Task> changed) {
+        if (snapshot == null) {
+            publishAll();
+            return;
+        }
+        long next = version + 1;
+        for (Task task : changed) {
+            for (Task ancestor = task.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                TaskSnapshot ancestorSnapshot = ancestor.getSnapshot();
+                if (ancestorSnapshot != null) {
+                    ancestor.setSnapshot(ancestorSnapshot.withSubTasks(snapshotsOf(ancestor.getSubTasks(), next), next));
+                }
+            }
+        }
+        snapshot = new PlanSnapshot(next, snapshotsOf(topLevelTasks, next));
+        version = next;
+    }
+
+    /**
+     * Publishes a snapshot copied from the whole tree.
+     */
+    private void publishAll() {
+        for (Task task : topLevelTasks) {
+            clearSnapshots(task);
+        }
+        long next = version + 1;
+        snapshot = new PlanSnapshot(next, snapshotsOf(topLevelTasks, next));
+        version = next;
+    }
+
+    /**
+     * @return the current snapshots of tasks, copying those that have none yet (just attached) as of version
+     */
+    private static List<TaskSnapshot> snapshotsOf(List<Task> tasks, long version) {
+        List<TaskSnapshot> snapshots = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            TaskSnapshot taskSnapshot = task.getSnapshot();
+            if (taskSnapshot == null) {
+                taskSnapshot = TaskSnapshot.of(task, snapshotsOf(task.getSubTasks(), version), version);
+                task.setSnapshot(taskSnapshot);
+            }
+            snapshots.add(taskSnapshot);
+        }
+        return snapshots;
+    }
+
+    private static void clearSnapshots(Task task) {
+        task.setSnapshot(null);
+        for (Task subTask : task.getSubTasks()) {
+            clearSnapshots(subTask);
+        }
+    }
+
+    /**
+     * @return the ancestors of a task, its parent first
+     */
+    public List<Task> getAncestors(Task task) {
+        List<Task> ancestors = new ArrayList<>();
+        for (Task current = task.getParent(); current != null; current = current.getParent()) {
+            ancestors.add(current);
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return an ID that no task of the plan has
+     */
+    public int nextId() {
+        index();
+        return ++maxId;
+    }
+
+    private Map<Integer, Task> index() {
+        if (tasksById == null) {
+            tasksById = new HashMap<>();
+            maxId = 0;
+            index(topLevelTasks, null);
+        }
+        return tasksById;
+    }
+
+    /**
+     * Takes in siblings that were just added under parent (null for top level), with their subtrees.
+     */
+    void attach(List<Task> siblings, Task parent) {
+        index(siblings, parent);
+        if (readyQueue != null) {
+            readyQueue.added(siblings, parent);
+        }
+    }
+
+    /**
+     * Indexes siblings and their subtrees. Siblings are indexed before their children, so a task
+     * keeps its ID before a subtask can take it.
+     */
+    private void index(List<Task> siblings, Task parent) {
+        Map<Integer, Integer> renamed = new HashMap<>();
+        // New IDs go past the siblings' own, so renumbering one does not take the ID of the next
+        for (Task task : siblings) {
+            maxId = Math.max(maxId, task.getId());
+        }
+        for (Task task : siblings) {
+            task.setParent(parent, this);
+            int id = task.getId();
+            Task owner = tasksById.get(id);
+            if (id <= 0 || (owner != null && owner != task)) {
+                int newId = ++maxId;
+                System.out.println("Task ID " + id + " of [" + task.getDescription() + "] is already used, renumbered to " + newId);
+                renamed.put(id, newId);
+                task.assignId(newId);
+                id = newId;
+            }
+            tasksById.put(id, task);
+        }
+        if (!renamed.isEmpty()) {
+            for (Task task : siblings) {
+                List<Integer> dependsOn = task.getDependsOn();
+                if (dependsOn != null) {
+                    dependsOn.replaceAll(dependency -> renamed.getOrDefault(dependency, dependency));
+                }
+            }
+        }
+        for (Task task : siblings) {
+            index(task.getSubTasks(), task);
+        }
+    }
+
+    /**
+     * Drops a removed task and its subtree from the index.
+     */
+    void detach(Task task) {
+        Task parent = task.getParent();
+        if (readyQueue != null) {
+            readyQueue.removed(task);
+        }
+        task.setParent(null, null);
+        unindex(task);
+        if (readyQueue != null && parent != null) {
+            readyQueue.subTasksChanged(parent);
+        }
+    }
+
+    /**
+     * The completed or atomic flag of a task of the plan changed.
+     */
+    void taskChanged(Task task) {
+        if (readyQueue != null) {
+            readyQueue.changed(task);
+        }
+    }
+
+    private void unindex(Task task) {
+        if (tasksById != null) {
+            tasksById.remove(task.getId(), task);
+        }
+        task.setSnapshot(null);
+        for (Task subTask : task.getSubTasks()) {
+            subTask.setParent(task, null);
+            unindex(subTask);
+        }
+    }
+
+    /**
+     * Moves a task to another ID in the index.
+     *
+     * @throws IllegalArgumentException if another task has the ID
+     */
+    void changeId(Task task, int newId) {
+        Task owner = index().get(newId);
+        if (owner != null && owner != task) {
+            throw new IllegalArgumentException("Task ID " + newId + " is already used by [" + owner.getDescription() + "]");
+        }
+        tasksById.remove(task.getId(), task);
+        task.assignId(newId);
+        tasksById.put(newId, task);
+        maxId = Math.max(maxId, newId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,103 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a batch of plan edit commands: the batch was either applied as a whole, as one version
+ * of the plan, or not at all. If it was rejected, says which commands failed and why, and which
+ * inconsistencies the batch would have left in the plan.
+ */
+public class PlanEditResult {
+    private final List<CommandResult> commands;
+    private final List<String> inconsistencies;
+    private final boolean applied;
+    private final long version;
+
+    PlanEditResult(List<CommandResult> commands, List<String> inconsistencies, boolean applied, long version) {
+        this.commands = Collections.unmodifiableList(commands);
+        this.inconsistencies = Collections.unmodifiableList(inconsistencies);
+        this.applied = applied;
+        this.version = version;
+    }
+
+    /**
+     * @return true if every command was applied, false if the plan was left unchanged
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * @return the version of the plan after the batch (unchanged if it was rejected)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the result of each command, in the order of the batch
+     */
+    public List<CommandResult> getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return what would have been inconsistent in the edited plan
+     */
+    public List<String> getInconsistencies() {
+        return inconsistencies;
+    }
+
+    /**
+     * @return the failed commands with their errors, and the inconsistencies, one per line
+     */
+    public List<String> getErrors() {
+        List<String> errors = new ArrayList<>();
+        for (CommandResult command : commands) {
+            if (!command.isSuccess()) {
+                errors.add("Command " + command.getIndex() + " " + command.getCommand() + ": " + command.getError());
+            }
+        }
+        errors.addAll(inconsistencies);
+        return errors;
+    }
+
+    /**
+     * Result of one command of a batch.
+     */
+    public static class CommandResult {
+        private final int index;
+        private final String command;
+        private final String error;
+
+        CommandResult(int index, String command, String error) {
+            this.index = index;
+            this.command = command;
+            this.error = error;
+        }
+
+        /**
+         * @return the position of the command in the batch, from 1
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return why the command could not be applied, or null if it could
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -11,57 +11,25 @@ public class PlanEditor {
         this.plan = plan;
     }
 
-    /**
-     * Recursively searches for a Task with the given id in the provided list.
-     */
-    private Task findTaskById(List<Task> tasks, int id) {
-        for (Task task : tasks) {
-            if (task.getId() == id) {
-                return task;
-            }
-            Task found = findTaskById(task.getSubTasks(), id);
-            if (found != null) {
-                return found;
-            }
-        }
-        return null;
-    }
-
     /**
      * Public method to retrieve a TaskEditor for the task with the given id.
      */
     public TaskEditor getTask(int id) {
-        Task task = findTaskById(plan.getTopLevelTasks(), id);
+        Task task = plan.getTask(id);
         return (task != null) ? new TaskEditor(task) : null;
     }
 
-    /**
-     * Recursively removes the task with the given id from the provided list.
-     */
-    private boolean removeTaskById(List<Task> tasks, int id) {
-        Iterator<Task> iterator = tasks.iterator();
-        while (iterator.hasNext()) {
-            Task task = iterator.next();
-            if (task.getId() == id) {
-                iterator.remove();
-                return true;
-            }
-            if (removeTaskById(task.getSubTasks(), id)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Removes a task by id from the plan.
      */
     public void removeTask(int id) {
-        removeTaskById(plan.getTopLevelTasks(), id);
+        if (plan.removeTask(id) == null) {
+            System.out.println("  - No task with ID " + id + " to remove");
+        }
     }
 
     /**
-     * Adds a new task to the top-level tasks of the plan.
+     * Adds a new task to the top-level tasks of the plan; it is renumbered if its id is already used.
      */
     public void addTask(Task task) {
         plan.addTask(task);
@@ -95,182 +63,244 @@ public class PlanEditor {
      *      "updateTask(5, {\"commands\": [\"python3 -m http.server 8080\"], \"successCriteria\": \"Server starts and is accessible at 'http://localhost:8080/index.html'.\"});"
      *   ]
      * }
+     *
+     * The commands are applied as one batch: first to a copy of the plan, which must then pass
+     * {@link #findInconsistencies} without new problems, and only then to the plan itself, as one
+     * version. If any command fails or the copy is inconsistent, the plan is left unchanged.
      */
-    public void executeCommands(JsonObject commandsObj) {
-        if (commandsObj == null) {
+    public PlanEditResult executeCommands(JsonObject commandsObj) {
+        List<PlanEditResult.CommandResult> results = new ArrayList<>();
+        if (commandsObj == null || !commandsObj.has("commands") || !commandsObj.get("commands").isJsonArray()) {
             System.out.println("No commands to execute");
-            return;
-        }
-        
-        if (!commandsObj.has("commands")) {
-            System.out.println("Commands object does not have 'commands' property");
-            return;
+            return new PlanEditResult(results, List.of("The response has no \"commands\" array"), false, plan.getVersion());
         }
         
         JsonArray commandsArray = commandsObj.getAsJsonArray("commands");
         if (commandsArray.size() == 0) {
             System.out.println("Commands array is empty, no changes to apply");
-            return;
+            return new PlanEditResult(results, List.of("The \"commands\" array is empty"), false, plan.getVersion());
         }
         
         System.out.println("Executing " + commandsArray.size() + " plan edit commands:");
-        
+
+        // Dry run on a copy of the plan
+        Plan workingCopy = plan.copy();
+        PlanEditor dryRun = new PlanEditor(workingCopy);
+        List<String> commands = new ArrayList<>();
+        boolean failed = false;
         for (int i = 0; i < commandsArray.size(); i++) {
             JsonElement commandElement = commandsArray.get(i);
+            String command = commandElement.isJsonPrimitive() ? commandElement.getAsString().trim() : commandElement.toString();
+            System.out.println("Executing command [" + (i+1) + "/" + commandsArray.size() + "]: " + command);
+            String error = null;
             if (!commandElement.isJsonPrimitive()) {
-                System.out.println("  - ERROR: Command is not a string: " + commandElement);
-                continue;
+                error = "Command is not a string";
+            } else if (!command.isEmpty()) {
+                try {
+                    workingCopy.edit(() -> dryRun.apply(command));
+                    commands.add(command);
+                } catch (RuntimeException e) {
+                    error = e.getMessage() != null ? e.getMessage() : e.toString();
+                }
+            }
+            if (error != null) {
+                System.out.println("  - ERROR: " + error);
+                failed = true;
+            }
+            results.add(new PlanEditResult.CommandResult(i + 1, command, error));
+        }
+
+        List<String> inconsistencies = new ArrayList<>();
+        if (!failed) {
+            // Problems the plan already had are not the batch's fault
+            inconsistencies.addAll(findInconsistencies(workingCopy.getSnapshot()));
+            inconsistencies.removeAll(findInconsistencies(plan.getSnapshot()));
+            for (String inconsistency : inconsistencies) {
+                System.out.println("  - ERROR: " + inconsistency);
+            }
+        }
+        if (failed || !inconsistencies.isEmpty()) {
+            System.out.println("Plan edit commands rejected, the plan is unchanged");
+            return new PlanEditResult(results, inconsistencies, false, plan.getVersion());
+        }
+
+        // The copy numbers new tasks as the plan does, so the commands do the same here
+        plan.edit(() -> {
+            for (String command : commands) {
+                apply(command);
+            }
+        });
+        System.out.println("Plan editing completed, plan version " + plan.getVersion());
+        return new PlanEditResult(results, inconsistencies, true, plan.getVersion());
+    }
+
+    /**
+     * Applies one command to the plan.
+     *
+     * @throws IllegalArgumentException if the command cannot be parsed or refers to a missing task
+     */
+    private void apply(String command) {
+        if (command.startsWith("getTask(")) {
+            // Parse the task ID part
+            int openParen = command.indexOf("(");
+            int closeParen = findMatchingClosingParenthesis(command, openParen);
+            if (closeParen == -1) {
+                throw new IllegalArgumentException("Cannot find matching closing parenthesis for task ID");
+            }
+            
+            int id = parseId(command.substring(openParen + 1, closeParen));
+            String remainder = command.substring(closeParen + 1).trim();
+
+            TaskEditor task = getTask(id);
+            if (task == null) {
+                throw new IllegalArgumentException("No task with ID " + id);
+            }
+
+            if (remainder.startsWith(".change(")) {
+                int methodOpenParen = remainder.indexOf("(");
+                int methodCloseParen = findMatchingClosingParenthesis(remainder, methodOpenParen);
+                
+                if (methodCloseParen == -1) {
+                    throw new IllegalArgumentException("Cannot find matching closing parenthesis for change method");
+                }
+                
+                String params = remainder.substring(methodOpenParen + 1, methodCloseParen);
+                
+                // Find the comma that separates property name from value
+                int commaPos = findPropertyValueSeparator(params);
+                if (commaPos == -1) {
+                    throw new IllegalArgumentException("Cannot find property/value separator in: " + params);
+                }
+                
+                String propertyPart = params.substring(0, commaPos).trim();
+                String valuePart = params.substring(commaPos + 1).trim();
+                
+                // Extract property name from quotes
+                String property = removeQuotes(propertyPart);
+                
+                JsonElement jsonValue;
+                try {
+                    // Try to parse as JSON first
+                    jsonValue = JsonParser.parseString(valuePart);
+                } catch (JsonSyntaxException e) {
+                    // If not valid JSON, use as string
+                    task.change(property, removeQuotes(valuePart));
+                    return;
+                }
+                task.change(property, jsonValue);
+            } else if (remainder.startsWith(".appendCommand(")) {
+                int methodOpenParen = remainder.indexOf("(");
+                int methodCloseParen = findMatchingClosingParenthesis(remainder, methodOpenParen);
+                
+                if (methodCloseParen == -1) {
+                    throw new IllegalArgumentException("Cannot find matching closing parenthesis for appendCommand method");
+                }
+                
+                String param = remainder.substring(methodOpenParen + 1, methodCloseParen);
+                task.appendCommand(removeQuotes(param));
+            } else {
+                throw new IllegalArgumentException("Unknown getTask() command");
             }
+        } else if (command.startsWith("removeTask(")) {
+            int openParen = command.indexOf("(");
+            int closeParen = findMatchingClosingParenthesis(command, openParen);
             
-            String command = commandElement.getAsString();
-            if (command.isEmpty()) {
-                System.out.println("  - Empty command, skipping");
-                continue;
+            if (closeParen == -1) {
+                throw new IllegalArgumentException("Cannot find matching closing parenthesis");
             }
             
-            System.out.println("Executing command [" + (i+1) + "/" + commandsArray.size() + "]: " + command);
+            int id = parseId(command.substring(openParen + 1, closeParen));
+            if (plan.removeTask(id) == null) {
+                throw new IllegalArgumentException("No task with ID " + id);
+            }
+        } else if (command.startsWith("addTask(")) {
+            int openParen = command.indexOf("(");
+            int closeParen = findMatchingClosingParenthesis(command, openParen);
             
-            try {
-                if (command.startsWith("getTask(")) {
-                    // Parse the task ID part
-                    int openParen = command.indexOf("(");
-                    int closeParen = findMatchingClosingParenthesis(command, openParen);
-                    if (closeParen == -1) {
-                        System.out.println("  - ERROR: Cannot find matching closing parenthesis for task ID in: " + command);
-                        continue;
-                    }
-                    
-                    String idStr = command.substring(openParen + 1, closeParen).trim();
-                    int id = Integer.parseInt(idStr);
-                    String remainder = command.substring(closeParen + 1).trim();
+            if (closeParen == -1) {
+                throw new IllegalArgumentException("Cannot find matching closing parenthesis");
+            }
+            
+            String jsonPart = command.substring(openParen + 1, closeParen).trim();
+            // Convert the JSON string to a JsonObject
+            JsonObject taskJson = JsonParser.parseString(jsonPart).getAsJsonObject();
+            addTask(JsonCodec.GSON.fromJson(taskJson, Task.class));
+        } else if (command.startsWith("updateTask(")) {
+            int openParen = command.indexOf("(");
+            int closeParen = findMatchingClosingParenthesis(command, openParen);
+            
+            if (closeParen == -1) {
+                throw new IllegalArgumentException("Cannot find matching closing parenthesis");
+            }
+            
+            String params = command.substring(openParen + 1, closeParen).trim();
+            
+            // Find the comma that separates ID from JSON
+            int commaPos = findFirstUnbalancedComma(params);
+            if (commaPos == -1) {
+                throw new IllegalArgumentException("Cannot find separator between ID and properties in: " + params);
+            }
+            
+            int id = parseId(params.substring(0, commaPos));
+            JsonObject updates = JsonParser.parseString(params.substring(commaPos + 1).trim()).getAsJsonObject();
+            if (plan.getTask(id) == null) {
+                throw new IllegalArgumentException("No task with ID " + id);
+            }
+            updateTask(id, updates);
+        } else {
+            throw new IllegalArgumentException("Unknown command");
+        }
+    }
 
-                    TaskEditor task = getTask(id);
-                    if (task == null) {
-                        System.out.println("  - ERROR: Task " + id + " not found for command: " + command);
-                        continue;
-                    }
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Task ID is not a number: " + id.trim());
+        }
+    }
 
-                    if (remainder.startsWith(".change(")) {
-                        int methodOpenParen = remainder.indexOf("(");
-                        int methodCloseParen = findMatchingClosingParenthesis(remainder, methodOpenParen);
-                        
-                        if (methodCloseParen == -1) {
-                            System.out.println("  - ERROR: Cannot find matching closing parenthesis for change method in: " + remainder);
-                            continue;
-                        }
-                        
-                        String params = remainder.substring(methodOpenParen + 1, methodCloseParen);
-                        
-                        // Find the comma that separates property name from value
-                        int commaPos = findPropertyValueSeparator(params);
-                        if (commaPos == -1) {
-                            System.out.println("  - ERROR: Cannot find property/value separator in: " + params);
-                            continue;
-                        }
-                        
-                        String propertyPart = params.substring(0, commaPos).trim();
-                        String valuePart = params.substring(commaPos + 1).trim();
-                        
-                        // Extract property name from quotes
-                        String property = removeQuotes(propertyPart);
-                        
-                        System.out.println("  - Changing property '" + property + "' of task " + id + " to: " + valuePart);
-                        
-                        try {
-                            // Try to parse as JSON first
-                            JsonElement jsonValue = JsonParser.parseString(valuePart);
-                            task.change(property, jsonValue);
-                            System.out.println("  - Applied JSON change to property: " + property);
-                        } catch (JsonSyntaxException e) {
-                            // If not valid JSON, use as string
-                            String stringValue = removeQuotes(valuePart);
-                            task.change(property, stringValue);
-                            System.out.println("  - Applied string change to property: " + property);
-                        }
-                    } else if (remainder.startsWith(".appendCommand(")) {
-                        int methodOpenParen = remainder.indexOf("(");
-                        int methodCloseParen = findMatchingClosingParenthesis(remainder, methodOpenParen);
-                        
-                        if (methodCloseParen == -1) {
-                            System.out.println("  - ERROR: Cannot find matching closing parenthesis for appendCommand method in: " + remainder);
-                            continue;
-                        }
-                        
-                        String param = remainder.substring(methodOpenParen + 1, methodCloseParen);
-                        String cmdToAppend = removeQuotes(param);
-                        System.out.println("  - Appending command to task " + id + ": " + cmdToAppend);
-                        task.appendCommand(cmdToAppend);
-                    } else {
-                        System.out.println("  - Unknown getTask() command: " + command);
-                    }
-                } else if (command.startsWith("removeTask(")) {
-                    int openParen = command.indexOf("(");
-                    int closeParen = findMatchingClosingParenthesis(command, openParen);
-                    
-                    if (closeParen == -1) {
-                        System.out.println("  - ERROR: Cannot find matching closing parenthesis in: " + command);
-                        continue;
-                    }
-                    
-                    String idStr = command.substring(openParen + 1, closeParen).trim();
-                    int id = Integer.parseInt(idStr);
-                    System.out.println("  - Removing task " + id);
-                    removeTask(id);
-                } else if (command.startsWith("addTask(")) {
-                    int openParen = command.indexOf("(");
-                    int closeParen = findMatchingClosingParenthesis(command, openParen);
-                    
-                    if (closeParen == -1) {
-                        System.out.println("  - ERROR: Cannot find matching closing parenthesis in: " + command);
-                        continue;
-                    }
-                    
-                    String jsonPart = command.substring(openParen + 1, closeParen).trim();
-                    // Convert the JSON string to a JsonObject
-                    JsonObject taskJson = JsonParser.parseString(jsonPart).getAsJsonObject();
-                    // Use Gson to convert the JsonObject to a Task instance.
-                    Gson gson = new Gson();
-                    Task newTask = gson.fromJson(taskJson, Task.class);
-                    int newTaskId = newTask.getId();
-                    System.out.println("  - Adding new task with ID " + newTaskId + ": " + newTask.getDescription());
-                    addTask(newTask);
-                } else if (command.startsWith("updateTask(")) {
-                    int openParen = command.indexOf("(");
-                    int closeParen = findMatchingClosingParenthesis(command, openParen);
-                    
-                    if (closeParen == -1) {
-                        System.out.println("  - ERROR: Cannot find matching closing parenthesis in: " + command);
-                        continue;
-                    }
-                    
-                    String params = command.substring(openParen + 1, closeParen).trim();
-                    
-                    // Find the comma that separates ID from JSON
-                    int commaPos = findFirstUnbalancedComma(params);
-                    if (commaPos == -1) {
-                        System.out.println("  - ERROR: Cannot find separator between ID and properties in: " + params);
-                        continue;
+    /**
+     * Checks what the executor relies on: task IDs are unique, atomic tasks have commands, and
+     * dependsOn refers to tasks of the plan other than the task itself and its ancestors.
+     *
+     * @return a description of each problem found
+     */
+    public static List<String> findInconsistencies(PlanSnapshot plan) {
+        Map<Integer, TaskSnapshot> tasksById = new HashMap<>();
+        List<String> problems = new ArrayList<>();
+        Deque<TaskSnapshot> stack = new ArrayDeque<>(plan.getTopLevelTasks());
+        while (!stack.isEmpty()) {
+            TaskSnapshot task = stack.pop();
+            if (tasksById.putIfAbsent(task.getId(), task) != null) {
+                problems.add("Task ID " + task.getId() + " is used more than once");
+            }
+            stack.addAll(task.getSubTasks());
+        }
+        checkTasks(plan.getTopLevelTasks(), new HashSet<>(), tasksById, problems);
+        return problems;
+    }
+
+    private static void checkTasks(List<TaskSnapshot> tasks, Set<Integer> ancestorIds,
+                                   Map<Integer, TaskSnapshot> tasksById, List<String> problems) {
+        for (TaskSnapshot task : tasks) {
+            if (task.isAtomic() && (task.getCommands() == null
+                    || task.getCommands().stream().allMatch(command -> command == null || command.isBlank()))) {
+                problems.add("Task " + task.getId() + " is atomic but has no commands");
+            }
+            if (task.getDependsOn() != null) {
+                for (Integer dependency : task.getDependsOn()) {
+                    if (dependency == null || !tasksById.containsKey(dependency)) {
+                        problems.add("Task " + task.getId() + " depends on task " + dependency + ", which does not exist");
+                    } else if (dependency == task.getId() || ancestorIds.contains(dependency)) {
+                        problems.add("Task " + task.getId() + " depends on itself or on one of its parent tasks (" + dependency + ")");
                     }
-                    
-                    String idStr = params.substring(0, commaPos).trim();
-                    String jsonPart = params.substring(commaPos + 1).trim();
-                    
-                    int id = Integer.parseInt(idStr);
-                    JsonObject updates = JsonParser.parseString(jsonPart).getAsJsonObject();
-                    System.out.println("  - Updating task " + id + " with " + updates.keySet().size() + " properties");
-                    updateTask(id, updates);
-                } else {
-                    System.out.println("  - Unknown command: " + command);
                 }
-                
-                System.out.println("  - Command executed successfully");
-            } catch (Exception e) {
-                System.out.println("  - Error processing command: " + command);
-                e.printStackTrace();
             }
+            ancestorIds.add(task.getId());
+            checkTasks(task.getSubTasks(), ancestorIds, tasksById, problems);
+            ancestorIds.remove(task.getId());
         }
-        
-        System.out.println("Plan editing completed");
     }
     
     /**
@@ -391,7 +421,10 @@ public class PlanEditor {
 
         /**
          * Updates a property of the task based on a JSON element.
-         * Supported properties: description, successCriteria, commands, isAtomic, id.
+         * Supported properties: description, successCriteria, commands, isAtomic, dependsOn,
+         * timeoutSeconds, commandTimeoutSeconds, inputs, outputs, id.
+         *
+         * @throws IllegalArgumentException if the property is unknown
          */
         public void change(String property, JsonElement value) {
             property = property.trim();
@@ -411,15 +444,42 @@ public class PlanEditor {
                 }
             } else if ("isAtomic".equals(property)) {
                 task.setAtomic(value.getAsBoolean());
+            } else if ("dependsOn".equals(property)) {
+                if (value.isJsonArray()) {
+                    List<Integer> ids = new ArrayList<>();
+                    for (JsonElement el : value.getAsJsonArray()) {
+                        ids.add(el.getAsInt());
+                    }
+                    task.setDependsOn(ids);
+                }
+            } else if ("timeoutSeconds".equals(property)) {
+                task.setTimeoutSeconds(value.isJsonNull() ? null : value.getAsInt());
+            } else if ("commandTimeoutSeconds".equals(property)) {
+                task.setCommandTimeoutSeconds(value.isJsonNull() ? null : value.getAsInt());
+            } else if ("inputs".equals(property) || "outputs".equals(property)) {
+                List<String> paths = null;
+                if (value.isJsonArray()) {
+                    paths = new ArrayList<>();
+                    for (JsonElement el : value.getAsJsonArray()) {
+                        paths.add(el.getAsString());
+                    }
+                }
+                if ("inputs".equals(property)) {
+                    task.setInputs(paths);
+                } else {
+                    task.setOutputs(paths);
+                }
             } else if ("id".equals(property)) {
                 task.setId(value.getAsInt());
             } else {
-                System.out.println("Unknown property: " + property);
+                throw new IllegalArgumentException("Unknown property: " + property);
             }
         }
 
         /**
          * Overloaded change method to update a property using a String value.
+         *
+         * @throws IllegalArgumentException if the property is unknown
          */
         public void change(String property, String value) {
             property = property.trim();
@@ -441,7 +501,7 @@ public class PlanEditor {
             } else if ("id".equals(property)) {
                 task.setId(Integer.parseInt(value));
             } else {
-                System.out.println("Unknown property: " + property);
+                throw new IllegalArgumentException("Unknown property: " + property);
             }
         }
 
@@ -1,23 +1,40 @@
 package pkg;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import pkg.web.LogService;
 import pkg.web.PlanService;
@@ -25,50 +42,187 @@ import pkg.web.PlanService;
 @Service
 @Scope("singleton")
 public class PlanExecutor {
-    static JsonObject prompts;
-    
     private final LogService logService;
     private final PlanService planService;
+    private final DagScheduler dagScheduler;
+    private final boolean pipelined;
+    private final String defaultValidationPolicy;
+    private final File workspaceRoot;
+    private final boolean persistentShell;
+    private final String shellName;
+    private final int outputHeadChars;
+    private final int outputTailChars;
+    private final Duration commandTimeout;
+    private final Duration taskTimeout;
+    private final Duration idleTimeout;
+    private final String defaultInterruptedTaskPolicy;
+    // Results of earlier successful tasks, or null if memoization is off
+    private final TaskResultCache taskCache;
+    private final List<String> taskCacheEnvironment;
+
+    // Plan runs execute here; once all threads are busy and the queue is full, new runs are rejected
+    private final ThreadPoolExecutor runExecutor;
+    private final Map<String, PlanRun> activeRuns = new ConcurrentHashMap<>();
+    // Stored plans queued or running for a resume, so a plan is not resumed twice at once
+    private final Set<String> resumingPlanIds = ConcurrentHashMap.newKeySet();
+
+    private static final String BREAKDOWN_SYSTEM_PROMPT = "You are a task decomposition assistant. "
+            + "All commands run one after another in the same shell, so the working directory and exported "
+            + "variables persist from one command to the next; prefer paths such as server/app.py over cd.";
+
+    // Longest command output embedded in a prompt, head and tail are kept
+    private static final int MAX_OUTPUT_CHARS = 4000;
+
+    // Rejected batches of plan edit commands in a row before the unchanged plan is evaluated again
+    private static final int MAX_REJECTED_EDITS = 3;
+
+    // Longest time an LLM call pauses plan execution while the backend is unavailable before the run gives up
+    private static final long MAX_LLM_PAUSE_MILLIS = 30 * 60 * 1000L;
+
+    // How long the output of a finished command is still read, in case a background process holds its pipes
+    private static final long OUTPUT_DRAIN_MILLIS = 2000;
     
-    @Autowired
     public PlanExecutor(LogService logService, PlanService planService) {
+        this(logService, planService, new ExecutionSettings());
+    }
+
+    @Autowired
+    public PlanExecutor(LogService logService, PlanService planService, ExecutionSettings executionSettings) {
         this.logService = logService;
         this.planService = planService;
+        this.dagScheduler = new DagScheduler(executionSettings.getMaxParallelTasks());
+        this.pipelined = executionSettings.isPipelined();
+        this.defaultValidationPolicy = executionSettings.getValidationPolicy();
+        this.workspaceRoot = new File(executionSettings.getWorkspaceRoot());
+        this.persistentShell = executionSettings.isPersistentShell();
+        this.shellName = executionSettings.getShell();
+        this.outputHeadChars = executionSettings.getOutputHeadChars();
+        this.outputTailChars = executionSettings.getOutputTailChars();
+        this.commandTimeout = executionSettings.getCommandTimeout();
+        this.taskTimeout = executionSettings.getTaskTimeout();
+        this.idleTimeout = executionSettings.getIdleTimeout();
+        this.defaultInterruptedTaskPolicy = executionSettings.getInterruptedTaskPolicy();
+        ExecutionSettings.TaskCache taskCacheSettings = executionSettings.getTaskCache();
+        this.taskCache = taskCacheSettings.isEnabled() ? new TaskResultCache(taskCacheSettings) : null;
+        this.taskCacheEnvironment = taskCacheSettings.getEnvironment();
+
+        int maxConcurrentPlans = Math.max(1, executionSettings.getMaxConcurrentPlans());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.runExecutor = new ThreadPoolExecutor(maxConcurrentPlans, maxConcurrentPlans, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, executionSettings.getPlanQueueCapacity())), runnable -> {
+                    Thread thread = new Thread(runnable, "plan-run-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
         
         // Inject LogService into OllamaClient
         OllamaClient.setLogService(logService);
     }
 
     public void executeWithDefaultPrompt() {
-        logService.addInfo("Starting plan execution with default prompt");
-        prompts = getPrompts();
-        if (prompts == null) {
-            logService.addError("Failed to load prompts");
-            return;
-        }
-        Plan plan = createInitialPlan();
-        if (plan == null) {
-            logService.addError("Failed to create initial plan");
-            return;
-        }
-        
-        // Save the plan and get an ID
-        String planId = planService.savePlan(plan);
-        logService.addInfo("Created new plan with ID: " + planId);
-        
-        // Execute the plan
-        executePlan(plan);
+        executeWithDefaultPrompt(null);
+    }
+
+    /**
+     * Queues a run of the default plan.
+     *
+     * @param validationPolicy spec of the validation policy for this run, or null for the configured default
+     * @throws RejectedExecutionException if the maximum number of runs is already running and queued
+     */
+    public void executeWithDefaultPrompt(String validationPolicy) {
+        submitRun(() -> {
+            logService.addInfo("Starting plan execution with default prompt");
+            JsonObject prompts = getPrompts();
+            if (prompts == null) {
+                logService.addError("Failed to load prompts");
+                return;
+            }
+            startRun(createInitialPlan(prompts), prompts, validationPolicy);
+        });
     }
     
-    @Async
     public void executeWithCustomPrompt(String userPrompt) {
-        logService.addInfo("Starting plan execution with custom prompt: " + userPrompt);
-        prompts = getPrompts();
-        if (prompts == null) {
-            logService.addError("Failed to load prompts");
-            return;
+        executeWithCustomPrompt(userPrompt, null);
+    }
+
+    /**
+     * Queues a run of a plan created for the prompt.
+     *
+     * @param validationPolicy spec of the validation policy for this run, or null for the configured default
+     * @throws RejectedExecutionException if the maximum number of runs is already running and queued
+     */
+    public void executeWithCustomPrompt(String userPrompt, String validationPolicy) {
+        submitRun(() -> {
+            logService.addInfo("Starting plan execution with custom prompt: " + userPrompt);
+            JsonObject prompts = getPrompts();
+            if (prompts == null) {
+                logService.addError("Failed to load prompts");
+                return;
+            }
+            startRun(createInitialPlanWithPrompt(prompts, userPrompt), prompts, validationPolicy);
+        });
+    }
+
+    /**
+     * Queues the continuation of a stored plan from its first open task, without planning it again.
+     * Completed tasks are kept; tasks left in progress are handled by the interrupted task policy.
+     *
+     * @param interruptedTaskPolicy "retry" or "ask", or null for the configured default
+     * @param validationPolicy      spec of the validation policy for this run, or null for the configured default
+     * @throws IllegalArgumentException   if there is no such plan or a policy is unknown
+     * @throws IllegalStateException      if the plan is already running or queued
+     * @throws RejectedExecutionException if the maximum number of runs is already running and queued
+     */
+    public void resumePlan(String planId, String interruptedTaskPolicy, String validationPolicy) {
+        Plan plan = planService.getPlan(planId);
+        if (plan == null) {
+            throw new IllegalArgumentException("No plan with ID " + planId);
+        }
+        InterruptedTaskPolicy policy = InterruptedTaskPolicy.fromSpec(
+                interruptedTaskPolicy != null ? interruptedTaskPolicy : defaultInterruptedTaskPolicy);
+        if (validationPolicy != null) {
+            ValidationPolicy.fromSpec(validationPolicy);
+        }
+        if (activeRuns.containsKey(planId) || !resumingPlanIds.add(planId)) {
+            throw new IllegalStateException("Plan " + planId + " is already running");
+        }
+
+        try {
+            submitRun(() -> {
+                try {
+                    logService.addInfo("Resuming plan " + planId);
+                    JsonObject prompts = getPrompts();
+                    if (prompts == null) {
+                        logService.addError("Failed to load prompts");
+                        return;
+                    }
+                    runPlan(planId, plan, prompts, validationPolicy, policy);
+                } finally {
+                    resumingPlanIds.remove(planId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            resumingPlanIds.remove(planId);
+            throw e;
         }
-        Plan plan = createInitialPlanWithPrompt(userPrompt);
+    }
+
+    private void submitRun(Runnable run) {
+        runExecutor.execute(() -> {
+            try {
+                run.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                logService.addError("Plan execution aborted: " + e.getMessage());
+            }
+        });
+        Metrics.increment("plan.runs.submitted");
+    }
+
+    /**
+     * Saves the new plan and executes it in its own workspace.
+     */
+    private void startRun(Plan plan, JsonObject prompts, String validationPolicy) {
         if (plan == null) {
             logService.addError("Failed to create initial plan");
             return;
@@ -77,33 +231,91 @@ public class PlanExecutor {
         // Save the plan and get an ID
         String planId = planService.savePlan(plan);
         logService.addInfo("Created new plan with ID: " + planId);
+        runPlan(planId, plan, prompts, validationPolicy, null);
+    }
+
+    /**
+     * Executes a saved plan in its own workspace.
+     *
+     * @param interruptedTaskPolicy how to handle tasks left in progress, or null for a new plan
+     */
+    private void runPlan(String planId, Plan plan, JsonObject prompts, String validationPolicy,
+                         InterruptedTaskPolicy interruptedTaskPolicy) {
+        File workspace = new File(workspaceRoot, planId);
+        if (!workspace.isDirectory() && !workspace.mkdirs()) {
+            logService.addError("Failed to create workspace " + workspace.getAbsolutePath());
+            return;
+        }
         
         // Execute the plan
-        executePlan(plan);
+        PlanRun run = new PlanRun(planId, plan, prompts, workspace, logService);
+        activeRuns.put(planId, run);
+        try {
+            openRun(run, validationPolicy);
+            if (interruptedTaskPolicy != null) {
+                recoverInterruptedTasks(run, interruptedTaskPolicy);
+            }
+            executePlan(run);
+        } finally {
+            reportTaskCache(run);
+            activeRuns.remove(planId);
+            run.closeShells();
+        }
+    }
+
+    /**
+     * @return the current snapshot of a plan being executed, or null if it is not running
+     */
+    public PlanSnapshot getPlanSnapshot(String planId) {
+        PlanRun run = activeRuns.get(planId);
+        return run != null ? run.getPlan().getSnapshot() : null;
+    }
+
+    /**
+     * @return the IDs of the plans being executed
+     */
+    public Set<String> getActivePlanIds() {
+        return Collections.unmodifiableSet(activeRuns.keySet());
+    }
+
+    /**
+     * @return the number of runs waiting for a free slot
+     */
+    public int getQueuedRuns() {
+        return runExecutor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runExecutor.shutdownNow();
     }
     
     // Original main method kept for backward compatibility
     public static void main(String[] args) {
-        prompts = getPrompts();
+        JsonObject prompts = getPrompts();
         if (prompts == null)
             return;
-        Plan plan = createInitialPlan();
+        Plan plan = createInitialPlan(prompts);
         
         // Create instance with null services (backward compatibility mode)
         PlanExecutor executor = new PlanExecutor(null, null);
-        executor.executePlan(plan);
+        PlanRun run = new PlanRun(null, plan, prompts, new File("."), null);
+        executor.openRun(run, null);
+        executor.executePlan(run);
+        run.closeShells();
+        executor.shutdown();
     }
 
     private static JsonObject getPrompts() {
-        Gson gson = new Gson();
         JsonObject jsonObject = null;
 
         // First try to load from classpath resources
         try (InputStream inputStream = PlanExecutor.class.getResourceAsStream("/prompts.json")) {
             if (inputStream != null) {
                 Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-                jsonObject = gson.fromJson(reader, JsonObject.class);
+                jsonObject = JsonCodec.GSON.fromJson(reader, JsonObject.class);
                 System.out.println("Prompts loaded from resources");
+                OllamaClient.registerPrompts(jsonObject);
                 return jsonObject;
             }
         } catch (IOException e) {
@@ -113,8 +325,9 @@ public class PlanExecutor {
         // Fallback to file system
         try (Reader reader = new InputStreamReader(
                 new java.io.FileInputStream("src/main/resources/prompts.json"), StandardCharsets.UTF_8)) {
-            jsonObject = gson.fromJson(reader, JsonObject.class);
+            jsonObject = JsonCodec.GSON.fromJson(reader, JsonObject.class);
             System.out.println("Prompts loaded from file system");
+            OllamaClient.registerPrompts(jsonObject);
             return jsonObject;
         } catch (IOException e) {
             e.printStackTrace();
@@ -123,21 +336,16 @@ public class PlanExecutor {
         }
     }
 
-    private static Plan createInitialPlan() {
-        String systemPrompt = prompts.getAsJsonObject("taskPlanning").get("system").getAsString();
+    private static Plan createInitialPlan(JsonObject prompts) {
         String userPrompt = "create an python server that will run on port 8081 with ui login. use admin admin as default.";
-        return createInitialPlanWithPrompt(systemPrompt, userPrompt);
+        return createInitialPlanWithPrompt(prompts, userPrompt);
     }
     
-    private Plan createInitialPlanWithPrompt(String userPrompt) {
+    private static Plan createInitialPlanWithPrompt(JsonObject prompts, String userPrompt) {
         String systemPrompt = prompts.getAsJsonObject("taskPlanning").get("system").getAsString();
-        return createInitialPlanWithPrompt(systemPrompt, userPrompt);
-    }
-    
-    private static Plan createInitialPlanWithPrompt(String systemPrompt, String userPrompt) {
         JsonObject jsonScheme = prompts.getAsJsonObject("taskPlanning").getAsJsonObject("jsonScheme");
         try {
-            JsonObject planJson = OllamaClient.queryOllamaWithSchema(systemPrompt, userPrompt, jsonScheme);
+            JsonObject planJson = callLlm(null, () -> OllamaClient.queryOllamaWithSchema("taskPlanning", systemPrompt, userPrompt, jsonScheme));
             
             Plan plan = new Plan();
 
@@ -148,7 +356,7 @@ public class PlanExecutor {
                 // Create a default task as fallback
                 Task defaultTask = new Task(true, 1, 
                     "Set up Python server with login functionality", 
-                    List.of("mkdir -p server", "cd server && touch app.py", "cd server && touch requirements.txt"),
+                    List.of("mkdir -p server", "touch server/app.py", "touch server/requirements.txt"),
                     "Server directory is created with initial files");
                 plan.addTask(defaultTask);
                 
@@ -156,13 +364,16 @@ public class PlanExecutor {
             }
 
             JsonArray tasksArray = planJson.getAsJsonArray("subtasks");
+            List<Task> tasks = new ArrayList<>();
             for (int i = 0; i < tasksArray.size(); i++) {
                 JsonObject taskJson = tasksArray.get(i).getAsJsonObject();
-                Task task = parseTaskFromJson(taskJson);
-                plan.addTask(task);
+                tasks.add(parseTaskFromJson(taskJson));
             }
+            plan.addTasks(tasks);
 
             return plan;
+        } catch (LlmUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             
@@ -170,7 +381,7 @@ public class PlanExecutor {
             Plan fallbackPlan = new Plan();
             Task fallbackTask = new Task(true, 1, 
                 "Set up Python server with login functionality (fallback plan)", 
-                List.of("mkdir -p server", "cd server && touch app.py", "cd server && touch requirements.txt"),
+                List.of("mkdir -p server", "touch server/app.py", "touch server/requirements.txt"),
                 "Server directory is created with initial files");
             fallbackPlan.addTask(fallbackTask);
             
@@ -178,74 +389,95 @@ public class PlanExecutor {
         }
     }
 
-    private void executePlan(Plan plan) {
+    /**
+     * Sets up the run's validation policy and conversations, before anything about the plan (e.g.
+     * interrupted tasks of a resumed plan) is sent to the model.
+     */
+    private void openRun(PlanRun run, String validationPolicySpec) {
+        run.open(ValidationPolicy.fromSpec(validationPolicySpec != null ? validationPolicySpec : defaultValidationPolicy));
+    }
+
+    private void executePlan(PlanRun run) {
+        Plan plan = run.getPlan();
+        ValidationTrigger trigger = ValidationTrigger.INITIAL;
+        int rejectedEdits = 0;
+
         // Keep executing tasks until there are no more tasks to execute
         while (true) {
-            // Always reevaluate the entire plan first
-            PlanValidationResult validationResult = reevaluatePlan(plan);
+            // Reevaluate the entire plan first, unless the validation policy skips this step
+            PlanValidationResult validationResult = validatePlan(run, run.planEditedSinceValidation ? ValidationTrigger.AFTER_EDIT : trigger);
+            trigger = ValidationTrigger.AFTER_TASK;
             
             // Fix the plan if needed
             while (!validationResult.isValid()) {
                 System.out.println("Plan is invalid. Reason: " + validationResult.getReason());
                 // Add explicit logging for plan validation issues
-                if (logService != null) {
-                    logService.addWarning("Plan is invalid. Reason: " + validationResult.getReason());
-                    logService.addInfo("Attempting to fix the plan...");
-                }
-                
-                fixPlan(plan, validationResult);
+                run.warning("Plan is invalid. Reason: " + validationResult.getReason());
+                run.info("Attempting to fix the plan...");
                 
-                // Add explicit logging for plan fixes
-                if (logService != null) {
-                    logService.addSuccess("Plan has been updated based on validation feedback");
+                if (fixPlan(run, validationResult)) {
+                    // Add explicit logging for plan fixes
+                    run.success("Plan has been updated based on validation feedback");
+                    rejectedEdits = 0;
+                } else if (++rejectedEdits < MAX_REJECTED_EDITS) {
+                    // The plan is unchanged, so it is still invalid for the same reason
+                    continue;
                 }
                 
-                validationResult = reevaluatePlan(plan);
+                validationResult = validatePlan(run, ValidationTrigger.AFTER_EDIT);
+            }
+
+            // Plans with dependencies run every ready task at once; what is left (tasks that
+            // need a breakdown) continues below one task at a time
+            if (DagScheduler.hasDependencies(plan) && runReadyTasks(run)) {
+                continue;
             }
             
             // Get the next open task from the plan
-            Task nextTask = findNextOpenTask(plan);
+            Task nextTask = plan.getNextOpenTask();
             
             // If there are no more tasks to execute, we're done
             if (nextTask == null) {
                 System.out.println("Plan execution completed successfully.");
-                if (logService != null) {
-                    logService.addSuccess("Plan execution completed successfully.");
-                }
+                run.success("Plan execution completed successfully.");
+                discardSpeculativeWork(run, "unused");
+                String summary = "Plan validations: " + run.performedValidations + " performed, " + run.skippedValidations
+                        + " skipped by the " + run.validationPolicy.getName() + " policy";
+                System.out.println(summary);
+                run.info(summary);
                 break;
             }
             
             // Process the next task
             System.out.println("Executing task: " + nextTask.getDescription());
-            if (logService != null) {
-                logService.addInfo("Executing task: " + nextTask.getDescription());
-            }
+            run.info("Executing task: " + nextTask.getDescription());
             
             // Mark the current task as in progress
             nextTask.setInProgress(true);
             
             // Update the plan file if plan service is available
-            if (planService != null) {
-                String currentPlanId = planService.getCurrentPlanId();
-                if (currentPlanId != null) {
-                    planService.updatePlan(currentPlanId, plan);
-                }
-            }
+            savePlan(run);
             
-            ExecutionResult result = processTask(nextTask, plan);
+            // Let the model work on the next step while the commands run
+            if (pipelined && nextTask.isAtomic() && run.validationPolicy.validatesAfterNextTask()) {
+                startSpeculativeWork(run, nextTask);
+            }
+
+            ExecutionResult result = processTask(run, nextTask);
             
             // Reset in-progress flag
             nextTask.setInProgress(false);
             
             if (!result.isSuccess()) {
+                discardSpeculativeValidation(run, "failed");
                 System.out.println("Execution failed for [" + nextTask.getDescription() 
                     + "], reason: " + result.getMessage());
                 
                 // Reevaluate the plan after failure
-                validationResult = reevaluatePlanWithResult(plan, result);
+                validationResult = reevaluatePlanWithResult(run, result);
                 
                 if (!validationResult.isValid()) {
-                    fixPlan(plan, validationResult);
+                    fixPlan(run, validationResult);
                 } else {
                     // If the plan is valid but the task failed, mark the task as complete
                     // and continue with the next task
@@ -257,13 +489,99 @@ public class PlanExecutor {
             }
             
             // Update the plan file after task completion
-            if (planService != null) {
-                String currentPlanId = planService.getCurrentPlanId();
-                if (currentPlanId != null) {
-                    planService.updatePlan(currentPlanId, plan);
+            savePlan(run);
+        }
+    }
+
+    /**
+     * Clears the in-progress flags a stopped run left behind. Interrupted atomic tasks are run again;
+     * with the ASK policy the model first hears about each of them as about a failed task.
+     */
+    private void recoverInterruptedTasks(PlanRun run, InterruptedTaskPolicy policy) {
+        List<Task> interrupted = new ArrayList<>();
+        java.util.Deque<Task> stack = new java.util.ArrayDeque<>(run.getPlan().getTopLevelTasks());
+        while (!stack.isEmpty()) {
+            Task task = stack.pop();
+            if (task.isInProgress()) {
+                task.setInProgress(false);
+                if (task.isAtomic() && !task.isCompleted()) {
+                    interrupted.add(task);
+                }
+            }
+            stack.addAll(task.getSubTasks());
+        }
+        if (interrupted.isEmpty()) {
+            return;
+        }
+
+        run.info("Resuming with " + interrupted.size() + " interrupted task(s), policy " + policy.name().toLowerCase());
+        Metrics.add("plan.resume.interrupted", interrupted.size());
+        if (policy == InterruptedTaskPolicy.ASK) {
+            for (Task task : interrupted) {
+                ExecutionResult result = new ExecutionResult(false, "Execution of task " + task.getId() + " ["
+                        + task.getDescription() + "] was interrupted because the executor stopped while it was running;"
+                        + " some of its commands may already have been applied. It will run again unless the plan is changed.",
+                        null, ExecutionResult.FailureKind.INTERRUPTED);
+                PlanValidationResult validationResult = reevaluatePlanWithResult(run, result);
+                if (!validationResult.isValid()) {
+                    fixPlan(run, validationResult);
+                }
+            }
+        }
+        savePlan(run);
+    }
+
+    /**
+     * Runs the ready atomic tasks of a plan with dependencies in parallel. Each failure is then
+     * reevaluated as in sequential execution, while the tasks that depend on it were held back.
+     *
+     * @return true if any task was executed, false if no atomic task is ready
+     */
+    private boolean runReadyTasks(PlanRun run) {
+        DagScheduler.Outcome outcome;
+        try {
+            outcome = dagScheduler.run(run.getPlan(), task -> executeAtomicTask(run, task, true), task -> {
+                if (task.isAtomic()) {
+                    run.validationPolicy.onTaskFinished();
                 }
+                markTaskAsCompleted(task);
+                savePlan(run);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Plan execution interrupted", e);
+        }
+        if (outcome.getExecuted() == 0) {
+            return false;
+        }
+
+        if (!outcome.getQuarantined().isEmpty()) {
+            run.warning("Held back tasks " + outcome.getQuarantined() + " that depend on failed tasks");
+        }
+        for (Map.Entry<Task, ExecutionResult> failure : outcome.getFailures().entrySet()) {
+            Task task = failure.getKey();
+            ExecutionResult result = failure.getValue();
+            run.validationPolicy.onTaskFinished();
+            System.out.println("Execution failed for [" + task.getDescription() + "], reason: " + result.getMessage());
+
+            PlanValidationResult validationResult = reevaluatePlanWithResult(run, result);
+            if (!validationResult.isValid()) {
+                fixPlan(run, validationResult);
+            } else {
+                markTaskAsCompleted(task);
             }
         }
+        savePlan(run);
+        return true;
+    }
+
+    /**
+     * Writes the plan to its own file; runs are never saved under another plan's ID.
+     */
+    private void savePlan(PlanRun run) {
+        if (planService != null && run.getPlanId() != null) {
+            planService.updatePlan(run.getPlanId(), run.getPlan());
+        }
     }
 
     /**
@@ -274,22 +592,39 @@ public class PlanExecutor {
      * @param result The result of the last task execution
      * @return A PlanValidationResult indicating whether the plan is still valid
      */
-    private PlanValidationResult reevaluatePlanWithResult(Plan plan, ExecutionResult result) {
-        String systemPrompt = prompts.getAsJsonObject("PlanReevaluation").get("system").getAsString();
+    private PlanValidationResult reevaluatePlanWithResult(PlanRun run, ExecutionResult result) {
+        Plan plan = run.getPlan();
+        String systemPrompt = run.systemPrompt("PlanReevaluation");
+        // Command output can be arbitrarily long, only its head and tail go into the prompt
+        String message = result.getMessage() == null ? "" : result.getMessage();
+        if (result.getOutput() != null && !result.getOutput().isEmpty()) {
+            message += "\nCommand output:\n" + result.getOutput();
+        }
+        String compactMessage = PromptCompactor.truncateMiddle(message, MAX_OUTPUT_CHARS);
+        String outcome = (result.isSuccess() ? "succeeded" : "failed"
+                + (result.getFailureKind() != null ? " (" + result.getFailureKind() + ")" : "")) + " with the message: \"" + compactMessage + "\"";
         
         // Create a rich context that includes the execution result
-        String userPrompt = "Evaluate the validity of the following plan in JSON format, considering that the last task execution " +
-                            (result.isSuccess() ? "succeeded" : "failed") + " with the message: \"" + result.getMessage() + "\".\n" + 
-                            planToJson(plan);
+        String userPrompt;
+        LlmSession reevaluationSession = run.reevaluationSession;
+        if (reevaluationSession == null || reevaluationSession.isFresh()) {
+            userPrompt = withCompactPlan(run, "PlanReevaluation", systemPrompt,
+                    "Evaluate the validity of the following plan in JSON format, considering that the last task execution " +
+                    outcome + ".\n", plan, message.length() - compactMessage.length());
+            rememberSentPlan(reevaluationSession, plan);
+        } else {
+            // The model has seen the plan earlier in this conversation, only send what happened since
+            PromptCompactor.report("PlanReevaluation", message.length(), compactMessage.length());
+            userPrompt = "The last task execution " + outcome + ".\n" + describePlanChanges("PlanReevaluation", reevaluationSession, plan)
+                         + "\nEvaluate the validity of the updated plan in JSON format.";
+        }
         
-        JsonObject jsonScheme = prompts.getAsJsonObject("PlanReevaluation").getAsJsonObject("jsonScheme");
+        JsonObject jsonScheme = run.prompt("PlanReevaluation").getAsJsonObject("jsonScheme");
         
         try {
-            if (logService != null) {
-                logService.addInfo("Evaluating plan validity after task execution...");
-            }
+            run.info("Evaluating plan validity after task execution...");
             
-            JsonObject response = OllamaClient.queryOllamaWithSchema(systemPrompt, userPrompt, jsonScheme);
+            JsonObject response = callLlm(run, () -> queryInSession("PlanReevaluation", reevaluationSession, systemPrompt, userPrompt, jsonScheme));
 
             boolean isValid = response.get("overallValidity").getAsBoolean();
             String reason = response.has("explanation") ? response.get("explanation").getAsString() : "";
@@ -300,68 +635,24 @@ public class PlanExecutor {
                 reason += " Although the previous task failed, the plan structure remains valid.";
             }
             
-            if (logService != null) {
-                if (isValid) {
-                    logService.addSuccess("Plan remains valid after task execution");
-                } else {
-                    logService.addWarning("Plan is now invalid after task execution: " + reason);
-                }
+            if (isValid) {
+                run.success("Plan remains valid after task execution");
+            } else {
+                run.warning("Plan is now invalid after task execution: " + reason);
             }
             
             return new PlanValidationResult(isValid, reason, improvements);
+        } catch (LlmUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
-            if (logService != null) {
-                logService.addError("Error during plan reevaluation after task execution: " + e.getMessage());
-            }
+            run.error("Error during plan reevaluation after task execution: " + e.getMessage());
             return new PlanValidationResult(false, 
                 "Error during plan reevaluation after " + (result.isSuccess() ? "successful" : "failed") + 
                 " task execution: " + e.getMessage(), null);
         }
     }
     
-    /**
-     * Finds the next open task in the plan that has not been completed.
-     * Implements a breadth-first search to find tasks in the order they appear in the plan.
-     */
-    private static Task findNextOpenTask(Plan plan) {
-        // Queue for breadth-first search
-        java.util.Queue<Task> queue = new java.util.LinkedList<>();
-        
-        // Add all top-level tasks to the queue
-        for (Task task : plan.getTopLevelTasks()) {
-            queue.add(task);
-        }
-        
-        // Process tasks in breadth-first order
-        while (!queue.isEmpty()) {
-            Task current = queue.poll();
-            
-            // Skip completed tasks
-            if (current.isCompleted()) {
-                continue;
-            }
-            
-            // If it's atomic, it's the next task to execute
-            if (current.isAtomic()) {
-                return current;
-            }
-            
-            // If it's not atomic and has no subtasks, it needs to be broken down
-            if (current.getSubTasks().isEmpty()) {
-                return current;
-            }
-            
-            // Add subtasks to the queue
-            for (Task subtask : current.getSubTasks()) {
-                queue.add(subtask);
-            }
-        }
-        
-        // No open tasks found
-        return null;
-    }
-    
     /**
      * Marks a task as completed.
      */
@@ -380,124 +671,295 @@ public class PlanExecutor {
      * Note we also reevaluate the ENTIRE plan after each subtask,
      * to see if global conditions have changed.
      */
-    private ExecutionResult processTask(Task task, Plan plan) {
+    private ExecutionResult processTask(PlanRun run, Task task) {
         // Base case: Atomic => execute immediately
         if (task.isAtomic()) {
-            System.out.println("Executing atomic task: " + task.getDescription());
+            ExecutionResult result = executeAtomicTask(run, task, false);
+            run.validationPolicy.onTaskFinished();
+            return result;
+        }
+
+        // If non-atomic, ensure subtasks are atomic or can be broken down
+        if (!allSubTasksAtomic(task)) {
+            // Attempt to break down
+            breakDownTask(run, task);
+            // Reevaluation step (the entire plan might shift after breakdown)
+            PlanValidationResult valRes = validatePlan(run, ValidationTrigger.AFTER_BREAKDOWN);
+            if (!valRes.isValid()) {
+                return new ExecutionResult(false, "pkg.Plan invalid after breakdown: " + valRes.getReason());
+            }
+        }
+
+        // Process each subtask (recursively)
+        for (Task sub : task.getSubTasks()) {
+            // Skip already completed subtasks
+            if (sub.isCompleted()) {
+                continue;
+            }
             
-            List<String> commands = task.getCommands();
-            if (commands == null || commands.isEmpty()) {
-                System.out.println("No commands to execute for task: " + task.getDescription());
-                return new ExecutionResult(true, "No commands to execute, task considered complete.");
+            ExecutionResult subResult = processTask(run, sub);
+            
+            if (!subResult.isSuccess()) {
+                return subResult;
             }
             
-            boolean allCommandsSucceeded = true;
-            StringBuilder resultMessage = new StringBuilder();
+            // Mark the subtask as completed after successful execution
+            sub.setCompleted(true);
             
+            // Reevaluate after each subtask
+            PlanValidationResult validation = validatePlan(run, ValidationTrigger.AFTER_SUBTASK);
+            if (!validation.isValid()) {
+                return new ExecutionResult(false, "pkg.Plan invalid after subtask: " + validation.getReason());
+            }
+        }
+
+        // If all subtasks have succeeded, mark this task as completed and return success
+        task.setCompleted(true);
+        return new ExecutionResult(true,
+                "All subtasks of [" + task.getDescription() + "] completed successfully.");
+    }
+
+    /**
+     * Runs the commands of an atomic task one after another in the run's shell (or a new process per
+     * command if persistent shells are off), stopping at the first failure. Commands are killed when
+     * they exceed the command, task or idle timeout (the first two can be set per task in the plan).
+     *
+     * @param parallel whether other tasks may run at the same time (plans with dependencies); the
+     *                 state the task leaves its shell in is then recorded for the tasks after it
+     */
+    private ExecutionResult executeAtomicTask(PlanRun run, Task task, boolean parallel) {
+        System.out.println("Executing atomic task: " + task.getDescription());
+        
+        List<String> commands = task.getCommands();
+        if (commands == null || commands.isEmpty()) {
+            System.out.println("No commands to execute for task: " + task.getDescription());
+            return new ExecutionResult(true, "No commands to execute, task considered complete.");
+        }
+        
+        boolean allCommandsSucceeded = true;
+        ExecutionResult.FailureKind failureKind = null;
+        StringBuilder resultMessage = new StringBuilder();
+        StringBuilder output = new StringBuilder();
+        Duration taskLimit = task.getTimeoutSeconds() != null ? Duration.ofSeconds(task.getTimeoutSeconds()) : taskTimeout;
+        Duration commandLimit = task.getCommandTimeoutSeconds() != null ? Duration.ofSeconds(task.getCommandTimeoutSeconds()) : commandTimeout;
+        long taskDeadline = taskLimit != null && taskLimit.toNanos() > 0 ? System.nanoTime() + taskLimit.toNanos() : Long.MAX_VALUE;
+        ShellSession shell = persistentShell && !isWindows() ? run.borrowShell(shellName, task) : null;
+        CacheLookup cacheLookup = null;
+        List<Integer> exitCodes = new ArrayList<>();
+        long started = System.nanoTime();
+        
+        try {
+            if (taskCache != null && TaskResultCache.isMemoizable(task)) {
+                cacheLookup = lookUpTaskResult(run, task, shell);
+                if (cacheLookup != null && cacheLookup.entry != null) {
+                    return cachedResult(run, task, cacheLookup.entry, System.nanoTime() - started);
+                }
+            }
             for (String command : commands) {
                 System.out.println("Executing command: " + command);
+                CommandLimits limits = new CommandLimits(commandLimit, taskDeadline, idleTimeout);
+                OutputCapture capture = new OutputCapture(outputHeadChars, outputTailChars, run::commandOutput);
+                output.append("$ ").append(command).append('\n');
                 try {
-                    // Create process builder with the command
-                    ProcessBuilder processBuilder = new ProcessBuilder();
-                    
-                    // Set the command based on OS
-                    if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-                        processBuilder.command("cmd.exe", "/c", command);
-                    } else {
-                        processBuilder.command("sh", "-c", command);
-                    }
-                    
-                    // Redirect error stream to output stream
-                    processBuilder.redirectErrorStream(true);
+                    CommandResult commandResult = shell != null
+                            ? shell.run(command, capture, limits)
+                            : runInNewProcess(run.getWorkspace(), command, capture, limits);
+                    int exitCode = commandResult.getExitCode();
+                    exitCodes.add(exitCode);
+                    output.append(capture).append("[exit code ").append(exitCode).append("]\n");
                     
-                    // Start the process
-                    Process process = processBuilder.start();
-                    
-                    // Read the output
-                    try (InputStream is = process.getInputStream();
-                         InputStreamReader isr = new InputStreamReader(is);
-                         java.io.BufferedReader br = new java.io.BufferedReader(isr)) {
-                        
-                        String line;
-                        while ((line = br.readLine()) != null) {
-                            System.out.println(line);
-                        }
+                    if (commandResult.getLimitExceeded() != null) {
+                        failureKind = commandResult.getLimitExceeded();
+                        String reason = CommandLimits.describe(failureKind);
+                        System.out.println("Command " + reason);
+                        run.warning("Command '" + command + "' " + reason);
+                        resultMessage.append("Command '").append(command).append("' was ").append(reason).append(".\n");
+                        allCommandsSucceeded = false;
+                        break;
                     }
                     
-                    // Wait for the process to complete and get exit code
-                    int exitCode = process.waitFor();
-                    
                     // Check if command succeeded (exit code 0)
                     if (exitCode == 0) {
                         System.out.println("Command executed successfully with exit code: " + exitCode);
                         resultMessage.append("Command '").append(command).append("' executed successfully.\n");
                     } else {
                         System.out.println("Command failed with exit code: " + exitCode);
+                        failureKind = ExecutionResult.FailureKind.COMMAND_FAILED;
                         resultMessage.append("Command '").append(command).append("' failed with exit code: ").append(exitCode).append(".\n");
                         allCommandsSucceeded = false;
                         break; // Stop executing remaining commands on failure
                     }
                     
                 } catch (IOException | InterruptedException e) {
+                    output.append(capture);
+                    failureKind = ExecutionResult.FailureKind.ERROR;
                     System.out.println("Error executing command: " + e.getMessage());
                     resultMessage.append("Error executing command '").append(command).append("': ").append(e.getMessage()).append(".\n");
                     allCommandsSucceeded = false;
                     break; // Stop executing remaining commands on failure
                 }
             }
-            
-            // Evaluate the task based on success criteria if all commands succeeded
-            if (allCommandsSucceeded) {
-                String successCriteria = task.getSuccessCriteria();
-                if (successCriteria != null && !successCriteria.isEmpty()) {
-                    // Here we could implement more sophisticated success validation
-                    // For now, we'll assume all commands executed successfully means criteria met
-                    System.out.println("Success criteria met: " + successCriteria);
-                }
-                return new ExecutionResult(true, "Completed atomic task. " + resultMessage.toString());
-            } else {
-                return new ExecutionResult(false, "Failed to execute atomic task. " + resultMessage.toString());
+        } finally {
+            if (shell != null) {
+                run.returnShell(shell, task, parallel);
             }
         }
-
-        // If non-atomic, ensure subtasks are atomic or can be broken down
-        if (!allSubTasksAtomic(task)) {
-            // Attempt to break down
-            breakDownTask(task);
-            // Reevaluation step (the entire plan might shift after breakdown)
-            PlanValidationResult valRes = reevaluatePlan(plan);
-            if (!valRes.isValid()) {
-                return new ExecutionResult(false, "pkg.Plan invalid after breakdown: " + valRes.getReason());
+        
+        // Evaluate the task based on success criteria if all commands succeeded
+        if (allCommandsSucceeded) {
+            String successCriteria = task.getSuccessCriteria();
+            if (successCriteria != null && !successCriteria.isEmpty()) {
+                // Here we could implement more sophisticated success validation
+                // For now, we'll assume all commands executed successfully means criteria met
+                System.out.println("Success criteria met: " + successCriteria);
+            }
+            if (cacheLookup != null) {
+                taskCache.put(cacheLookup.key, new TaskResultCache.Entry(resultMessage.toString(), output.toString(), exitCodes,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                        TaskResultCache.fingerprintOutputs(task, cacheLookup.directory)));
             }
+            return new ExecutionResult(true, "Completed atomic task. " + resultMessage.toString(), output.toString());
+        } else {
+            return new ExecutionResult(false, "Failed to execute atomic task. " + resultMessage.toString(), output.toString(), failureKind);
         }
+    }
 
-        // Process each subtask (recursively)
-        for (Task sub : task.getSubTasks()) {
-            // Skip already completed subtasks
-            if (sub.isCompleted()) {
-                continue;
+    /**
+     * Looks up the result of an earlier run of the task's commands in the same directory and environment.
+     *
+     * @return the key and the result (null on a miss), or null if the shell's state could not be read
+     */
+    private CacheLookup lookUpTaskResult(PlanRun run, Task task, ShellSession shell) {
+        File directory = run.getWorkspace();
+        StringBuilder environment = new StringBuilder(shell != null ? shellName : "sh");
+        try {
+            if (shell != null) {
+                List<String> state = shell.describeState(taskCacheEnvironment);
+                directory = new File(state.get(0));
+                state.subList(1, state.size()).forEach(value -> environment.append('\n').append(value));
+            } else {
+                taskCacheEnvironment.forEach(name -> environment.append('\n').append(System.getenv().getOrDefault(name, "")));
             }
-            
-            ExecutionResult subResult = processTask(sub, plan);
-            
-            if (!subResult.isSuccess()) {
-                return subResult;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Task cache skipped, could not read the shell state: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        CacheLookup lookup = new CacheLookup();
+        lookup.directory = directory;
+        lookup.key = TaskResultCache.key(task, environment.toString(), directory, run.getWorkspace());
+        lookup.entry = taskCache.get(lookup.key, directory);
+        if (lookup.entry == null) {
+            run.cacheMisses.incrementAndGet();
+            Metrics.increment("task.cache.misses");
+        }
+        return lookup;
+    }
+
+    private ExecutionResult cachedResult(PlanRun run, Task task, TaskResultCache.Entry entry, long lookupNanos) {
+        long savedMillis = Math.max(0, entry.getElapsedMillis() - TimeUnit.NANOSECONDS.toMillis(lookupNanos));
+        run.cacheHits.incrementAndGet();
+        run.cacheSavedMillis.addAndGet(savedMillis);
+        Metrics.increment("task.cache.hits");
+        Metrics.add("task.cache.saved.millis", savedMillis);
+
+        String message = "Task " + task.getId() + " [" + task.getDescription() + "] reused the result of an identical run from "
+                + Instant.ofEpochMilli(entry.getCreatedAt()) + " instead of running its commands again (saved ~" + savedMillis + " ms)";
+        System.out.println(message);
+        run.info(message);
+        return new ExecutionResult(true, "Completed atomic task (cached result, commands not run again). " + entry.getMessage(),
+                "[cached result, exit codes " + entry.getExitCodes() + "]\n" + entry.getOutput());
+    }
+
+    /**
+     * Logs how much the task result cache saved the run.
+     */
+    private void reportTaskCache(PlanRun run) {
+        int hits = run.cacheHits.get();
+        int lookups = hits + run.cacheMisses.get();
+        if (taskCache == null || lookups == 0) {
+            return;
+        }
+        String summary = String.format("Task cache: %d of %d lookups hit (%.0f%%), saved ~%.1f s",
+                hits, lookups, 100.0 * hits / lookups, run.cacheSavedMillis.get() / 1000.0);
+        System.out.println(summary);
+        run.info(summary);
+    }
+
+    /**
+     * Key and directory of a task's cache lookup, and the result found.
+     */
+    private static class CacheLookup {
+        String key;
+        File directory;
+        TaskResultCache.Entry entry;
+    }
+
+    /**
+     * Runs a single command in a new shell process, pumping its stdout into the capture and its
+     * stderr into a capture of its own that is appended at the end, so errors are not lost in the middle.
+     * The process and everything it started are killed once it exceeds one of the limits.
+     */
+    static CommandResult runInNewProcess(File workspace, String command, OutputCapture capture, CommandLimits limits)
+            throws IOException, InterruptedException {
+        // Create process builder with the command
+        ProcessBuilder processBuilder = new ProcessBuilder();
+        processBuilder.directory(workspace);
+        
+        // Set the command based on OS
+        if (isWindows()) {
+            processBuilder.command("cmd.exe", "/c", command);
+        } else {
+            processBuilder.command("sh", "-c", command);
+        }
+        
+        // Start the process; both streams are drained at the same time so neither pipe fills up
+        Process process = processBuilder.start();
+        process.getOutputStream().close();
+        OutputCapture errors = capture.sibling();
+        Future<?> stdout = OutputPump.start(process.getInputStream(), capture);
+        Future<?> stderr = OutputPump.start(process.getErrorStream(), errors);
+        
+        // Wait for the process to complete, checking the limits in between
+        ExecutionResult.FailureKind limitExceeded = null;
+        while (!process.waitFor(limits.pollMillis(), TimeUnit.MILLISECONDS)) {
+            limitExceeded = limits.exceeded(capture);
+            if (limitExceeded == null && errors.getIdleNanos() < capture.getIdleNanos()) {
+                // Output on stderr counts as activity too
+                limitExceeded = limits.exceeded(errors);
             }
-            
-            // Mark the subtask as completed after successful execution
-            sub.setCompleted(true);
-            
-            // Reevaluate after each subtask
-            PlanValidationResult validation = reevaluatePlan(plan);
-            if (!validation.isValid()) {
-                return new ExecutionResult(false, "pkg.Plan invalid after subtask: " + validation.getReason());
+            if (limitExceeded != null) {
+                CommandLimits.killTree(process.toHandle(), true, Collections.emptySet());
+                process.waitFor();
+                break;
             }
         }
+        int exitCode = process.exitValue();
 
-        // If all subtasks have succeeded, mark this task as completed and return success
-        task.setCompleted(true);
-        return new ExecutionResult(true,
-                "All subtasks of [" + task.getDescription() + "] completed successfully.");
+        // Background processes it left running may keep the pipes open, their output is not waited for
+        try {
+            stdout.get(OUTPUT_DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+            stderr.get(OUTPUT_DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read the command output", e.getCause());
+        } catch (TimeoutException e) {
+            capture.flush();
+            errors.flush();
+        }
+        capture.appendSection("[stderr]", errors);
+        if (limitExceeded != null) {
+            Metrics.increment("command.killed." + limitExceeded.name().toLowerCase());
+            capture.onLine("[" + CommandLimits.describe(limitExceeded) + "]");
+            capture.flush();
+        }
+        return new CommandResult(exitCode, capture.toString(), limitExceeded);
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name").toLowerCase().contains("windows");
     }
 
     /**
@@ -516,39 +978,86 @@ public class PlanExecutor {
      * A stub that 'breaks down' any non-atomic subtasks into atomic subtasks.
      * In a real system, this might involve user input, domain analysis, etc.
      */
-    private void breakDownTask(Task task) {
-        String systemPrompt = "You are a task decomposition assistant.";
-        String userPrompt = "Break down the following non-atomic task into atomic subtasks in JSON format:\n"
-                + task.getDescription();
+    private void breakDownTask(PlanRun run, Task task) {
+        String userPrompt = breakdownPrompt(task);
 
         try {
-            if (logService != null) {
-                logService.addInfo("Breaking down task: " + task.getDescription());
-            }
+            run.info("Breaking down task: " + task.getDescription());
             
-            String response = OllamaClient.queryOllama(systemPrompt, userPrompt);
+            String response = takePrefetchedBreakdown(run, task);
+            if (response == null) {
+                response = callLlm(run, () -> OllamaClient.queryOllama(BREAKDOWN_SYSTEM_PROMPT, userPrompt));
+            }
 
             // Parse the JSON response
             JsonObject taskJson = JsonParser.parseString(response).getAsJsonObject();
             JsonArray subTasksArray = taskJson.getAsJsonArray("subtasks");
 
+            // Added at once: the model numbers subtasks from 1, so they are renumbered in the plan
+            List<Task> subTasks = new ArrayList<>();
             for (int i = 0; i < subTasksArray.size(); i++) {
                 JsonObject subTaskJson = subTasksArray.get(i).getAsJsonObject();
-                Task subTask = parseTaskFromJson(subTaskJson);
-                task.addSubTask(subTask);
+                subTasks.add(parseTaskFromJson(subTaskJson));
             }
+            task.addSubTasks(subTasks);
 
             task.setAtomic(true); // Mark the task as atomic after breakdown
             
-            if (logService != null) {
-                logService.addSuccess("Successfully broke down task into " + subTasksArray.size() + " subtasks");
-            }
+            run.success("Successfully broke down task into " + subTasksArray.size() + " subtasks");
+        } catch (LlmUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
-            if (logService != null) {
-                logService.addError("Failed to break down task: " + e.getMessage());
+            run.error("Failed to break down task: " + e.getMessage());
+        }
+    }
+
+    private static String breakdownPrompt(Task task) {
+        return "Break down the following non-atomic task into atomic subtasks in JSON format:\n"
+                + task.getDescription();
+    }
+
+    /**
+     * Returns the breakdown prefetched for the task if its description has not changed since.
+     */
+    private static String takePrefetchedBreakdown(PlanRun run, Task task) {
+        PrefetchedBreakdown prefetched = run.prefetchedBreakdowns.remove(task);
+        if (prefetched == null) {
+            return null;
+        }
+        if (prefetched.description.equals(task.getDescription())) {
+            try {
+                String response = OllamaClient.await(prefetched.response);
+                Metrics.increment("plan.prefetch.used");
+                return response;
+            } catch (Exception e) {
+                System.out.println("Prefetched task breakdown failed: " + e.getMessage());
             }
         }
+        prefetched.response.cancel(true);
+        Metrics.increment("plan.prefetch.wasted");
+        return null;
+    }
+
+    /**
+     * Reevaluates the plan if the run's validation policy asks for it at this trigger.
+     * A skipped validation counts as valid.
+     */
+    private PlanValidationResult validatePlan(PlanRun run, ValidationTrigger trigger) {
+        ValidationPolicy validationPolicy = run.validationPolicy;
+        if (!validationPolicy.shouldValidate(trigger)) {
+            run.skippedValidations++;
+            Metrics.increment("plan.validation.skipped");
+            Metrics.increment("plan.validation.skipped." + validationPolicy.getName());
+            return new PlanValidationResult(true, "Validation skipped by the " + validationPolicy.getName() + " policy", "");
+        }
+        run.performedValidations++;
+        Metrics.increment("plan.validation.performed");
+        Metrics.increment("plan.validation.performed." + validationPolicy.getName());
+        PlanValidationResult result = reevaluatePlan(run);
+        validationPolicy.onValidated();
+        run.planEditedSinceValidation = false;
+        return result;
     }
 
     /**
@@ -556,72 +1065,205 @@ public class PlanExecutor {
      * For demo purposes, we'll do some trivial checks, but in a real system
      * you would have logic to ensure the plan is still valid after each step.
      */
-    private PlanValidationResult reevaluatePlan(Plan plan) {
-        String systemPrompt = prompts.getAsJsonObject("PlanReevaluation").get("system").getAsString();
-        String userPrompt = "Evaluate the validity of the following plan in JSON format:\n" + planToJson(plan);
-        JsonObject jsonScheme = prompts.getAsJsonObject("PlanReevaluation").getAsJsonObject("jsonScheme");
-        try {
-            if (logService != null) {
-                logService.addInfo("Evaluating plan validity...");
-            }
-            
-            JsonObject response = OllamaClient.queryOllamaWithSchema(systemPrompt, userPrompt, jsonScheme);
+    private PlanValidationResult reevaluatePlan(PlanRun run) {
+        Plan plan = run.getPlan();
+        JsonObject speculated = takeSpeculativeValidation(run);
+        if (speculated != null) {
+            run.info("Using the plan evaluation made while the last task was running");
+            return toValidationResult(run, speculated);
+        }
 
-            boolean isValid = response.get("overallValidity").getAsBoolean();
-            String reason = response.has("explanation") ? response.get("explanation").getAsString() : "";
-            String improvements = response.has("improvements") ? response.get("improvements").getAsString() : "";
-            
-            if (logService != null) {
-                if (isValid) {
-                    logService.addSuccess("Plan validation result: Valid");
-                    if (!improvements.isEmpty()) {
-                        logService.addInfo("Suggested improvements: " + improvements);
-                    }
-                } else {
-                    logService.addWarning("Plan validation result: Invalid. Reason: " + reason);
-                }
-            }
+        String systemPrompt = run.systemPrompt("PlanReevaluation");
+        String userPrompt;
+        LlmSession reevaluationSession = run.reevaluationSession;
+        if (reevaluationSession == null || reevaluationSession.isFresh()) {
+            userPrompt = withCompactPlan(run, "PlanReevaluation", systemPrompt,
+                    "Evaluate the validity of the following plan in JSON format:\n", plan, 0);
+            rememberSentPlan(reevaluationSession, plan);
+        } else {
+            userPrompt = describePlanChanges("PlanReevaluation", reevaluationSession, plan)
+                         + "\nEvaluate the validity of the updated plan in JSON format.";
+        }
+        JsonObject jsonScheme = run.prompt("PlanReevaluation").getAsJsonObject("jsonScheme");
+        try {
+            run.info("Evaluating plan validity...");
             
-            return new PlanValidationResult(isValid, reason, improvements);
+            JsonObject response = callLlm(run, () -> queryInSession("PlanReevaluation", reevaluationSession, systemPrompt, userPrompt, jsonScheme));
+            return toValidationResult(run, response);
+        } catch (LlmUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
-            if (logService != null) {
-                logService.addError("Error during plan reevaluation: " + e.getMessage());
-            }
+            run.error("Error during plan reevaluation: " + e.getMessage());
             return new PlanValidationResult(false, "Error during plan reevaluation: " + e.getMessage(), null);
         }
     }
 
+    private static PlanValidationResult toValidationResult(PlanRun run, JsonObject response) {
+        boolean isValid = response.get("overallValidity").getAsBoolean();
+        String reason = response.has("explanation") ? response.get("explanation").getAsString() : "";
+        String improvements = response.has("improvements") ? response.get("improvements").getAsString() : "";
+        
+        if (isValid) {
+            run.success("Plan validation result: Valid");
+            if (!improvements.isEmpty()) {
+                run.info("Suggested improvements: " + improvements);
+            }
+        } else {
+            run.warning("Plan validation result: Invalid. Reason: " + reason);
+        }
+        
+        return new PlanValidationResult(isValid, reason, improvements);
+    }
+
+    /**
+     * Starts, in the background, the evaluation of the plan as it will be once the running task
+     * has succeeded, and the breakdown of the task that will come after it if it needs one.
+     */
+    private static void startSpeculativeWork(PlanRun run, Task runningTask) {
+        discardSpeculativeValidation(run, "superseded");
+
+        Plan plan = run.getPlan();
+        Plan expected = copyPlan(plan);
+        Task expectedTask = expected.getTask(runningTask.getId());
+        if (expectedTask == null) {
+            return;
+        }
+        expectedTask.setInProgress(false);
+        expectedTask.setCompleted(true);
+
+        String systemPrompt = run.systemPrompt("PlanReevaluation");
+        String userPrompt = withCompactPlan(run, "PlanReevaluation", systemPrompt,
+                "Evaluate the validity of the following plan in JSON format:\n", expected, 0);
+        JsonObject jsonScheme = run.prompt("PlanReevaluation").getAsJsonObject("jsonScheme");
+        run.speculativeValidation = new SpeculativeValidation(planToJson(expected),
+                OllamaClient.queryOllamaWithSchemaAsync("PlanReevaluation", systemPrompt, userPrompt, jsonScheme));
+        Metrics.increment("plan.speculation.started");
+
+        Task following = expected.getNextOpenTask();
+        if (following != null && !following.isAtomic() && following.getSubTasks().isEmpty()) {
+            Task actual = plan.getTask(following.getId());
+            if (actual != null && !run.prefetchedBreakdowns.containsKey(actual)) {
+                run.prefetchedBreakdowns.put(actual, new PrefetchedBreakdown(actual.getDescription(),
+                        OllamaClient.queryOllamaAsync(BREAKDOWN_SYSTEM_PROMPT, breakdownPrompt(actual))));
+                Metrics.increment("plan.prefetch.started");
+            }
+        }
+    }
+
+    /**
+     * Returns the speculative evaluation if it was made for exactly the current plan, otherwise
+     * discards it.
+     */
+    private static JsonObject takeSpeculativeValidation(PlanRun run) {
+        SpeculativeValidation speculation = run.speculativeValidation;
+        if (speculation == null) {
+            return null;
+        }
+        run.speculativeValidation = null;
+        if (!speculation.expectedPlan.equals(planToJson(run.getPlan()))) {
+            wasteSpeculation(speculation, "changed");
+            return null;
+        }
+        try {
+            JsonObject response = OllamaClient.await(speculation.response);
+            if (response.has("overallValidity")) {
+                Metrics.increment("plan.speculation.used");
+                return response;
+            }
+        } catch (Exception e) {
+            System.out.println("Speculative plan evaluation failed: " + e.getMessage());
+        }
+        wasteSpeculation(speculation, "error");
+        return null;
+    }
+
+    private static void discardSpeculativeValidation(PlanRun run, String reason) {
+        SpeculativeValidation speculation = run.speculativeValidation;
+        run.speculativeValidation = null;
+        if (speculation != null) {
+            wasteSpeculation(speculation, reason);
+        }
+    }
+
+    private static void discardSpeculativeWork(PlanRun run, String reason) {
+        discardSpeculativeValidation(run, reason);
+        for (PrefetchedBreakdown prefetched : run.prefetchedBreakdowns.values()) {
+            prefetched.response.cancel(true);
+            Metrics.increment("plan.prefetch.wasted");
+        }
+        run.prefetchedBreakdowns.clear();
+    }
+
+    private static void wasteSpeculation(SpeculativeValidation speculation, String reason) {
+        speculation.response.cancel(true);
+        Metrics.increment("plan.speculation.wasted");
+        Metrics.increment("plan.speculation.wasted." + reason);
+    }
+
+    private static Plan copyPlan(Plan plan) {
+        return JsonCodec.GSON.fromJson(JsonCodec.GSON.toJson(plan), Plan.class);
+    }
+
+    /**
+     * Plan evaluation started before the task it assumes completed has finished.
+     */
+    static class SpeculativeValidation {
+        private final String expectedPlan;
+        private final CompletableFuture<JsonObject> response;
+
+        SpeculativeValidation(String expectedPlan, CompletableFuture<JsonObject> response) {
+            this.expectedPlan = expectedPlan;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Breakdown of a task requested before the task was reached; only used if its description is unchanged.
+     */
+    static class PrefetchedBreakdown {
+        private final String description;
+        private final CompletableFuture<String> response;
+
+        PrefetchedBreakdown(String description, CompletableFuture<String> response) {
+            this.description = description;
+            this.response = response;
+        }
+    }
+
     /**
      * If the plan is invalid (or partially invalid), fix or modify it here.
-     * This is a stub – real logic might remove or reorder tasks, prompt user, etc.
+     * The model's edit commands are applied as one batch, which is saved once; if any of them
+     * fails, none is applied and the errors go into the next attempt's prompt.
+     *
+     * @return true if the plan was edited
      */
-    private void fixPlan(Plan plan, PlanValidationResult validationResult) {
-        String systemPrompt = prompts.getAsJsonObject("planEditor").get("system").getAsString();
-        String userPrompt = "The following plan has been deemed invalid for the following reason: "
-                + validationResult.getReason()
-                + "\nPlease provide a corrected plan in JSON format with commands that modify the plan. The commands should follow these examples:"
-                + "\n- getTask(2).change(\"description\", \"New description\") - Change a task description"
-                + "\n- getTask(3).change(\"commands\", [\"command1\", \"command2\"]) - Replace commands"
-                + "\n- getTask(4).appendCommand(\"new command\") - Add a command to a task"
-                + "\n- removeTask(5) - Remove a task"
-                + "\n- addTask({\"id\": 6, \"description\": \"New task\", \"commands\": [\"cmd1\"]}) - Add a new task"
-                + "\n\nOriginal plan:\n"
-                + planToJson(plan);
-        JsonObject jsonScheme = prompts.getAsJsonObject("planEditor").getAsJsonObject("jsonScheme");
+    private boolean fixPlan(PlanRun run, PlanValidationResult validationResult) {
+        Plan plan = run.getPlan();
+        String systemPrompt = run.systemPrompt("planEditor");
+        String userPrompt;
+        LlmSession editorSession = run.editorSession;
+        if (editorSession != null && !editorSession.isFresh()) {
+            // The command syntax and the plan were sent earlier in this conversation
+            userPrompt = describeRejectedEdits(run)
+                    + "The plan has been deemed invalid for the following reason: "
+                    + validationResult.getReason() + "\n"
+                    + describePlanChanges("planEditor", editorSession, plan)
+                    + "\nPlease provide commands in JSON format that correct the updated plan.";
+        } else {
+            userPrompt = buildFullFixPrompt(run, systemPrompt, validationResult);
+            rememberSentPlan(editorSession, plan);
+        }
+        JsonObject jsonScheme = run.prompt("planEditor").getAsJsonObject("jsonScheme");
 
         try {
             // Add detailed logging about the plan fixing process
-            if (logService != null) {
-                logService.addInfo("Sending plan to LLM for fixing. Reason: " + validationResult.getReason());
-            }
+            run.info("Sending plan to LLM for fixing. Reason: " + validationResult.getReason());
             
-            JsonObject response = OllamaClient.queryOllamaWithSchema(systemPrompt, userPrompt, jsonScheme);
+            JsonObject response = callLlm(run, () -> queryInSession("planEditor", editorSession, systemPrompt, userPrompt, jsonScheme));
             
             // Debug: print the entire response
-            if (logService != null) {
-                logService.addInfo("Received LLM response: " + PlanExecutor.prettyPrintJsonObject(response));
-            }
+            run.info("Received LLM response: " + PlanExecutor.prettyPrintJsonObject(response));
 
             // Parse the JSON response
             JsonObject fixCommands = null;
@@ -640,108 +1282,252 @@ public class PlanExecutor {
                     }
                 } else {
                     // Create a message about the problem
-                    if (logService != null) {
-                        logService.addError("LLM response did not contain proper commands format. Response: " 
-                                           + PlanExecutor.prettyPrintJsonObject(response));
-                    }
+                    run.error("LLM response did not contain proper commands format. Response: " 
+                              + PlanExecutor.prettyPrintJsonObject(response));
                 }
                 
                 fixCommands.add("commands", commandsArray);
             }
             
             // Log the commands we're about to execute
-            if (logService != null && fixCommands != null) {
+            if (run.hasLog() && fixCommands != null) {
                 if (fixCommands.has("commands") && fixCommands.get("commands").isJsonArray()) {
                     JsonArray cmds = fixCommands.getAsJsonArray("commands");
-                    logService.addInfo("Received " + cmds.size() + " fixing commands from LLM");
+                    run.info("Received " + cmds.size() + " fixing commands from LLM");
                     for (int i = 0; i < cmds.size(); i++) {
-                        logService.addInfo("Command " + (i+1) + ": " + cmds.get(i).getAsString());
+                        run.info("Command " + (i+1) + ": " + cmds.get(i).getAsString());
                     }
                 } else {
-                    logService.addError("Commands are not in expected format. Fix commands: " 
-                                      + PlanExecutor.prettyPrintJsonObject(fixCommands));
+                    run.error("Commands are not in expected format. Fix commands: " 
+                              + PlanExecutor.prettyPrintJsonObject(fixCommands));
                 }
             }
             
             // Execute the commands to update the plan
             PlanEditor planEditor = new PlanEditor(plan);
-            planEditor.executeCommands(fixCommands);
+            PlanEditResult editResult = planEditor.executeCommands(fixCommands);
+            if (!editResult.isApplied()) {
+                run.rejectedEditErrors = editResult.getErrors();
+                Metrics.increment("plan.edit.rejected");
+                run.error("Rejected the plan fixes suggested by the LLM, the plan is unchanged:\n  "
+                        + String.join("\n  ", editResult.getErrors()));
+                return false;
+            }
+            run.rejectedEditErrors = null;
+            run.planEditedSinceValidation = true;
+            Metrics.increment("plan.edit.applied");
+            savePlan(run);
             
             // Log the successful application of fixes
-            if (logService != null) {
-                logService.addSuccess("Applied plan fixes as suggested by the LLM");
+            if (run.hasLog()) {
+                run.success("Applied plan fixes as suggested by the LLM, plan version " + editResult.getVersion());
                 
                 // Output the updated plan for debugging
-                logService.addInfo("Updated plan: " + planToJson(plan));
+                run.info("Updated plan: " + planToJson(plan));
             }
+            return true;
 
+        } catch (LlmUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
-            if (logService != null) {
-                logService.addError("Failed to fix plan: " + e.getMessage());
+            if (run.hasLog()) {
+                run.error("Failed to fix plan: " + e.getMessage());
                 // Include stack trace in the log for better debugging
                 StringBuilder stackTrace = new StringBuilder();
                 for (StackTraceElement element : e.getStackTrace()) {
                     stackTrace.append("\n  at ").append(element.toString());
                 }
-                logService.addError("Stack trace: " + stackTrace.toString());
+                run.error("Stack trace: " + stackTrace.toString());
             }
+            return false;
         }
     }
 
-    private static Task parseTaskFromJson(JsonObject taskJson) {
-        Gson gson = new Gson();
-        Task task = gson.fromJson(taskJson, Task.class);
-        task.initSubTasks();
+    /**
+     * Tells the model why its last batch of edit commands was not applied.
+     */
+    private static String describeRejectedEdits(PlanRun run) {
+        if (run.rejectedEditErrors == null) {
+            return "";
+        }
+        return "None of your previous commands were applied, because:\n- "
+                + String.join("\n- ", run.rejectedEditErrors) + "\n\n";
+    }
 
-        if (taskJson.has("subtasks")) {
-            JsonArray subTasksArray = taskJson.getAsJsonArray("subtasks");
-            for (int i = 0; i < subTasksArray.size(); i++) {
-                JsonObject subTaskJson = subTasksArray.get(i).getAsJsonObject();
-                Task subTask = parseTaskFromJson(subTaskJson);
-                task.addSubTask(subTask);
-            }
+    private static String buildFullFixPrompt(PlanRun run, String systemPrompt, PlanValidationResult validationResult) {
+        return withCompactPlan(run, "planEditor", systemPrompt, describeRejectedEdits(run) + "The following plan has been deemed invalid for the following reason: "
+                + validationResult.getReason()
+                + "\nPlease provide a corrected plan in JSON format with commands that modify the plan. The commands should follow these examples:"
+                + "\n- getTask(2).change(\"description\", \"New description\") - Change a task description"
+                + "\n- getTask(3).change(\"commands\", [\"command1\", \"command2\"]) - Replace commands"
+                + "\n- getTask(4).appendCommand(\"new command\") - Add a command to a task"
+                + "\n- removeTask(5) - Remove a task"
+                + "\n- addTask({\"id\": 6, \"description\": \"New task\", \"commands\": [\"cmd1\"]}) - Add a new task"
+                + "\n\nOriginal plan:\n", run.getPlan(), 0);
+    }
+
+    /**
+     * Appends the plan to a prompt, compacted to what is left of the prompt type's token budget
+     * after the system prompt and the given text, and reports the original and compacted prompt size.
+     *
+     * @param omittedChars characters already cut from the text (e.g. from command output)
+     */
+    private static String withCompactPlan(PlanRun run, String promptType, String systemPrompt, String text, Plan plan, int omittedChars) {
+        PromptProfile profile = OllamaClient.getPromptProfile(promptType);
+        int budget = profile == null ? 0 : profile.getTokenBudget();
+        int planBudget = budget <= 0 ? 0
+                : Math.max(1, budget - PromptCompactor.estimateTokens(systemPrompt) - PromptCompactor.estimateTokens(text));
+        String compactPlan = isPlanEditing(promptType)
+                ? PromptCompactor.compactPlanForEditing(plan, planBudget)
+                : PromptCompactor.compactPlan(plan, planBudget);
+
+        int fixedChars = systemPrompt.length() + text.length();
+        int originalChars = fixedChars + omittedChars + planToJson(plan).length();
+        int compactedChars = fixedChars + compactPlan.length();
+        PromptCompactor.report(promptType, originalChars, compactedChars);
+        String message = promptType + " prompt compacted from ~" + originalChars / PromptCompactor.CHARS_PER_TOKEN
+                + " to ~" + compactedChars / PromptCompactor.CHARS_PER_TOKEN + " tokens"
+                + (budget > 0 ? " (budget " + budget + ")" : "");
+        if (run.hasLog()) {
+            run.info(message);
+        } else {
+            System.out.println(message);
         }
-        return task;
+        return text + compactPlan;
     }
 
-    private static String planToJson(Plan plan) {
-        JsonObject planJson = new JsonObject();
-        JsonArray tasksArray = new JsonArray();
+    /**
+     * The plan editor refers to commands by their text (e.g. removeCommand), so its prompts carry them whole.
+     */
+    private static boolean isPlanEditing(String promptType) {
+        return "planEditor".equals(promptType);
+    }
 
-        for (Task task : plan.getTopLevelTasks()) {
-            tasksArray.add(taskToJson(task));
+    private static JsonObject queryInSession(String promptType, LlmSession session, String systemPrompt,
+                                             String userPrompt, JsonObject jsonScheme) throws Exception {
+        if (session == null) {
+            return OllamaClient.queryOllamaWithSchema(promptType, systemPrompt, userPrompt, jsonScheme);
         }
+        return OllamaClient.queryOllamaWithSchema(promptType, session, userPrompt, jsonScheme);
+    }
 
-        planJson.add("tasks", tasksArray);
-        return planJson.toString();
+    /**
+     * Records the plan as sent in full to the session.
+     */
+    private static void rememberSentPlan(LlmSession session, Plan plan) {
+        if (session != null) {
+            Map<Integer, String> sentTasks = session.getSentTasks();
+            sentTasks.clear();
+            sentTasks.putAll(flattenTasks(plan));
+        }
     }
 
-    private static JsonObject taskToJson(Task task) {
-        Gson gson = new Gson();
+    /**
+     * Describes the tasks that were added, changed or removed since the plan was last sent
+     * in the session, and records the current plan as sent.
+     */
+    private static String describePlanChanges(String promptType, LlmSession session, Plan plan) {
+        Map<Integer, String> current = flattenTasks(plan);
+        Map<Integer, String> sentTasks = session.getSentTasks();
 
-        JsonElement jsonElement = gson.toJsonTree(task);
+        JsonArray changed = new JsonArray();
+        int originalChars = 0;
+        for (Map.Entry<Integer, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(sentTasks.get(entry.getKey()))) {
+                originalChars += entry.getValue().length();
+                JsonObject taskJson = JsonParser.parseString(entry.getValue()).getAsJsonObject();
+                changed.add(isPlanEditing(promptType) ? taskJson : PromptCompactor.compactCommands(taskJson));
+            }
+        }
+        PromptCompactor.report(promptType, originalChars, changed.toString().length());
+        JsonArray removed = new JsonArray();
+        for (Integer id : sentTasks.keySet()) {
+            if (!current.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+        sentTasks.clear();
+        sentTasks.putAll(current);
+
+        if (changed.size() == 0 && removed.size() == 0) {
+            return "The plan has not changed since you last saw it.";
+        }
+        return "Changes to the plan since you last saw it:\n"
+                + "Added or changed tasks: " + changed + "\n"
+                + "Removed task ids: " + removed;
+    }
+
+    /**
+     * Serializes each task without its subtasks, keyed by id, with the id of its parent
+     */
+    private static Map<Integer, String> flattenTasks(Plan plan) {
+        Map<Integer, String> tasks = new LinkedHashMap<>();
+        for (TaskSnapshot task : plan.getSnapshot().getTopLevelTasks()) {
+            flattenTask(task, null, tasks);
+        }
+        return tasks;
+    }
 
-        JsonObject taskJson = jsonElement.getAsJsonObject();
+    private static void flattenTask(TaskSnapshot task, Integer parentId, Map<Integer, String> tasks) {
+        tasks.put(task.getId(), JsonCodec.taskToJson(task, parentId));
+        for (TaskSnapshot subTask : task.getSubTasks()) {
+            flattenTask(subTask, task.getId(), tasks);
+        }
+    }
 
-        if (!task.getSubTasks().isEmpty()) {
-            JsonArray subTasksArray = new JsonArray();
-            for (Task subTask : task.getSubTasks()) {
-                subTasksArray.add(taskToJson(subTask));
+    /**
+     * Runs an LLM call, pausing plan execution while the backend is unavailable so that an outage
+     * is not mistaken for an invalid plan (which would trigger fixPlan and add more load).
+     * If the backend is still unavailable after MAX_LLM_PAUSE_MILLIS the run is ended with an
+     * {@link LlmUnavailableException}, which the callers let through.
+     */
+    private static <T> T callLlm(PlanRun run, Callable<T> call) throws Exception {
+        long pausedMillis = 0;
+        while (true) {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                if (!OllamaClient.isBackendUnavailable(e)) {
+                    throw e;
+                }
+                if (pausedMillis >= MAX_LLM_PAUSE_MILLIS) {
+                    Metrics.increment("plan.llm.unavailable");
+                    throw new LlmUnavailableException("LLM backend still unavailable after pausing for "
+                            + (pausedMillis / 1000) + " s: " + e.getMessage(), e);
+                }
+                long pauseMillis = Math.min(MAX_LLM_PAUSE_MILLIS - pausedMillis,
+                        Math.max(1000, OllamaClient.getCircuitBreaker().millisUntilRetry()));
+                pausedMillis += pauseMillis;
+                String message = "LLM backend unavailable (" + e.getMessage() + "), pausing plan execution for "
+                        + (pauseMillis / 1000) + " s";
+                System.out.println(message);
+                if (run != null) {
+                    run.warning(message);
+                }
+                Metrics.increment("plan.paused");
+                Thread.sleep(pauseMillis);
             }
-            taskJson.add("subtasks", subTasksArray);
         }
-        return taskJson;
+    }
+
+    /**
+     * Reads a task of a model response, with its subtasks under "subtasks".
+     */
+    private static Task parseTaskFromJson(JsonObject taskJson) {
+        return JsonCodec.GSON.fromJson(taskJson, Task.class);
+    }
+
+    private static String planToJson(Plan plan) {
+        return JsonCodec.planToJson(plan);
     }
 
     public static String prettyPrintJsonArray(JsonArray jsonArray) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        return gson.toJson(jsonArray);
+        return JsonCodec.PRETTY_GSON.toJson(jsonArray);
     }
 
     public static String prettyPrintJsonObject(JsonObject jsonObject) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        return gson.toJson(jsonObject);
+        return JsonCodec.PRETTY_GSON.toJson(jsonObject);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,242 @@
+package pkg;
+
+import com.google.gson.JsonObject;
+import pkg.web.LogService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Context of one plan execution: the plan, its ID, the prompts it was started with, the
+ * directory its commands run in and a logger that tags entries with the plan ID.
+ * Several runs can execute at once.
+ *
+ * A run belongs to the thread executing its plan: the sessions, speculative work, prefetched
+ * breakdowns, validation state and edit errors are only touched by that thread. While a plan with
+ * dependencies runs, the DagScheduler's worker threads execute tasks of the same run at the same
+ * time; what they use is thread-safe: the immutable plan ID, prompts and workspace, the log
+ * methods (info, commandOutput and the like), borrowShell and returnShell, and the task cache
+ * counters. The plan itself is only changed by the executing thread (see DagScheduler).
+ */
+public class PlanRun {
+    private final String planId;
+    private final Plan plan;
+    private final JsonObject prompts;
+    private final File workspace;
+    private final LogService logService;
+
+    // Only used by the thread executing the plan, see the class comment
+    // Conversations of the run, so successive reevaluation and editing turns reuse the model's context
+    LlmSession reevaluationSession;
+    LlmSession editorSession;
+
+    // Work started while a task's commands run, on the assumption that the task succeeds
+    PlanExecutor.SpeculativeValidation speculativeValidation;
+    final Map<Task, PlanExecutor.PrefetchedBreakdown> prefetchedBreakdowns = new IdentityHashMap<>();
+
+    // Validation policy of the run, and what it did
+    ValidationPolicy validationPolicy = new ValidationPolicy.Always();
+    boolean planEditedSinceValidation;
+    // Errors of the last rejected batch of plan edit commands, told to the model on the next attempt
+    List<String> rejectedEditErrors;
+    int performedValidations;
+    int skippedValidations;
+
+    // Task result cache lookups of the run; updated by the worker threads of a plan with dependencies
+    final AtomicInteger cacheHits = new AtomicInteger();
+    final AtomicInteger cacheMisses = new AtomicInteger();
+    final AtomicLong cacheSavedMillis = new AtomicLong();
+
+    // Shells of the run, borrowed and returned by the worker threads of a plan with dependencies; the
+    // most recently used idle one is reused, so state carries over between tasks
+    private final Deque<ShellSession> idleShells = new ConcurrentLinkedDeque<>();
+    // Shell each task last ran in, and the task each shell last ran
+    private final Map<Integer, TaskShell> taskShells = new ConcurrentHashMap<>();
+    private final Map<ShellSession, TaskShell> shellTasks = new ConcurrentHashMap<>();
+    private final AtomicLong taskShellSequence = new AtomicLong();
+
+    /**
+     * @param planId    ID the plan is saved under, or null if it is not persisted
+     * @param prompts   snapshot of prompts.json used for the whole run
+     * @param workspace directory the task commands run in
+     */
+    public PlanRun(String planId, Plan plan, JsonObject prompts, File workspace, LogService logService) {
+        this.planId = planId;
+        this.plan = plan;
+        this.prompts = prompts;
+        this.workspace = workspace;
+        this.logService = logService;
+    }
+
+    public String getPlanId() {
+        return planId;
+    }
+
+    public Plan getPlan() {
+        return plan;
+    }
+
+    public JsonObject getPrompts() {
+        return prompts;
+    }
+
+    public File getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * Sets the validation policy of the run and opens its conversations with the model.
+     */
+    void open(ValidationPolicy validationPolicy) {
+        this.validationPolicy = validationPolicy;
+        reevaluationSession = OllamaClient.openSession(systemPrompt("PlanReevaluation"));
+        editorSession = OllamaClient.openSession(systemPrompt("planEditor"));
+    }
+
+    /**
+     * @return the block of a prompt type, e.g. "PlanReevaluation"
+     */
+    public JsonObject prompt(String promptType) {
+        return prompts.getAsJsonObject(promptType);
+    }
+
+    public String systemPrompt(String promptType) {
+        return prompt(promptType).get("system").getAsString();
+    }
+
+    /**
+     * Takes a shell for a task that continues where the task's dependencies left off: the shell a
+     * dependency ran in if it is idle and has not run anything since, otherwise an idle shell or a
+     * new one in the workspace, brought to the state the latest dependency left its shell in
+     * (tasks of a plan with dependencies may run at the same time, and several may follow one task).
+     */
+    public ShellSession borrowShell(String shell, Task task) {
+        TaskShell latest = null;
+        for (Integer dependency : DagScheduler.dependenciesOf(task, plan)) {
+            TaskShell ran = taskShells.get(dependency);
+            if (ran == null) {
+                continue;
+            }
+            if (shellTasks.get(ran.shell) == ran && idleShells.remove(ran.shell)) {
+                return ran.shell;
+            }
+            if (latest == null || ran.finished > latest.finished) {
+                latest = ran;
+            }
+        }
+        ShellSession session = idleShells.pollFirst();
+        if (session == null) {
+            session = new ShellSession(shell, workspace);
+        }
+        if (latest != null && latest.state != null) {
+            try {
+                session.restoreState(latest.state);
+            } catch (IOException e) {
+                System.out.println("Could not restore the shell state of an earlier task: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Gives back the shell a task ran in. With captureState (for tasks that run in parallel), the
+     * shell's state is recorded, so that tasks following this one can start from it in another shell.
+     */
+    public void returnShell(ShellSession session, Task task, boolean captureState) {
+        String state = null;
+        if (captureState) {
+            try {
+                state = session.captureState();
+            } catch (IOException e) {
+                System.out.println("Could not record the shell state of task " + task.getId() + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // A completed parent task continues in the shell of its last subtask
+        TaskShell ran = new TaskShell(session, state, taskShellSequence.incrementAndGet());
+        for (Task current = task; current != null; current = current.getParent()) {
+            taskShells.put(current.getId(), ran);
+        }
+        shellTasks.put(session, ran);
+        idleShells.offerFirst(session);
+    }
+
+    public void closeShells() {
+        ShellSession session;
+        while ((session = idleShells.pollFirst()) != null) {
+            session.close();
+        }
+    }
+
+    /**
+     * Logs a batch of lines printed by a task's command.
+     */
+    public void commandOutput(String lines) {
+        if (logService != null) {
+            logService.addInfo(tag(lines));
+        } else {
+            System.out.println(lines);
+        }
+    }
+
+    public void info(String message) {
+        if (logService != null) {
+            logService.addInfo(tag(message));
+        }
+    }
+
+    public void success(String message) {
+        if (logService != null) {
+            logService.addSuccess(tag(message));
+        }
+    }
+
+    public void warning(String message) {
+        if (logService != null) {
+            logService.addWarning(tag(message));
+        }
+    }
+
+    public void error(String message) {
+        if (logService != null) {
+            logService.addError(tag(message));
+        }
+    }
+
+    /**
+     * @return whether log entries reach the UI (false when running from the command line)
+     */
+    public boolean hasLog() {
+        return logService != null;
+    }
+
+    private String tag(String message) {
+        return planId == null ? message : "[" + planId + "] " + message;
+    }
+
+    /**
+     * The shell a task ran in, and the state it left it in if it was recorded.
+     */
+    private static class TaskShell {
+        private final ShellSession shell;
+        private final String state;
+        private final long finished;
+
+        TaskShell(ShellSession shell, String state, long finished) {
+            this.shell = shell;
+            this.state = state;
+            this.finished = finished;
+        }
+    }
+}
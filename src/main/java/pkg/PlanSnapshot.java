@@ -0,0 +1,56 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable version of a plan, published by the plan after every change. Readers (the UI,
+ * persistence, prompt builders) take the current snapshot without locking and see one consistent
+ * state of every task, however the executor changes the plan meanwhile.
+ *
+ * Versions of a plan are numbered in increasing order; the number is saved with the plan, so it
+ * keeps increasing when a stored plan is resumed.
+ */
+public final class PlanSnapshot {
+    private final long version;
+    private final List<TaskSnapshot> topLevelTasks;
+
+    PlanSnapshot(long version, List<TaskSnapshot> topLevelTasks) {
+        this.version = version;
+        this.topLevelTasks = Collections.unmodifiableList(topLevelTasks);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<TaskSnapshot> getTopLevelTasks() {
+        return topLevelTasks;
+    }
+
+    /**
+     * @return the number of tasks in the plan
+     */
+    public int size() {
+        return TaskSnapshot.sizeOf(topLevelTasks);
+    }
+
+    /**
+     * The tasks that were added or changed after a version, parents before their subtasks. A task
+     * whose subtasks were added or removed counts as changed, so removals show in the subtasks of
+     * their parent (or in the top-level tasks, which are not tracked and always current).
+     *
+     * @return the changed tasks, or null if sinceVersion is not a version of this plan up to this one
+     */
+    public List<TaskSnapshot> changedSince(long sinceVersion) {
+        if (sinceVersion < 0 || sinceVersion > version) {
+            return null;
+        }
+        List<TaskSnapshot> changed = new ArrayList<>();
+        for (TaskSnapshot task : topLevelTasks) {
+            task.collectChanges(sinceVersion, changed);
+        }
+        return changed;
+    }
+}
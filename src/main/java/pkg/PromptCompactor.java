@@ -0,0 +1,172 @@
+package pkg;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.List;
+
+/**
+ * Shrinks the plan and execution output embedded in prompts so that prompts stay within the
+ * token budget of their prompt type.
+ *
+ * Completed tasks are always collapsed to a one-line summary, since the model only needs to know
+ * they are done. Long commands are cut to a head/tail window, and the window is narrowed step by
+ * step until the plan fits the budget; as a last resort the commands of open tasks other than
+ * the next one are dropped and only counted. Prompts that edit the plan get the commands of open
+ * tasks whole, since edit commands refer to them by their text.
+ */
+public final class PromptCompactor {
+
+    /** Rough average for the models in use, shared by all token estimates */
+    public static final int CHARS_PER_TOKEN = 4;
+
+    private static final int[] COMMAND_WINDOWS = {1200, 600, 300, 150};
+    private static final int SUMMARY_CHARS = 120;
+
+    private PromptCompactor() {
+    }
+
+    public static int estimateTokens(CharSequence text) {
+        return text == null ? 0 : text.length() / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Keeps the first two thirds and the last third of maxChars of the text, marking what was left out.
+     */
+    public static String truncateMiddle(String text, int maxChars) {
+        if (text == null || text.length() <= maxChars) {
+            return text;
+        }
+        int head = maxChars * 2 / 3;
+        int tail = maxChars - head;
+        return text.substring(0, head)
+                + "\n...[" + (text.length() - head - tail) + " chars omitted]...\n"
+                + text.substring(text.length() - tail);
+    }
+
+    /**
+     * Serializes the plan for a prompt in at most maxTokens (0 for no budget).
+     */
+    public static String compactPlan(Plan plan, int maxTokens) {
+        String json = null;
+        for (int window : COMMAND_WINDOWS) {
+            json = serialize(plan, window, false);
+            if (maxTokens <= 0 || estimateTokens(json) <= maxTokens) {
+                return json;
+            }
+        }
+        json = serialize(plan, COMMAND_WINDOWS[COMMAND_WINDOWS.length - 1], true);
+        warnIfOverBudget(json, maxTokens);
+        return json;
+    }
+
+    /**
+     * Serializes the plan for a prompt that edits it: only completed tasks are collapsed, the
+     * commands of open tasks are kept whole even if the plan then exceeds maxTokens.
+     */
+    public static String compactPlanForEditing(Plan plan, int maxTokens) {
+        String json = serialize(plan, Integer.MAX_VALUE, false);
+        if (maxTokens > 0) {
+            warnIfOverBudget(json, maxTokens);
+        }
+        return json;
+    }
+
+    private static void warnIfOverBudget(String json, int maxTokens) {
+        if (estimateTokens(json) > maxTokens) {
+            System.out.println("Compacted plan still exceeds its budget: ~" + estimateTokens(json)
+                    + " tokens for a budget of " + maxTokens);
+        }
+    }
+
+    /**
+     * Cuts the long commands of a serialized task to the widest window, in place.
+     */
+    public static JsonObject compactCommands(JsonObject taskJson) {
+        if (taskJson.has("commands") && taskJson.get("commands").isJsonArray()) {
+            JsonArray commands = new JsonArray();
+            for (JsonElement command : taskJson.getAsJsonArray("commands")) {
+                commands.add(command.isJsonPrimitive() ? new JsonPrimitive(truncateMiddle(command.getAsString(), COMMAND_WINDOWS[0])) : command);
+            }
+            taskJson.add("commands", commands);
+        }
+        return taskJson;
+    }
+
+    /**
+     * Records the size of a prompt before and after compaction in the prompt.* metrics.
+     */
+    public static void report(String promptType, int originalChars, int compactedChars) {
+        Metrics.add("prompt.tokens.original", originalChars / CHARS_PER_TOKEN);
+        Metrics.add("prompt.tokens.compacted", compactedChars / CHARS_PER_TOKEN);
+        Metrics.add("prompt.tokens.original." + promptType, originalChars / CHARS_PER_TOKEN);
+        Metrics.add("prompt.tokens.compacted." + promptType, compactedChars / CHARS_PER_TOKEN);
+    }
+
+    private static String serialize(Plan plan, int commandWindow, boolean dropLaterCommands) {
+        JsonArray tasks = new JsonArray();
+        boolean[] nextTaskSeen = {false};
+        for (TaskSnapshot task : plan.getSnapshot().getTopLevelTasks()) {
+            tasks.add(serializeTask(task, commandWindow, dropLaterCommands, nextTaskSeen));
+        }
+        JsonObject planJson = new JsonObject();
+        planJson.add("tasks", tasks);
+        return planJson.toString();
+    }
+
+    private static JsonObject serializeTask(TaskSnapshot task, int commandWindow, boolean dropLaterCommands, boolean[] nextTaskSeen) {
+        if (task.isCompleted()) {
+            JsonObject summary = new JsonObject();
+            summary.addProperty("id", task.getId());
+            summary.addProperty("summary", truncateMiddle(task.getDescription(), SUMMARY_CHARS));
+            summary.addProperty("completed", true);
+            return summary;
+        }
+
+        // Only the first open leaf task keeps its commands in the last resort level
+        boolean dropCommands = dropLaterCommands && nextTaskSeen[0];
+        if (task.getSubTasks().isEmpty()) {
+            nextTaskSeen[0] = true;
+        }
+        JsonObject taskJson = taskFields(task, commandWindow, dropCommands);
+        if (!task.getSubTasks().isEmpty()) {
+            JsonArray subtasks = new JsonArray();
+            for (TaskSnapshot subTask : task.getSubTasks()) {
+                subtasks.add(serializeTask(subTask, commandWindow, dropLaterCommands, nextTaskSeen));
+            }
+            taskJson.add("subtasks", subtasks);
+        }
+        return taskJson;
+    }
+
+    private static JsonObject taskFields(TaskSnapshot task, int commandWindow, boolean dropCommands) {
+        JsonObject taskJson = new JsonObject();
+        taskJson.addProperty("id", task.getId());
+        taskJson.addProperty("description", task.getDescription());
+        List<String> commands = task.getCommands();
+        if (commands != null) {
+            if (dropCommands) {
+                taskJson.addProperty("commandCount", commands.size());
+            } else {
+                JsonArray commandsJson = new JsonArray();
+                for (String command : commands) {
+                    commandsJson.add(truncateMiddle(command, commandWindow));
+                }
+                taskJson.add("commands", commandsJson);
+            }
+        }
+        taskJson.addProperty("successCriteria", task.getSuccessCriteria());
+        taskJson.addProperty("isAtomic", task.isAtomic());
+        if (task.getDependsOn() != null && !task.getDependsOn().isEmpty()) {
+            JsonArray dependsOn = new JsonArray();
+            task.getDependsOn().forEach(dependsOn::add);
+            taskJson.add("dependsOn", dependsOn);
+        }
+        if (task.isInProgress()) {
+            taskJson.addProperty("inProgress", true);
+        }
+        return taskJson;
+    }
+}
@@ -0,0 +1,56 @@
+package pkg;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Per prompt type options read from prompts.json (e.g. "PlanReevaluation").
+ */
+public class PromptProfile {
+    private final String name;
+    private final boolean cacheable;
+    private final JsonObject responseSchema;
+    private final int tokenBudget;
+
+    public PromptProfile(String name, boolean cacheable, JsonObject responseSchema, int tokenBudget) {
+        this.name = name;
+        this.cacheable = cacheable;
+        this.responseSchema = responseSchema;
+        this.tokenBudget = tokenBudget;
+    }
+
+    /**
+     * Builds a profile from a prompt block; responses are only cached when it sets "cache": true,
+     * and its "jsonScheme" is compiled once into the JSON Schema sent as the structured output format.
+     * "tokenBudget" bounds the size of its prompts (0 or absent for no bound).
+     */
+    public static PromptProfile fromJson(String name, JsonObject promptJson) {
+        boolean cacheable = promptJson.has("cache") && promptJson.get("cache").getAsBoolean();
+        JsonObject responseSchema = promptJson.has("jsonScheme")
+                ? JsonSchemaCompiler.compile(promptJson.get("jsonScheme"))
+                : null;
+        int tokenBudget = promptJson.has("tokenBudget") ? promptJson.get("tokenBudget").getAsInt() : 0;
+        return new PromptProfile(name, cacheable, responseSchema, tokenBudget);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * @return the JSON Schema of the expected response, or null if the prompt has no jsonScheme
+     */
+    public JsonObject getResponseSchema() {
+        return responseSchema;
+    }
+
+    /**
+     * @return the estimated token budget of a whole prompt (system and user), or 0 if unbounded
+     */
+    public int getTokenBudget() {
+        return tokenBudget;
+    }
+}
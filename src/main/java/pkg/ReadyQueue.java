@@ -0,0 +1,153 @@
+package pkg;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The open tasks of a plan that can be worked on next, in the order a breadth-first walk of the
+ * plan finds them: level by level, and within a level in plan order. A task is ready when it is not
+ * completed and is atomic or still has to be broken down (no subtasks), and every ancestor is open
+ * and not atomic; subtasks of a completed or atomic task are never reached.
+ *
+ * The queue is kept up to date by the plan as tasks are completed, added, removed or broken down,
+ * so taking the next task does not walk the tree. Each task gets its position when it is attached,
+ * as the path of attachment sequence numbers from the top level; tasks are only appended to their
+ * siblings, so the positions of the tasks already in the queue never change.
+ */
+public class ReadyQueue {
+
+    private final Map<Task, int[]> positions = new IdentityHashMap<>();
+    // Tasks whose subtasks are reachable, i.e. open and not atomic with reachable ancestors
+    private final Set<Task> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final TreeSet<Task> ready = new TreeSet<>(this::compare);
+    private int sequence;
+
+    ReadyQueue(List<Task> topLevelTasks) {
+        added(topLevelTasks, null);
+    }
+
+    /**
+     * @return the next open task in breadth-first order, or null if the plan is done
+     */
+    public Task first() {
+        return ready.isEmpty() ? null : ready.first();
+    }
+
+    public int size() {
+        return ready.size();
+    }
+
+    /**
+     * Siblings were appended under parent (null for top level), with their subtrees.
+     */
+    void added(List<Task> siblings, Task parent) {
+        int[] parentPosition = parent != null ? positions.get(parent) : new int[0];
+        for (Task task : siblings) {
+            assignPositions(task, parentPosition);
+        }
+        if (parent != null) {
+            // The parent has subtasks now, so it may no longer need a breakdown
+            subTasksChanged(parent);
+        }
+        boolean reachable = parent == null || expanded.contains(parent);
+        for (Task task : siblings) {
+            refresh(task, reachable);
+        }
+    }
+
+    private void assignPositions(Task task, int[] parentPosition) {
+        int[] position = new int[parentPosition.length + 1];
+        System.arraycopy(parentPosition, 0, position, 0, parentPosition.length);
+        position[parentPosition.length] = ++sequence;
+        positions.put(task, position);
+        for (Task subTask : task.getSubTasks()) {
+            assignPositions(subTask, position);
+        }
+    }
+
+    /**
+     * Subtasks of a task were added or removed; whether it needs a breakdown may have changed,
+     * what is reachable below it has not.
+     */
+    void subTasksChanged(Task task) {
+        if (positions.containsKey(task)) {
+            setReady(task, isReachable(task) && !task.isCompleted() && (task.isAtomic() || task.getSubTasks().isEmpty()));
+        }
+    }
+
+    /**
+     * A task is about to be removed from the plan, with its subtree.
+     */
+    void removed(Task task) {
+        ready.remove(task);
+        expanded.remove(task);
+        for (Task subTask : task.getSubTasks()) {
+            removed(subTask);
+        }
+        positions.remove(task);
+    }
+
+    /**
+     * The completed or atomic flag of a task changed.
+     */
+    void changed(Task task) {
+        if (positions.containsKey(task)) {
+            refresh(task, isReachable(task));
+        }
+    }
+
+    private static boolean isReachable(Task task) {
+        for (Task ancestor = task.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.isCompleted() || ancestor.isAtomic()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setReady(Task task, boolean isReady) {
+        if (isReady) {
+            ready.add(task);
+        } else {
+            ready.remove(task);
+        }
+    }
+
+    private void refresh(Task task, boolean reachable) {
+        boolean open = reachable && !task.isCompleted();
+        setReady(task, open && (task.isAtomic() || task.getSubTasks().isEmpty()));
+
+        boolean expand = open && !task.isAtomic();
+        if (!expand && !expanded.remove(task)) {
+            // Its subtasks were not reachable before either
+            return;
+        }
+        if (expand) {
+            expanded.add(task);
+        }
+        for (Task subTask : task.getSubTasks()) {
+            refresh(subTask, expand);
+        }
+    }
+
+    /**
+     * Breadth-first order: shallower tasks first, then by the positions of their ancestors and their own.
+     */
+    private int compare(Task a, Task b) {
+        int[] first = positions.get(a);
+        int[] second = positions.get(b);
+        if (first.length != second.length) {
+            return Integer.compare(first.length, second.length);
+        }
+        for (int i = 0; i < first.length; i++) {
+            if (first[i] != second[i]) {
+                return Integer.compare(first[i], second[i]);
+            }
+        }
+        return 0;
+    }
+}
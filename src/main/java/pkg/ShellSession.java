@@ -0,0 +1,324 @@
+package pkg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Long-lived shell that runs the commands of a plan one after another, so that the working
+ * directory, environment variables and sourced scripts (e.g. an activated virtualenv) carry over
+ * from one command to the next, without a fork/exec per command.
+ *
+ * Each command is written to the shell's stdin followed by a line that prints a sentinel with
+ * the command's exit code. A pump thread drains the shell's output into the running command's
+ * {@link OutputCapture} until it sees the sentinel. Commands read their stdin from /dev/null so
+ * they cannot swallow what follows. If the shell exits (e.g. a command ran "exit"), the next
+ * command starts a fresh one in the workspace.
+ *
+ * When a command exceeds its {@link CommandLimits}, the processes it started are killed and the
+ * shell, with its state, lives on. Only if that does not bring the sentinel back (a shell builtin
+ * looping, an unterminated quote) is the shell itself killed.
+ */
+public class ShellSession implements AutoCloseable {
+
+    private final String shell;
+    private final File workspace;
+    private final String sentinel = "__REC_DONE_" + UUID.randomUUID().toString().replace("-", "") + "__";
+
+    private Process process;
+    private Writer stdin;
+    private volatile PendingCommand current;
+    private int restarts = -1;
+    // Exported variables as the shell started with them, see captureState
+    private Set<String> startExports;
+
+    /**
+     * @param shell     shell to start, e.g. "bash"; "sh" is used if it cannot be started
+     * @param workspace directory the shell starts in
+     */
+    public ShellSession(String shell, File workspace) {
+        this.shell = shell;
+        this.workspace = workspace;
+    }
+
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    // How long a command gets to report back after its processes were killed
+    private static final long KILL_GRACE_MILLIS = 2000;
+
+    /**
+     * Runs a command in the shell without limits, capturing its output (stdout and stderr) into output.
+     */
+    public CommandResult run(String command, OutputCapture output) throws IOException, InterruptedException {
+        return run(command, output, CommandLimits.none());
+    }
+
+    /**
+     * Runs a command in the shell, capturing its output (stdout and stderr) into output, and
+     * kills it once it exceeds one of the limits.
+     */
+    public synchronized CommandResult run(String command, OutputCapture output, CommandLimits limits)
+            throws IOException, InterruptedException {
+        if (process == null || !process.isAlive()) {
+            start();
+            startExports = new HashSet<>(exports());
+        }
+
+        // Background processes of earlier commands (e.g. a started server) are left alone on a kill
+        Set<Long> earlierProcesses = CommandLimits.descendantPids(process.toHandle());
+        PendingCommand pending = new PendingCommand(output);
+        current = pending;
+        try {
+            stdin.write("{\n" + command + "\n} < /dev/null\n"
+                    + "printf '\\n%s %d\\n' '" + sentinel + "' \"$?\"\n");
+            stdin.flush();
+
+            ExecutionResult.FailureKind limitExceeded = null;
+            Integer exitCode = null;
+            while (exitCode == null) {
+                try {
+                    exitCode = pending.exitCode.get(limits.pollMillis(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    limitExceeded = limits.exceeded(output);
+                    if (limitExceeded != null) {
+                        exitCode = kill(pending, earlierProcesses);
+                    }
+                }
+            }
+            if (limitExceeded != null) {
+                Metrics.increment("command.killed." + limitExceeded.name().toLowerCase());
+                output.onLine("[" + CommandLimits.describe(limitExceeded) + "]");
+                output.flush();
+                return new CommandResult(exitCode, output.toString(), limitExceeded);
+            }
+            if (pending.shellExited) {
+                // Its state is lost, the next command starts a new shell
+                close();
+                output.onLine("Shell exited while running the command.");
+                return new CommandResult(exitCode == 0 ? 1 : exitCode, output.toString());
+            }
+            return new CommandResult(exitCode, output.toString());
+        } catch (ExecutionException e) {
+            throw new IOException("Shell session failed", e.getCause());
+        } finally {
+            current = null;
+        }
+    }
+
+    /**
+     * Kills the processes the command started; if the shell does not report back, kills the shell.
+     *
+     * @return the exit code of the killed command
+     */
+    private int kill(PendingCommand pending, Set<Long> earlierProcesses) throws InterruptedException, ExecutionException {
+        CommandLimits.killTree(process.toHandle(), false, earlierProcesses);
+        try {
+            return pending.exitCode.get(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            System.out.println("Shell did not recover from the killed command, restarting it");
+            CommandLimits.killTree(process.toHandle(), true, Collections.emptySet());
+            close();
+            try {
+                return pending.exitCode.get(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException stillRunning) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the shell's working directory followed by the values of the variables (empty if unset)
+     */
+    public List<String> describeState(List<String> variables) throws IOException, InterruptedException {
+        StringBuilder command = new StringBuilder("printf '%s\\n' \"$PWD\"");
+        for (String variable : variables) {
+            if (!VARIABLE_NAME.matcher(variable).matches()) {
+                throw new IllegalArgumentException("Not a variable name: " + variable);
+            }
+            command.append(" \"${").append(variable).append("}\"");
+        }
+        OutputCapture output = new OutputCapture(64 * 1024, 0, null);
+        run(command.toString(), output);
+        List<String> lines = new ArrayList<>(Arrays.asList(output.toString().split("\n", -1)));
+        while (lines.size() < variables.size() + 1) {
+            lines.add("");
+        }
+        return lines.subList(0, variables.size() + 1);
+    }
+
+    /**
+     * @return a script that takes another shell of the same kind to this shell's working directory
+     * and exported variables, leaving out the variables that are as the shell started with them
+     */
+    public synchronized String captureState() throws IOException, InterruptedException {
+        String directory = describeState(Collections.emptyList()).get(0);
+        StringBuilder script = new StringBuilder();
+        for (String export : exports()) {
+            if (!startExports.contains(export)) {
+                script.append(export).append('\n');
+            }
+        }
+        script.append("cd '").append(directory.replace("'", "'\\''")).append("'\n");
+        return script.toString();
+    }
+
+    /**
+     * Runs a script made by {@link #captureState()} of another shell.
+     */
+    public void restoreState(String state) throws IOException, InterruptedException {
+        run(state, new OutputCapture(4096, 0, null));
+    }
+
+    /**
+     * @return the declarations printed by "export -p", leaving out those spanning several lines
+     */
+    private List<String> exports() throws IOException, InterruptedException {
+        OutputCapture output = new OutputCapture(1024 * 1024, 0, null);
+        run("export -p", output);
+        List<String> exports = new ArrayList<>();
+        String declaration = null;
+        for (String line : output.toString().split("\n")) {
+            if (line.startsWith("declare -x ") || line.startsWith("export ")) {
+                if (declaration != null) {
+                    exports.add(declaration);
+                }
+                declaration = line;
+            } else {
+                // A value with a newline; it could not be replayed line by line
+                declaration = null;
+            }
+        }
+        if (declaration != null) {
+            exports.add(declaration);
+        }
+        return exports;
+    }
+
+    private void start() throws IOException {
+        close();
+        ProcessBuilder processBuilder = new ProcessBuilder(shell).directory(workspace).redirectErrorStream(true);
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            if ("sh".equals(shell)) {
+                throw e;
+            }
+            System.out.println("Could not start " + shell + " (" + e.getMessage() + "), falling back to sh");
+            process = processBuilder.command("sh").start();
+        }
+        stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        OutputPump.start(process.getInputStream(), new SessionOutput(process));
+        if (++restarts > 0) {
+            Metrics.increment("shell.restarts");
+            System.out.println("Shell session restarted in " + workspace + ", earlier state is lost");
+        }
+        Metrics.increment("shell.started");
+    }
+
+    /**
+     * @return how many times the shell had to be started again after it exited
+     */
+    public int getRestarts() {
+        return Math.max(0, restarts);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (process != null) {
+            try {
+                stdin.close();
+            } catch (IOException e) {
+                // The shell is gone already
+            }
+            process.destroy();
+            process = null;
+        }
+    }
+
+    /**
+     * Routes the shell's output to the running command until its sentinel.
+     */
+    private class SessionOutput implements OutputPump.LineHandler {
+        private final Process shellProcess;
+
+        SessionOutput(Process shellProcess) {
+            this.shellProcess = shellProcess;
+        }
+
+        @Override
+        public void onLine(String line) {
+            PendingCommand command = current;
+            if (command == null) {
+                // Output of a background job between commands
+                return;
+            }
+            if (line.startsWith(sentinel)) {
+                // The empty line before the sentinel is the one printed to terminate the output
+                if (command.lastLine != null && !command.lastLine.isEmpty()) {
+                    command.output.onLine(command.lastLine);
+                }
+                command.output.onEnd();
+                command.exitCode.complete(Integer.parseInt(line.substring(sentinel.length()).trim()));
+                return;
+            }
+            if (command.lastLine != null) {
+                command.output.onLine(command.lastLine);
+            }
+            command.lastLine = line;
+        }
+
+        @Override
+        public void onIdle() {
+            PendingCommand command = current;
+            if (command != null) {
+                command.output.onIdle();
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            PendingCommand command = current;
+            if (command == null || command.exitCode.isDone()) {
+                return;
+            }
+            if (command.lastLine != null) {
+                command.output.onLine(command.lastLine);
+            }
+            command.output.onEnd();
+            command.shellExited = true;
+            try {
+                command.exitCode.complete(shellProcess.waitFor());
+            } catch (InterruptedException e) {
+                command.exitCode.complete(-1);
+            }
+        }
+    }
+
+    /**
+     * A command waiting for its sentinel; only touched by the pump thread until exitCode completes.
+     */
+    private static class PendingCommand {
+        private final OutputCapture output;
+        private final CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+        private String lastLine;
+        private volatile boolean shellExited;
+
+        PendingCommand(OutputCapture output) {
+            this.output = output;
+        }
+    }
+}
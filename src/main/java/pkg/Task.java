@@ -1,6 +1,7 @@
 package pkg;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Task {
@@ -12,6 +13,19 @@ public class Task {
     private String successCriteria;
     private boolean completed = false;
     private boolean inProgress = false;
+    // Ids of the tasks that must be completed before this one (and its subtasks) can run
+    private List<Integer> dependsOn;
+    // Wall-clock limits overriding the configured ones, in seconds (null for the default)
+    private Integer timeoutSeconds;
+    private Integer commandTimeoutSeconds;
+    // Paths (relative to where the commands run) the commands read and write, for the task result cache
+    private List<String> inputs;
+    private List<String> outputs;
+    // Set once the task is part of a plan (or of a task); the plan's index is kept up to date through them
+    private transient Task parent;
+    private transient Plan plan;
+    // The task as of the plan's current snapshot, only touched under the plan's lock
+    private transient TaskSnapshot snapshot;
 
 
     public Task(boolean isAtomic, int id, String description, List<String>  commands, String successCriteria) {
@@ -26,39 +40,164 @@ public class Task {
 
     public int getId() { return id; }
 
-    public void setId(int id) { this.id = id; }
+    /**
+     * Changes the ID of the task; in a plan, the ID must not be used by another task.
+     */
+    public void setId(int id) {
+        update(() -> {
+            if (plan != null) {
+                plan.changeId(this, id);
+            } else {
+                this.id = id;
+            }
+        });
+    }
+
+    void assignId(int id) { this.id = id; }
+
+    /**
+     * @return the task this one is a subtask of, or null for a top-level task
+     */
+    public Task getParent() { return parent; }
+
+    void setParent(Task parent, Plan plan) {
+        this.parent = parent;
+        this.plan = plan;
+    }
 
     public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    public void setDescription(String description) { update(() -> this.description = description); }
 
     public List<String> getCommands() { return commands; }
-    public void setCommands(List<String> commands) { this.commands = commands; }
+    public void setCommands(List<String> commands) { update(() -> this.commands = commands); }
 
     public String getSuccessCriteria() { return successCriteria; }
-    public void setSuccessCriteria(String successCriteria) { this.successCriteria = successCriteria; }
+    public void setSuccessCriteria(String successCriteria) { update(() -> this.successCriteria = successCriteria); }
 
     public boolean isAtomic() { return isAtomic; }
-    public void setAtomic(boolean isAtomic) { this.isAtomic = isAtomic; }
+    public void setAtomic(boolean isAtomic) {
+        if (this.isAtomic != isAtomic) {
+            update(() -> {
+                this.isAtomic = isAtomic;
+                if (plan != null) {
+                    plan.taskChanged(this);
+                }
+            });
+        }
+    }
 
     public boolean isCompleted() { return completed; }
-    public void setCompleted(boolean completed) { this.completed = completed; }
+    public void setCompleted(boolean completed) {
+        if (this.completed != completed) {
+            update(() -> {
+                this.completed = completed;
+                if (plan != null) {
+                    plan.taskChanged(this);
+                }
+            });
+        }
+    }
 
     public boolean isInProgress() { return inProgress; }
-    public void setInProgress(boolean inProgress) { this.inProgress = inProgress; }
+    public void setInProgress(boolean inProgress) {
+        if (this.inProgress != inProgress) {
+            update(() -> this.inProgress = inProgress);
+        }
+    }
+
+    public List<Integer> getDependsOn() { return dependsOn; }
+    public void setDependsOn(List<Integer> dependsOn) { update(() -> this.dependsOn = dependsOn); }
+
+    public Integer getTimeoutSeconds() { return timeoutSeconds; }
+    public void setTimeoutSeconds(Integer timeoutSeconds) { update(() -> this.timeoutSeconds = timeoutSeconds); }
+
+    public Integer getCommandTimeoutSeconds() { return commandTimeoutSeconds; }
+    public void setCommandTimeoutSeconds(Integer commandTimeoutSeconds) { update(() -> this.commandTimeoutSeconds = commandTimeoutSeconds); }
+
+    public List<String> getInputs() { return inputs; }
+    public void setInputs(List<String> inputs) { update(() -> this.inputs = inputs); }
+
+    public List<String> getOutputs() { return outputs; }
+    public void setOutputs(List<String> outputs) { update(() -> this.outputs = outputs); }
 
     public void addSubTask(Task subTask) {
-        subTasks.add(subTask);
+        addSubTasks(List.of(subTask));
+    }
+
+    /**
+     * Adds subtasks at once, so that dependsOn references between them survive renumbering in the plan.
+     */
+    public void addSubTasks(List<Task> added) {
+        update(() -> {
+            if (subTasks == null) {
+                // Read from JSON without a subTasks field
+                subTasks = new ArrayList<>();
+            }
+            subTasks.addAll(added);
+            attach(added);
+        });
+    }
+
+    /**
+     * Removes a subtask, with its own subtasks, from this task and from the plan.
+     */
+    public void removeSubTask(Task subTask) {
+        update(() -> {
+            if (subTasks.remove(subTask)) {
+                if (plan != null) {
+                    plan.detach(subTask);
+                } else {
+                    subTask.setParent(null, null);
+                }
+            }
+        });
     }
 
+    /**
+     * @return the subtasks, read-only; use addSubTask, removeSubTask and setSubTasks to change them
+     */
     public List<Task> getSubTasks() {
-        return subTasks;
+        return subTasks == null ? Collections.emptyList() : Collections.unmodifiableList(subTasks);
     }
 
     public void setSubTasks(List<Task> subTasks) {
-        this.subTasks = subTasks;
+        update(() -> {
+            for (Task subTask : new ArrayList<>(getSubTasks())) {
+                removeSubTask(subTask);
+            }
+            this.subTasks = new ArrayList<>(subTasks);
+            attach(this.subTasks);
+        });
     }
 
     public void initSubTasks() {
-        this.subTasks = new ArrayList<>();
+        setSubTasks(new ArrayList<>());
+    }
+
+    TaskSnapshot getSnapshot() { return snapshot; }
+    void setSnapshot(TaskSnapshot snapshot) { this.snapshot = snapshot; }
+
+    /**
+     * Applies a change under the lock of the task's plan and publishes the new version of the plan,
+     * so that the plan's readers never see it half done.
+     */
+    private void update(Runnable change) {
+        Plan owner = plan;
+        if (owner == null) {
+            change.run();
+            return;
+        }
+        synchronized (owner) {
+            change.run();
+            owner.publish(this);
+        }
+    }
+
+    private void attach(List<Task> added) {
+        if (plan != null) {
+            plan.attach(added, this);
+        } else {
+            added.forEach(subTask -> subTask.setParent(this, null));
+        }
     }
 }
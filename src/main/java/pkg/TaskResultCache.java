@@ -0,0 +1,328 @@
+package pkg;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Memoized results of atomic tasks whose commands succeeded, so that a later run with the same
+ * commands in the same situation can skip them (a venv that was created, packages that were installed).
+ *
+ * A task is keyed by a SHA-256 of its commands, the shell's working directory and environment, and
+ * fingerprints of the files it declares as inputs. The files it declares as outputs are fingerprinted
+ * when the result is stored and checked again on a hit, so a result is not reused once they changed
+ * or in a workspace where they do not exist. A task that declares no outputs may have changed
+ * anything in its workspace, so its result is only reused in that workspace.
+ *
+ * Entries are held in a bounded LRU map and optionally appended to a log file that is replayed on
+ * startup, and rewritten when it holds many more records than there are entries.
+ */
+public class TaskResultCache {
+
+    private static final String LOG_FILE = "results.log";
+
+    // Commands whose effect is the state of the shell itself, which a skipped task would not restore
+    private static final Pattern SHELL_STATE_COMMAND = Pattern.compile(
+            "(^|[;&|(]\\s*)(cd|pushd|popd|export|unset|source|\\.|alias|unalias|set|shopt|umask|ulimit|eval|exec|conda|deactivate)(\\s|$|;)");
+
+    private static final Gson gson = new Gson();
+
+    private final int maxEntries;
+    private final Path directory;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private BufferedWriter logWriter;
+    private int logRecords;
+
+    public TaskResultCache(ExecutionSettings.TaskCache settings) {
+        this.maxEntries = Math.max(1, settings.getMaxEntries());
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    Metrics.increment("task.cache.evictions");
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        String dir = settings.getDirectory();
+        this.directory = (dir == null || dir.isBlank()) ? null : Paths.get(dir);
+        if (directory != null) {
+            load();
+        }
+    }
+
+    /**
+     * Result of a task whose commands all succeeded.
+     */
+    public static class Entry {
+        private String message;
+        private String output;
+        private List<Integer> exitCodes;
+        private long elapsedMillis;
+        private long createdAt;
+        // Fingerprints of the declared outputs right after the commands ran, by path
+        private Map<String, String> outputs;
+
+        public Entry(String message, String output, List<Integer> exitCodes, long elapsedMillis, Map<String, String> outputs) {
+            this.message = message;
+            this.output = output;
+            this.exitCodes = exitCodes;
+            this.elapsedMillis = elapsedMillis;
+            this.createdAt = System.currentTimeMillis();
+            this.outputs = outputs;
+        }
+
+        public String getMessage() { return message; }
+        public String getOutput() { return output; }
+        public List<Integer> getExitCodes() { return exitCodes; }
+        public long getElapsedMillis() { return elapsedMillis; }
+        public long getCreatedAt() { return createdAt; }
+        public Map<String, String> getOutputs() { return outputs; }
+    }
+
+    /**
+     * @return false if a command of the task changes the state of the shell (directory, variables,
+     * an activated environment); skipping it would leave the following tasks in another state
+     */
+    public static boolean isMemoizable(Task task) {
+        if (task.getCommands() == null || task.getCommands().isEmpty()) {
+            return false;
+        }
+        for (String command : task.getCommands()) {
+            for (String line : command.split("\n")) {
+                if (SHELL_STATE_COMMAND.matcher(line.trim()).find()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the cache key of a task.
+     *
+     * @param environment the shell and the values of the environment variables that matter
+     * @param directory   directory the commands run in; declared paths are relative to it
+     * @param workspace   workspace of the run, which scopes tasks that declare no outputs
+     */
+    public static String key(Task task, String environment, File directory, File workspace) {
+        JsonObject keyed = new JsonObject();
+        JsonArray commands = new JsonArray();
+        task.getCommands().forEach(command -> commands.add(command.trim()));
+        keyed.add("commands", commands);
+        keyed.addProperty("environment", environment);
+        keyed.addProperty("directory", workspace.toPath().toAbsolutePath().normalize()
+                .relativize(directory.toPath().toAbsolutePath().normalize()).toString());
+
+        JsonObject inputs = new JsonObject();
+        if (task.getInputs() != null) {
+            task.getInputs().stream().sorted().distinct()
+                    .forEach(input -> inputs.addProperty(input, fingerprint(resolve(directory, input))));
+        }
+        keyed.add("inputs", inputs);
+
+        if (task.getOutputs() != null) {
+            JsonArray outputs = new JsonArray();
+            task.getOutputs().stream().sorted().distinct().forEach(outputs::add);
+            keyed.add("outputs", outputs);
+        } else {
+            keyed.addProperty("workspace", workspace.getAbsolutePath());
+        }
+        return sha256(keyed.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the stored result, or null if there is none or a declared output changed since
+     */
+    public Entry get(String key, File directory) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry.getOutputs() != null) {
+            for (Map.Entry<String, String> output : entry.getOutputs().entrySet()) {
+                if (!output.getValue().equals(fingerprint(resolve(directory, output.getKey())))) {
+                    Metrics.increment("task.cache.stale");
+                    return null;
+                }
+            }
+        }
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+        Metrics.increment("task.cache.stores");
+        if (directory != null) {
+            append(key, entry);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return fingerprints of the declared outputs of a task, or null if it declares none
+     */
+    public static Map<String, String> fingerprintOutputs(Task task, File directory) {
+        if (task.getOutputs() == null) {
+            return null;
+        }
+        Map<String, String> fingerprints = new TreeMap<>();
+        for (String output : task.getOutputs()) {
+            fingerprints.put(output, fingerprint(resolve(directory, output)));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Fingerprint of a path: the content hash of a file, or the hash of the names, sizes and
+     * modification times of everything under a directory (hashing a whole venv would take longer
+     * than the task it saves).
+     */
+    static String fingerprint(Path path) {
+        try {
+            if (!Files.exists(path)) {
+                return "missing";
+            }
+            if (Files.isRegularFile(path)) {
+                MessageDigest digest = newDigest();
+                try (InputStream in = Files.newInputStream(path)) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                return "file:" + hex(digest.digest());
+            }
+            MessageDigest digest = newDigest();
+            try (Stream<Path> tree = Files.walk(path)) {
+                for (Path entry : tree.sorted().collect(Collectors.toList())) {
+                    String line = path.relativize(entry) + (Files.isDirectory(entry) ? "/"
+                            : ":" + Files.size(entry) + ":" + Files.getLastModifiedTime(entry).toMillis()) + "\n";
+                    digest.update(line.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return "dir:" + hex(digest.digest());
+        } catch (IOException | RuntimeException e) {
+            // Unreadable; never equal to a stored fingerprint
+            return "unreadable:" + System.nanoTime();
+        }
+    }
+
+    private static Path resolve(File directory, String path) {
+        return directory.toPath().resolve(path).normalize();
+    }
+
+    private void load() {
+        Path file = directory.resolve(LOG_FILE);
+        try {
+            Files.createDirectories(directory);
+            if (Files.exists(file)) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                        entries.put(record.get("k").getAsString(), gson.fromJson(record.get("v"), Entry.class));
+                        logRecords++;
+                    } catch (RuntimeException e) {
+                        // A torn last line after a crash; skip it
+                        System.out.println("Skipping corrupt task cache record in " + file.getFileName());
+                    }
+                }
+            }
+            if (logRecords > 2 * Math.max(entries.size(), maxEntries / 2)) {
+                rewrite(file);
+            }
+            System.out.println("Loaded " + entries.size() + " cached task results from " + directory);
+        } catch (IOException e) {
+            System.out.println("Failed to load task result cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the log with one record per entry, dropping overwritten and evicted ones.
+     */
+    private void rewrite(Path file) throws IOException {
+        Path rewritten = directory.resolve(LOG_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(rewritten, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writer.write(record(entry.getKey(), entry.getValue()));
+            }
+        }
+        Files.move(rewritten, file, StandardCopyOption.REPLACE_EXISTING);
+        logRecords = entries.size();
+    }
+
+    private void append(String key, Entry entry) {
+        try {
+            if (logWriter == null) {
+                logWriter = Files.newBufferedWriter(directory.resolve(LOG_FILE), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            logWriter.write(record(key, entry));
+            logWriter.flush();
+            logRecords++;
+        } catch (IOException e) {
+            System.out.println("Failed to persist task cache entry: " + e.getMessage());
+        }
+    }
+
+    private static String record(String key, Entry entry) {
+        JsonObject record = new JsonObject();
+        record.addProperty("k", key);
+        record.add("v", gson.toJsonTree(entry));
+        return record.toString() + "\n";
+    }
+
+    private static String sha256(byte[] data) {
+        return hex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
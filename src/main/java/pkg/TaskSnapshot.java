@@ -0,0 +1,150 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of a task and its subtasks as of one {@link PlanSnapshot}. A task that did not
+ * change between two versions of a plan is the same TaskSnapshot instance in both, with its subtree.
+ *
+ * Each snapshot records the plan version in which the task itself last changed (its fields or its
+ * list of subtasks) and the one in which anything in its subtree last changed, so the changes since
+ * a version are found without walking unchanged subtrees.
+ *
+ * Getters are named as in Task, so snapshots serialize (Jackson, prompt builders) like tasks.
+ */
+public final class TaskSnapshot {
+    private final boolean atomic;
+    private final int id;
+    private final String description;
+    private final List<String> commands;
+    private final String successCriteria;
+    private final boolean completed;
+    private final boolean inProgress;
+    private final List<Integer> dependsOn;
+    private final Integer timeoutSeconds;
+    private final Integer commandTimeoutSeconds;
+    private final List<String> inputs;
+    private final List<String> outputs;
+    private final List<TaskSnapshot> subTasks;
+    private final long version;
+    private final long subtreeVersion;
+    private final int size;
+
+    private TaskSnapshot(Task task, List<TaskSnapshot> subTasks, long version) {
+        this.atomic = task.isAtomic();
+        this.id = task.getId();
+        this.description = task.getDescription();
+        this.commands = copy(task.getCommands());
+        this.successCriteria = task.getSuccessCriteria();
+        this.completed = task.isCompleted();
+        this.inProgress = task.isInProgress();
+        this.dependsOn = copy(task.getDependsOn());
+        this.timeoutSeconds = task.getTimeoutSeconds();
+        this.commandTimeoutSeconds = task.getCommandTimeoutSeconds();
+        this.inputs = copy(task.getInputs());
+        this.outputs = copy(task.getOutputs());
+        this.subTasks = subTasks;
+        this.version = version;
+        this.subtreeVersion = version;
+        this.size = 1 + sizeOf(subTasks);
+    }
+
+    private TaskSnapshot(TaskSnapshot fields, List<TaskSnapshot> subTasks, long subtreeVersion) {
+        this.atomic = fields.atomic;
+        this.id = fields.id;
+        this.description = fields.description;
+        this.commands = fields.commands;
+        this.successCriteria = fields.successCriteria;
+        this.completed = fields.completed;
+        this.inProgress = fields.inProgress;
+        this.dependsOn = fields.dependsOn;
+        this.timeoutSeconds = fields.timeoutSeconds;
+        this.commandTimeoutSeconds = fields.commandTimeoutSeconds;
+        this.inputs = fields.inputs;
+        this.outputs = fields.outputs;
+        this.subTasks = subTasks;
+        this.version = fields.version;
+        this.subtreeVersion = subtreeVersion;
+        this.size = 1 + sizeOf(subTasks);
+    }
+
+    /**
+     * Copies a task that changed in the given plan version, with the snapshots of its subtasks.
+     */
+    static TaskSnapshot of(Task task, List<TaskSnapshot> subTasks, long version) {
+        return new TaskSnapshot(task, Collections.unmodifiableList(subTasks), version);
+    }
+
+    /**
+     * Copies a task that is not part of a plan, with its subtree.
+     */
+    public static TaskSnapshot of(Task task) {
+        List<TaskSnapshot> subTasks = new ArrayList<>(task.getSubTasks().size());
+        for (Task subTask : task.getSubTasks()) {
+            subTasks.add(of(subTask));
+        }
+        return of(task, subTasks, 0);
+    }
+
+    /**
+     * @return this task with new snapshots of the same subtasks, of the given plan version
+     */
+    TaskSnapshot withSubTasks(List<TaskSnapshot> subTasks, long subtreeVersion) {
+        return new TaskSnapshot(this, Collections.unmodifiableList(subTasks), subtreeVersion);
+    }
+
+    /**
+     * Adds the tasks of this subtree that changed after the given plan version to changed, parents first.
+     */
+    void collectChanges(long sinceVersion, List<TaskSnapshot> changed) {
+        if (subtreeVersion <= sinceVersion) {
+            return;
+        }
+        if (version > sinceVersion) {
+            changed.add(this);
+        }
+        for (TaskSnapshot subTask : subTasks) {
+            subTask.collectChanges(sinceVersion, changed);
+        }
+    }
+
+    /**
+     * @return the number of tasks in this subtree, this one included
+     */
+    public int size() {
+        return size;
+    }
+
+    static int sizeOf(List<TaskSnapshot> tasks) {
+        int size = 0;
+        for (TaskSnapshot task : tasks) {
+            size += task.size;
+        }
+        return size;
+    }
+
+    private static <T> List<T> copy(List<T> list) {
+        return list == null ? null : Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    public boolean isAtomic() { return atomic; }
+    public int getId() { return id; }
+    public String getDescription() { return description; }
+    public List<String> getCommands() { return commands; }
+    public String getSuccessCriteria() { return successCriteria; }
+    public boolean isCompleted() { return completed; }
+    public boolean isInProgress() { return inProgress; }
+    public List<Integer> getDependsOn() { return dependsOn; }
+    public Integer getTimeoutSeconds() { return timeoutSeconds; }
+    public Integer getCommandTimeoutSeconds() { return commandTimeoutSeconds; }
+    public List<String> getInputs() { return inputs; }
+    public List<String> getOutputs() { return outputs; }
+    public List<TaskSnapshot> getSubTasks() { return subTasks; }
+
+    /**
+     * @return the plan version in which the task itself last changed
+     */
+    public long getVersion() { return version; }
+}
@@ -0,0 +1,137 @@
+package pkg;
+
+import java.util.Locale;
+
+/**
+ * Decides when plan execution reevaluates the whole plan with the LLM.
+ * A policy instance holds the state of one plan run.
+ *
+ * Specs accepted by {@link #fromSpec(String)}:
+ * "always" (every trigger, the original behavior), "on-failure" (only the initial validation and
+ * after the plan was edited, which happens after failures), "on-change" (also after breakdowns,
+ * i.e. after structural edits) and "every-N" (like on-change, plus after every N finished tasks).
+ */
+public interface ValidationPolicy {
+
+    String getName();
+
+    boolean shouldValidate(ValidationTrigger trigger);
+
+    /**
+     * @return true if the plan will be validated after the next task succeeds
+     */
+    default boolean validatesAfterNextTask() {
+        return shouldValidate(ValidationTrigger.AFTER_TASK);
+    }
+
+    /**
+     * Called whenever an atomic task finished running.
+     */
+    default void onTaskFinished() {
+    }
+
+    /**
+     * Called whenever the plan has been validated.
+     */
+    default void onValidated() {
+    }
+
+    static ValidationPolicy fromSpec(String spec) {
+        String name = spec == null ? "always" : spec.trim().toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "":
+            case "always":
+                return new Always();
+            case "on-failure":
+                return new OnFailure();
+            case "on-change":
+                return new OnChange();
+            default:
+                if (name.startsWith("every-")) {
+                    try {
+                        return new EveryNTasks(Integer.parseInt(name.substring("every-".length())));
+                    } catch (NumberFormatException e) {
+                        // Reported below
+                    }
+                }
+                throw new IllegalArgumentException("Unknown validation policy: " + spec);
+        }
+    }
+
+    class Always implements ValidationPolicy {
+        @Override
+        public String getName() {
+            return "always";
+        }
+
+        @Override
+        public boolean shouldValidate(ValidationTrigger trigger) {
+            return true;
+        }
+    }
+
+    class OnFailure implements ValidationPolicy {
+        @Override
+        public String getName() {
+            return "on-failure";
+        }
+
+        @Override
+        public boolean shouldValidate(ValidationTrigger trigger) {
+            return trigger == ValidationTrigger.INITIAL || trigger == ValidationTrigger.AFTER_EDIT;
+        }
+    }
+
+    class OnChange implements ValidationPolicy {
+        @Override
+        public String getName() {
+            return "on-change";
+        }
+
+        @Override
+        public boolean shouldValidate(ValidationTrigger trigger) {
+            return trigger == ValidationTrigger.INITIAL || trigger == ValidationTrigger.AFTER_EDIT
+                    || trigger == ValidationTrigger.AFTER_BREAKDOWN;
+        }
+    }
+
+    class EveryNTasks implements ValidationPolicy {
+        private final int interval;
+        private int finishedSinceValidation = 0;
+
+        public EveryNTasks(int interval) {
+            if (interval < 1) {
+                throw new IllegalArgumentException("Validation interval must be at least 1: " + interval);
+            }
+            this.interval = interval;
+        }
+
+        @Override
+        public String getName() {
+            return "every-" + interval;
+        }
+
+        @Override
+        public boolean shouldValidate(ValidationTrigger trigger) {
+            if (trigger == ValidationTrigger.AFTER_TASK || trigger == ValidationTrigger.AFTER_SUBTASK) {
+                return finishedSinceValidation >= interval;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean validatesAfterNextTask() {
+            return finishedSinceValidation + 1 >= interval;
+        }
+
+        @Override
+        public void onTaskFinished() {
+            finishedSinceValidation++;
+        }
+
+        @Override
+        public void onValidated() {
+            finishedSinceValidation = 0;
+        }
+    }
+}
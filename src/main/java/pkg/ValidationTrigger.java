@@ -0,0 +1,18 @@
+package pkg;
+
+/**
+ * The points of plan execution at which the whole plan may be reevaluated by the LLM.
+ * Failed tasks are always reevaluated with their result, whatever the policy.
+ */
+public enum ValidationTrigger {
+    /** Before the first task of the plan runs */
+    INITIAL,
+    /** After a task of the plan has succeeded */
+    AFTER_TASK,
+    /** After a subtask of a task that is processed recursively has succeeded */
+    AFTER_SUBTASK,
+    /** After a non-atomic task was broken down into subtasks */
+    AFTER_BREAKDOWN,
+    /** After the plan editor changed the plan */
+    AFTER_EDIT
+}
@@ -13,6 +13,8 @@ import java.io.PrintStream;
 @Component
 public class ConsoleRedirector {
 
+    private static ConsoleRedirector instance;
+
     private final LogService logService;
     private PrintStream originalOut;
     private PrintStream originalErr;
@@ -24,8 +26,24 @@ public class ConsoleRedirector {
         this.logService = logService;
     }
 
+    /**
+     * Get the active redirector, or null if Spring has not initialized it
+     */
+    public static ConsoleRedirector getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the console stream that was in place before redirection
+     */
+    public PrintStream getOriginalOut() {
+        return originalOut;
+    }
+
     @PostConstruct
     public void init() {
+        instance = this;
+
         // Save original streams
         originalOut = System.out;
         originalErr = System.err;
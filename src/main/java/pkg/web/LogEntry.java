@@ -10,6 +10,7 @@ public class LogEntry {
     private String message;
     private LocalDateTime timestamp;
     private LogLevel level;
+    private Long streamId;
 
     public enum LogLevel {
         INFO, WARNING, ERROR, SUCCESS, COMMAND, LLM_REQUEST, LLM_RESPONSE
@@ -58,4 +59,15 @@ public class LogEntry {
     public void setLevel(LogLevel level) {
         this.level = level;
     }
+
+    /**
+     * Id shared by all partial entries of one streamed LLM response, null for regular entries
+     */
+    public Long getStreamId() {
+        return streamId;
+    }
+
+    public void setStreamId(Long streamId) {
+        this.streamId = streamId;
+    }
 } 
\ No newline at end of file
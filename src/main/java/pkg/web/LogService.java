@@ -5,17 +5,23 @@ import org.springframework.stereotype.Service;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * Service for managing log entries
+ *
+ * Every console line and streamed LLM chunk is appended here while the UI polls for new entries,
+ * so the log is a plain list under a lock rather than a copy-on-write list that copies itself on
+ * each append. Entries are kept in ID order, which lets reads since an ID start with a binary search.
  */
 @Service
 public class LogService {
-    private final CopyOnWriteArrayList<LogEntry> logs = new CopyOnWriteArrayList<>();
+    private final List<LogEntry> logs = new ArrayList<>();
     private final AtomicLong idCounter = new AtomicLong(0);
+    // Highest ID handed out to a reader; later entries may still be changed (guarded by logs)
+    private long lastReadId = 0;
+    private final AtomicLong streamIdCounter = new AtomicLong(0);
 
     /**
      * Add a new info log entry
@@ -66,36 +72,80 @@ public class LogService {
         return addLog(message, LogEntry.LogLevel.LLM_RESPONSE);
     }
 
+    /**
+     * Start a streamed LLM response and return the stream id to pass to addLlmResponseChunk
+     */
+    public long startLlmResponseStream() {
+        return streamIdCounter.incrementAndGet();
+    }
+
+    /**
+     * Add a partial LLM response; the UI appends chunks with the same stream id to one entry.
+     * Chunks that arrive before the UI has fetched the stream's last entry are appended to that
+     * entry, so a stream adds one entry per poll instead of one per chunk.
+     */
+    public LogEntry addLlmResponseChunk(long streamId, String chunk) {
+        synchronized (logs) {
+            LogEntry last = logs.isEmpty() ? null : logs.get(logs.size() - 1);
+            if (last != null && last.getId() > lastReadId && Long.valueOf(streamId).equals(last.getStreamId())) {
+                last.setMessage(last.getMessage() + chunk);
+                return last;
+            }
+            LogEntry entry = new LogEntry(idCounter.incrementAndGet(), chunk, LogEntry.LogLevel.LLM_RESPONSE);
+            entry.setStreamId(streamId);
+            logs.add(entry);
+            return entry;
+        }
+    }
+
     /**
      * Add a log entry with specified level
      */
     private LogEntry addLog(String message, LogEntry.LogLevel level) {
-        LogEntry entry = new LogEntry(idCounter.incrementAndGet(), message, level);
-        logs.add(entry);
-        return entry;
+        synchronized (logs) {
+            LogEntry entry = new LogEntry(idCounter.incrementAndGet(), message, level);
+            logs.add(entry);
+            return entry;
+        }
     }
 
     /**
      * Get all log entries
      */
     public List<LogEntry> getAllLogs() {
-        return new ArrayList<>(logs);
+        return getLogsSince(0L);
     }
 
     /**
      * Get log entries since the specified ID
      */
     public List<LogEntry> getLogsSince(Long lastId) {
-        return logs.stream()
-                .filter(log -> log.getId() > lastId)
-                .collect(Collectors.toList());
+        synchronized (logs) {
+            // First entry with a higher ID
+            int low = 0;
+            int high = logs.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (logs.get(mid).getId() > lastId) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            if (!logs.isEmpty()) {
+                lastReadId = Math.max(lastReadId, logs.get(logs.size() - 1).getId());
+            }
+            return new ArrayList<>(logs.subList(low, logs.size()));
+        }
     }
 
     /**
      * Clear all logs
      */
     public void clearLogs() {
-        logs.clear();
+        synchronized (logs) {
+            logs.clear();
+        }
     }
 
     /**
@@ -134,7 +184,7 @@ public class LogService {
      * Get all conversation logs (only LLM_REQUEST and LLM_RESPONSE)
      */
     public List<LogEntry> getConversationLogs() {
-        return logs.stream()
+        return getAllLogs().stream()
                 .filter(log -> log.getLevel() == LogEntry.LogLevel.LLM_REQUEST 
                         || log.getLevel() == LogEntry.LogLevel.LLM_RESPONSE)
                 .collect(Collectors.toList());
@@ -144,8 +194,7 @@ public class LogService {
      * Get conversation logs since the specified ID
      */
     public List<LogEntry> getConversationLogsSince(Long lastId) {
-        return logs.stream()
-                .filter(log -> log.getId() > lastId)
+        return getLogsSince(lastId).stream()
                 .filter(log -> log.getLevel() == LogEntry.LogLevel.LLM_REQUEST 
                         || log.getLevel() == LogEntry.LogLevel.LLM_RESPONSE)
                 .collect(Collectors.toList());
@@ -155,7 +204,7 @@ public class LogService {
      * Get system logs (excluding LLM conversation logs)
      */
     public List<LogEntry> getSystemLogs() {
-        return logs.stream()
+        return getAllLogs().stream()
                 .filter(log -> log.getLevel() != LogEntry.LogLevel.LLM_REQUEST 
                         && log.getLevel() != LogEntry.LogLevel.LLM_RESPONSE)
                 .collect(Collectors.toList());
@@ -165,8 +214,7 @@ public class LogService {
      * Get system logs since the specified ID
      */
     public List<LogEntry> getSystemLogsSince(Long lastId) {
-        return logs.stream()
-                .filter(log -> log.getId() > lastId)
+        return getLogsSince(lastId).stream()
                 .filter(log -> log.getLevel() != LogEntry.LogLevel.LLM_REQUEST 
                         && log.getLevel() != LogEntry.LogLevel.LLM_RESPONSE)
                 .collect(Collectors.toList());
@@ -0,0 +1,21 @@
+package pkg.web;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pkg.Metrics;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    /**
+     * Get all counters (LLM cache, fallbacks, retries, ...)
+     */
+    @GetMapping
+    public Map<String, Long> getMetrics() {
+        return Metrics.snapshot();
+    }
+}
@@ -1,21 +1,29 @@
 package pkg.web;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import pkg.Plan;
+import pkg.JsonCodec;
+import pkg.PlanExecutor;
+import pkg.PlanSnapshot;
+import pkg.TaskSnapshot;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/plan")
 public class PlanController {
     private final PlanService planService;
+    private final PlanExecutor planExecutor;
 
     @Autowired
-    public PlanController(PlanService planService) {
+    public PlanController(PlanService planService, PlanExecutor planExecutor) {
         this.planService = planService;
+        this.planExecutor = planExecutor;
     }
 
     @GetMapping("/current")
@@ -32,15 +40,78 @@ public class PlanController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * The current version of a plan: of a running plan as the executor last changed it, otherwise as stored.
+     */
     @GetMapping("/{planId}")
-    public ResponseEntity<Plan> getPlan(@PathVariable String planId) {
-        Plan plan = planService.getPlan(planId);
-        
-        if (plan == null) {
+    public ResponseEntity<PlanSnapshot> getPlan(@PathVariable String planId) {
+        PlanSnapshot snapshot = getSnapshot(planId);
+        if (snapshot == null) {
             return ResponseEntity.notFound().build();
         }
-        
-        return ResponseEntity.ok(plan);
+        return ResponseEntity.ok(snapshot);
+    }
+
+    /**
+     * What changed in a plan since the version the client has: the added and changed tasks, each
+     * with the IDs of its subtasks, and the IDs of the top-level tasks; removed tasks are no longer
+     * listed as subtasks. The whole plan ("full": true) without sinceVersion, if the client has a
+     * version this plan does not know, or if most tasks changed.
+     */
+    @GetMapping(value = "/{planId}/changes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> getPlanChanges(@PathVariable String planId,
+                                                 @RequestParam(required = false) Long sinceVersion) {
+        PlanSnapshot snapshot = getSnapshot(planId);
+        if (snapshot == null) {
+            return ResponseEntity.notFound().build();
+        }
+        List<TaskSnapshot> changed = sinceVersion == null ? null : snapshot.changedSince(sinceVersion);
+        if (changed != null && changed.size() > snapshot.size() / 2) {
+            changed = null;
+        }
+        return ResponseEntity.ok(JsonCodec.planChangesToJson(snapshot, changed));
+    }
+
+    /**
+     * A running plan as the executor last changed it, otherwise the stored plan; null if there is none.
+     */
+    private PlanSnapshot getSnapshot(String planId) {
+        PlanSnapshot snapshot = planExecutor.getPlanSnapshot(planId);
+        return snapshot != null ? snapshot : planService.getPlanSnapshot(planId);
+    }
+
+    /**
+     * Continues a stored plan from its first open task, e.g. after a restart.
+     * interruptedTasks decides what happens to tasks left in progress: retry (run again) or ask (the model).
+     */
+    @PostMapping("/{planId}/resume")
+    public ResponseEntity<?> resumePlan(@PathVariable String planId,
+                                        @RequestParam(required = false) String interruptedTasks,
+                                        @RequestParam(required = false) String validationPolicy) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("planId", planId);
+        try {
+            planExecutor.resumePlan(planId, interruptedTasks, validationPolicy);
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return planService.getPlan(planId) == null
+                    ? ResponseEntity.status(404).body(response)
+                    : ResponseEntity.badRequest().body(response);
+        } catch (IllegalStateException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(409).body(response);
+        } catch (RejectedExecutionException e) {
+            response.put("status", "error");
+            response.put("message", "Too many plans are running or queued, try again later");
+            return ResponseEntity.status(503).body(response);
+        }
+
+        planService.setCurrentPlanId(planId);
+        response.put("status", "success");
+        response.put("message", "Plan execution resumed");
+        return ResponseEntity.ok(response);
     }
 
     @GetMapping("/list")
@@ -1,14 +1,15 @@
 package pkg.web;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.springframework.stereotype.Service;
+import pkg.JsonCodec;
 import pkg.Plan;
+import pkg.PlanSnapshot;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -16,15 +17,41 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Service
 public class PlanService {
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
     private final String plansDir = "plans";
-    private String currentPlanId;
+    // Most recently created plan, shown by the UI; runs save under their own ID
+    private volatile String currentPlanId;
+    // Snapshots of recently saved or read plans with the size and modification time of their file,
+    // so that polling a plan that is not running does not parse its file again
+    private final Map<String, StoredSnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StoredSnapshot> eldest) {
+            return size() > 32;
+        }
+    };
+
+    private static class StoredSnapshot {
+        private final PlanSnapshot snapshot;
+        private final long modified;
+        private final long length;
+
+        StoredSnapshot(PlanSnapshot snapshot, File file) {
+            this.snapshot = snapshot;
+            this.modified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == modified && file.length() == length;
+        }
+    }
 
     public PlanService() {
         // Ensure plans directory exists
@@ -42,8 +69,8 @@ public class PlanService {
         String planId = generatePlanId();
         currentPlanId = planId;
         
-        try (FileWriter writer = new FileWriter(getPlanFilePath(planId))) {
-            gson.toJson(plan, writer);
+        try {
+            writePlan(planId, plan);
         } catch (IOException e) {
             throw new RuntimeException("Failed to save plan", e);
         }
@@ -61,13 +88,37 @@ public class PlanService {
             return null;
         }
         
-        try (FileReader reader = new FileReader(planFile)) {
-            return gson.fromJson(reader, Plan.class);
+        try (Reader reader = Files.newBufferedReader(planFile.toPath(), StandardCharsets.UTF_8)) {
+            return JsonCodec.PRETTY_GSON.fromJson(reader, Plan.class);
         } catch (IOException e) {
             throw new RuntimeException("Failed to read plan", e);
         }
     }
 
+    /**
+     * Get the stored version of a plan by its ID, reading its file only if it changed since it was
+     * last saved or read
+     */
+    public PlanSnapshot getPlanSnapshot(String planId) {
+        File planFile = new File(getPlanFilePath(planId));
+        synchronized (snapshots) {
+            StoredSnapshot stored = snapshots.get(planId);
+            if (stored != null && stored.isCurrent(planFile)) {
+                return stored.snapshot;
+            }
+        }
+
+        Plan plan = getPlan(planId);
+        if (plan == null) {
+            return null;
+        }
+        PlanSnapshot snapshot = plan.getSnapshot();
+        synchronized (snapshots) {
+            snapshots.put(planId, new StoredSnapshot(snapshot, planFile));
+        }
+        return snapshot;
+    }
+
     /**
      * Get the current active plan ID
      */
@@ -86,13 +137,27 @@ public class PlanService {
      * Update an existing plan
      */
     public void updatePlan(String planId, Plan plan) {
-        try (FileWriter writer = new FileWriter(getPlanFilePath(planId))) {
-            gson.toJson(plan, writer);
+        try {
+            writePlan(planId, plan);
         } catch (IOException e) {
             throw new RuntimeException("Failed to update plan", e);
         }
     }
 
+    /**
+     * Streams the current snapshot of the plan to its file, pretty printed so that plan files stay readable.
+     */
+    private void writePlan(String planId, Plan plan) throws IOException {
+        PlanSnapshot snapshot = plan.getSnapshot();
+        File planFile = new File(getPlanFilePath(planId));
+        try (Writer writer = Files.newBufferedWriter(planFile.toPath(), StandardCharsets.UTF_8)) {
+            JsonCodec.PRETTY_GSON.toJson(snapshot, writer);
+        }
+        synchronized (snapshots) {
+            snapshots.put(planId, new StoredSnapshot(snapshot, planFile));
+        }
+    }
+
     /**
      * List all available plan IDs
      */
@@ -4,11 +4,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
-import pkg.Plan;
 import pkg.PlanExecutor;
+import pkg.PlanSnapshot;
+import pkg.ValidationPolicy;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @Controller
 public class WebController {
@@ -39,11 +41,19 @@ public class WebController {
      */
     @PostMapping("/api/execute")
     @ResponseBody
-    public Map<String, Object> executeDefaultPlan() {
-        planExecutor.executeWithDefaultPrompt();
+    public Map<String, Object> executeDefaultPlan(@RequestParam(required = false) String validationPolicy) {
         Map<String, Object> response = new HashMap<>();
+        if (!checkValidationPolicy(validationPolicy, response)) {
+            return response;
+        }
+        try {
+            planExecutor.executeWithDefaultPrompt(validationPolicy);
+        } catch (RejectedExecutionException e) {
+            return rejected(response);
+        }
         response.put("status", "success");
         response.put("message", "Execution started");
+        response.put("queuedRuns", planExecutor.getQueuedRuns());
         return response;
     }
 
@@ -52,13 +62,49 @@ public class WebController {
      */
     @PostMapping("/api/execute/custom")
     @ResponseBody
-    public Map<String, Object> executeCustomPlan(@RequestParam String prompt) {
-        planExecutor.executeWithCustomPrompt(prompt);
+    public Map<String, Object> executeCustomPlan(@RequestParam String prompt,
+                                                 @RequestParam(required = false) String validationPolicy) {
         Map<String, Object> response = new HashMap<>();
+        if (!checkValidationPolicy(validationPolicy, response)) {
+            return response;
+        }
+        try {
+            planExecutor.executeWithCustomPrompt(prompt, validationPolicy);
+        } catch (RejectedExecutionException e) {
+            return rejected(response);
+        }
         response.put("status", "success");
         response.put("message", "Custom execution started");
+        response.put("queuedRuns", planExecutor.getQueuedRuns());
         return response;
     }
+
+    /**
+     * Every plan slot is busy and the run queue is full
+     */
+    private Map<String, Object> rejected(Map<String, Object> response) {
+        response.put("status", "error");
+        response.put("message", "Too many plans are running or queued, try again later");
+        response.put("activePlans", planExecutor.getActivePlanIds());
+        return response;
+    }
+
+    /**
+     * Rejects an unknown validation policy before the run starts (null means the configured default)
+     */
+    private boolean checkValidationPolicy(String validationPolicy, Map<String, Object> response) {
+        if (validationPolicy == null) {
+            return true;
+        }
+        try {
+            ValidationPolicy.fromSpec(validationPolicy);
+            return true;
+        } catch (IllegalArgumentException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return false;
+        }
+    }
     
     /**
      * Get a summary of plan validation and fixes
@@ -66,7 +112,7 @@ public class WebController {
     @GetMapping("/api/plan-fixes/{planId}")
     @ResponseBody
     public ResponseEntity<Map<String, Object>> getPlanFixesSummary(@PathVariable String planId) {
-        Plan plan = planService.getPlan(planId);
+        PlanSnapshot plan = planService.getPlanSnapshot(planId);
         if (plan == null) {
             return ResponseEntity.notFound().build();
         }
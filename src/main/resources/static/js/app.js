@@ -9,6 +9,14 @@ let lastConversationLogId = 0;
 let currentPlanId = null;
 let isExecuting = false;
 
+// The displayed plan: its version, its tasks by ID (subtasks as IDs) and their rendered elements.
+// Only what changed since planVersion is fetched and re-rendered.
+let planVersion = null;
+let planTasks = new Map();
+let topLevelTaskIds = [];
+let taskElements = new Map();
+let planFetchInFlight = false;
+
 // DOM elements
 const planContent = document.getElementById('plan-content');
 const systemContent = document.getElementById('system-content');
@@ -33,6 +41,9 @@ function initializeApp() {
     // Poll for updates
     setInterval(() => {
         fetchCurrentPlanId();
+        if (currentPlanId) {
+            fetchCurrentPlan();
+        }
         fetchNewSystemLogs();
         fetchNewConversationLogs();
         
@@ -202,11 +213,13 @@ function fetchCurrentPlanId() {
             if (data) {
                 if (data.planId !== currentPlanId) {
                     currentPlanId = data.planId;
+                    resetPlan();
                     fetchCurrentPlan();
                 }
             } else {
                 planContent.textContent = 'No active plan. Use the buttons above to start execution.';
                 currentPlanId = null;
+                resetPlan();
             }
         })
         .catch(error => {
@@ -215,24 +228,48 @@ function fetchCurrentPlanId() {
 }
 
 /**
- * Fetch the current plan details
+ * Forget the displayed plan, so that the next fetch loads the whole plan
+ */
+function resetPlan() {
+    planVersion = null;
+    planTasks = new Map();
+    topLevelTaskIds = [];
+    taskElements = new Map();
+}
+
+/**
+ * Fetch what changed in the current plan since the displayed version
  */
 function fetchCurrentPlan() {
-    fetch(`/api/plan/${currentPlanId}`)
+    if (planFetchInFlight) {
+        return;
+    }
+    planFetchInFlight = true;
+    const planId = currentPlanId;
+    const since = planVersion !== null ? `?sinceVersion=${planVersion}` : '';
+    fetch(`/api/plan/${planId}/changes${since}`)
         .then(response => {
             if (!response.ok) {
                 throw new Error('Failed to fetch plan details');
             }
             return response.json();
         })
-        .then(plan => {
-            displayPlan(plan);
+        .then(changes => {
+            // Ignore a response for a plan that is no longer shown
+            if (planId !== currentPlanId) {
+                return;
+            }
+            applyPlanChanges(changes);
             // If we received a plan, execution is likely complete or about to start
             checkExecutionStatus();
         })
         .catch(error => {
             console.error('Error fetching plan details:', error);
             planContent.textContent = 'Error loading plan. Please refresh the page.';
+            resetPlan();
+        })
+        .finally(() => {
+            planFetchInFlight = false;
         });
 }
 
@@ -249,105 +286,208 @@ function checkExecutionStatus() {
 }
 
 /**
- * Display the plan in the UI with task formatting
+ * Apply a response of /api/plan/{planId}/changes: the whole plan, or the changed tasks
  */
-function displayPlan(plan) {
-    // Clear existing content
-    planContent.innerHTML = '';
-    
-    // Create header
-    const header = document.createElement('div');
-    header.innerHTML = `<h3>Plan ID: ${currentPlanId}</h3>`;
-    planContent.appendChild(header);
-    
-    // Render tasks
-    if (plan.topLevelTasks && plan.topLevelTasks.length > 0) {
-        renderTasks(plan.topLevelTasks, planContent, 0);
-    } else {
-        const noTasks = document.createElement('div');
-        noTasks.textContent = 'No tasks in the current plan.';
-        planContent.appendChild(noTasks);
+function applyPlanChanges(changes) {
+    if (changes.full) {
+        planContent.innerHTML = '';
+        planTasks = new Map();
+        topLevelTaskIds = addTasks(changes.plan.topLevelTasks || []);
+        taskElements = new Map();
+        planVersion = changes.version;
+        renderPlan(new Set(planTasks.keys()), true);
+        return;
+    }
+
+    const changed = new Set();
+    let structureChanged = !sameIds(topLevelTaskIds, changes.topLevelTaskIds);
+    topLevelTaskIds = changes.topLevelTaskIds;
+    changes.tasks.forEach(task => {
+        const previous = planTasks.get(task.id);
+        if (!previous || !sameIds(previous.subTaskIds, task.subTaskIds)) {
+            structureChanged = true;
+        }
+        planTasks.set(task.id, task);
+        changed.add(task.id);
+    });
+    planVersion = changes.version;
+    if (changed.size > 0 || structureChanged) {
+        renderPlan(changed, structureChanged);
     }
 }
 
 /**
- * Recursively render tasks with proper indentation
+ * Add nested tasks of a whole plan to planTasks, with their subtasks as IDs
+ *
+ * @return the IDs of the tasks
  */
-function renderTasks(tasks, container, depth) {
-    const indent = '  '.repeat(depth);
-    
-    tasks.forEach(task => {
-        const taskEl = document.createElement('div');
-        taskEl.className = `task ${getTaskStatusClass(task)}`;
-        
-        // Create task header (always visible)
-        const taskHeader = document.createElement('div');
-        taskHeader.className = 'task-header';
-        
-        // Add indentation and task title
-        const taskTitle = document.createElement('span');
-        taskTitle.className = 'task-title';
-        taskTitle.textContent = `${indent}● Task ${task.id}: ${task.description}`;
-        
-        // Add expand/collapse icon
-        const toggleIcon = document.createElement('span');
-        toggleIcon.className = 'toggle-icon';
-        toggleIcon.textContent = '►';
-        
-        // Build header
-        taskHeader.appendChild(taskTitle);
-        taskHeader.appendChild(toggleIcon);
-        taskEl.appendChild(taskHeader);
-        
-        // Create collapsible content area
-        const taskContent = document.createElement('div');
-        taskContent.className = 'task-content';
-        
-        // Add status
-        let statusText = '';
-        if (task.completed) {
-            statusText = `${indent}  Status: Completed`;
-        } else if (task.inProgress) {
-            statusText = `${indent}  Status: In Progress`;
-        } else {
-            statusText = `${indent}  Status: Pending`;
+function addTasks(tasks) {
+    return tasks.map(task => {
+        const subTaskIds = addTasks(task.subTasks || []);
+        planTasks.set(task.id, { ...task, subTasks: undefined, subTaskIds });
+        return task.id;
+    });
+}
+
+function sameIds(a, b) {
+    return a.length === b.length && a.every((id, i) => id === b[i]);
+}
+
+/**
+ * Render the plan, re-creating only the elements of changed tasks. When tasks were added or
+ * removed, the elements are put back in plan order and those of removed tasks are dropped.
+ */
+function renderPlan(changed, structureChanged) {
+    let tree = planContent.querySelector('.plan-tree');
+    if (!tree) {
+        planContent.innerHTML = '';
+        const header = document.createElement('div');
+        header.innerHTML = `<h3>Plan ID: ${currentPlanId}</h3>`;
+        planContent.appendChild(header);
+        tree = document.createElement('div');
+        tree.className = 'plan-tree';
+        planContent.appendChild(tree);
+    }
+
+    if (!structureChanged) {
+        changed.forEach(id => {
+            const old = taskElements.get(id);
+            if (old) {
+                const element = createTaskElement(planTasks.get(id), Number(old.dataset.depth), isExpanded(old));
+                old.replaceWith(element);
+                taskElements.set(id, element);
+            }
+        });
+        return;
+    }
+
+    const shown = new Set();
+    appendTasks(topLevelTaskIds, tree, 0, changed, shown);
+    taskElements.forEach((element, id) => {
+        if (!shown.has(id)) {
+            element.remove();
+            taskElements.delete(id);
         }
-        const statusEl = document.createElement('div');
-        statusEl.textContent = statusText;
-        taskContent.appendChild(statusEl);
-        
-        // Add commands if any
-        if (task.commands && task.commands.length > 0) {
-            const commandsTitle = document.createElement('div');
-            commandsTitle.textContent = `${indent}  Commands:`;
-            taskContent.appendChild(commandsTitle);
-            
-            const commandsList = document.createElement('ul');
-            task.commands.forEach(cmd => {
-                const cmdItem = document.createElement('li');
-                cmdItem.textContent = cmd;
-                commandsList.appendChild(cmdItem);
-            });
-            taskContent.appendChild(commandsList);
+    });
+    planTasks.forEach((task, id) => {
+        if (!shown.has(id)) {
+            planTasks.delete(id);
         }
-        
-        // Add success criteria if available
-        if (task.successCriteria) {
-            const criteriaEl = document.createElement('div');
-            criteriaEl.textContent = `${indent}  Success Criteria: ${task.successCriteria}`;
-            taskContent.appendChild(criteriaEl);
+    });
+
+    let noTasks = tree.querySelector('.no-tasks');
+    if (topLevelTaskIds.length === 0 && !noTasks) {
+        noTasks = document.createElement('div');
+        noTasks.className = 'no-tasks';
+        noTasks.textContent = 'No tasks in the current plan.';
+        tree.appendChild(noTasks);
+    } else if (topLevelTaskIds.length > 0 && noTasks) {
+        noTasks.remove();
+    }
+}
+
+/**
+ * Append the elements of tasks and their subtasks to the container in plan order, creating those
+ * that are new or changed
+ */
+function appendTasks(ids, container, depth, changed, shown) {
+    ids.forEach(id => {
+        const task = planTasks.get(id);
+        if (!task) {
+            return;
         }
-        
-        taskEl.appendChild(taskContent);
-        container.appendChild(taskEl);
-        
-        // Render subtasks if any
-        if (task.subTasks && task.subTasks.length > 0) {
-            renderTasks(task.subTasks, container, depth + 1);
+        shown.add(id);
+        let element = taskElements.get(id);
+        if (!element || changed.has(id) || Number(element.dataset.depth) !== depth) {
+            const expanded = element ? isExpanded(element) : false;
+            if (element) {
+                element.remove();
+            }
+            element = createTaskElement(task, depth, expanded);
+            taskElements.set(id, element);
         }
+        container.appendChild(element);
+        appendTasks(task.subTaskIds || [], container, depth + 1, changed, shown);
     });
 }
 
+function isExpanded(element) {
+    const content = element.querySelector('.task-content');
+    return content !== null && content.classList.contains('expanded');
+}
+
+/**
+ * Create the element of one task (its subtasks are separate elements after it)
+ */
+function createTaskElement(task, depth, expanded) {
+    const indent = '  '.repeat(depth);
+    
+    const taskEl = document.createElement('div');
+    taskEl.className = `task ${getTaskStatusClass(task)}`;
+    taskEl.dataset.depth = depth;
+    
+    // Create task header (always visible)
+    const taskHeader = document.createElement('div');
+    taskHeader.className = 'task-header';
+    
+    // Add indentation and task title
+    const taskTitle = document.createElement('span');
+    taskTitle.className = 'task-title';
+    taskTitle.textContent = `${indent}● Task ${task.id}: ${task.description}`;
+    
+    // Add expand/collapse icon
+    const toggleIcon = document.createElement('span');
+    toggleIcon.className = expanded ? 'toggle-icon expanded' : 'toggle-icon';
+    toggleIcon.textContent = '►';
+    
+    // Build header
+    taskHeader.appendChild(taskTitle);
+    taskHeader.appendChild(toggleIcon);
+    taskEl.appendChild(taskHeader);
+    
+    // Create collapsible content area
+    const taskContent = document.createElement('div');
+    taskContent.className = expanded ? 'task-content expanded' : 'task-content';
+    
+    // Add status
+    let statusText = '';
+    if (task.completed) {
+        statusText = `${indent}  Status: Completed`;
+    } else if (task.inProgress) {
+        statusText = `${indent}  Status: In Progress`;
+    } else {
+        statusText = `${indent}  Status: Pending`;
+    }
+    const statusEl = document.createElement('div');
+    statusEl.textContent = statusText;
+    taskContent.appendChild(statusEl);
+    
+    // Add commands if any
+    if (task.commands && task.commands.length > 0) {
+        const commandsTitle = document.createElement('div');
+        commandsTitle.textContent = `${indent}  Commands:`;
+        taskContent.appendChild(commandsTitle);
+        
+        const commandsList = document.createElement('ul');
+        task.commands.forEach(cmd => {
+            const cmdItem = document.createElement('li');
+            cmdItem.textContent = cmd;
+            commandsList.appendChild(cmdItem);
+        });
+        taskContent.appendChild(commandsList);
+    }
+    
+    // Add success criteria if available
+    if (task.successCriteria) {
+        const criteriaEl = document.createElement('div');
+        criteriaEl.textContent = `${indent}  Success Criteria: ${task.successCriteria}`;
+        taskContent.appendChild(criteriaEl);
+    }
+    
+    taskEl.appendChild(taskContent);
+    return taskEl;
+}
+
 /**
  * Get CSS class based on task status
  */
@@ -468,9 +608,21 @@ function appendConversationLogEntries(entries) {
     }
     
     entries.forEach(entry => {
+        // Streamed responses arrive as several chunks sharing one stream id
+        if (entry.streamId != null) {
+            const streamEntry = conversationContent.querySelector(`[data-stream-id="${entry.streamId}"]`);
+            if (streamEntry) {
+                streamEntry.textContent += entry.message;
+                return;
+            }
+        }
+        
         const logEntry = document.createElement('div');
         logEntry.className = `log-entry ${getLogEntryClass(entry)}`;
         logEntry.textContent = formatLogEntry(entry);
+        if (entry.streamId != null) {
+            logEntry.dataset.streamId = entry.streamId;
+        }
         conversationContent.appendChild(logEntry);
     });
     
@@ -0,0 +1,81 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonScannerTest {
+
+    private static final String PLAN = "{\"tasks\": [{\"id\": 1, \"subtasks\": [{\"id\": 2, \"commands\": []}]}, {\"id\": 3}]}";
+
+    @Test
+    void extractsNestedObjectsWhole() {
+        assertEquals(PLAN, JsonScanner.extractFirst("Here is the plan: " + PLAN + " Good luck!", false));
+    }
+
+    @Test
+    void ignoresBracesAndEscapedQuotesInStrings() {
+        String json = "{\"commands\": [\"echo '}' > a.txt\", \"printf \\\"{\\\\\\\"x\\\\\\\": 1}\\\"\"], \"note\": \"a \\\\\"}";
+        assertEquals(json, JsonScanner.extractFirst(json + " trailing }", false));
+    }
+
+    @Test
+    void prefersFencedJsonBlock() {
+        String text = "Example format: {\"id\": 0}\n```json\n" + PLAN + "\n```\n";
+        assertEquals(PLAN, OllamaClient.extractJson(text));
+    }
+
+    @Test
+    void fallsBackToFirstObjectWithoutFence() {
+        assertEquals("{\"a\": {\"b\": 1}}", OllamaClient.extractJson("```\n{\"a\": {\"b\": 1}}\n```"));
+    }
+
+    @Test
+    void skipsProsePlaceholders() {
+        String text = "I will handle {your request} and {  the rest } now: {\"valid\": true}";
+        assertEquals("{\"valid\": true}", JsonScanner.extractFirst(text, false));
+    }
+
+    @Test
+    void acceptsArraysOnlyWhenAsked() {
+        String text = "Result: [1, 2] and {\"a\": 1}";
+        assertEquals("[1, 2]", JsonScanner.extractFirst(text, true));
+        assertEquals("{\"a\": 1}", JsonScanner.extractFirst(text, false));
+    }
+
+    @Test
+    void returnsNullForUnbalancedText() {
+        assertNull(JsonScanner.extractFirst("{\"a\": {\"b\": 1}", false));
+        assertNull(JsonScanner.extractFirst("no json here", false));
+    }
+
+    @Test
+    void chunkedFeedMatchesExtractFirst() {
+        String text = "Plan for {your request}:\n```json\n" + PLAN + "\n``` {\"ignored\": true}";
+        String expected = JsonScanner.extractFirst(text, false);
+        for (int chunkSize = 1; chunkSize <= text.length(); chunkSize++) {
+            JsonScanner scanner = new JsonScanner(false);
+            for (int i = 0; i < text.length() && !scanner.isComplete(); i += chunkSize) {
+                scanner.feed(text.substring(i, Math.min(text.length(), i + chunkSize)));
+            }
+            assertEquals(expected, scanner.getJson(), "chunks of " + chunkSize);
+        }
+    }
+
+    @Test
+    void feedReportsCompletionOnlyAtTheEnd() {
+        JsonScanner scanner = new JsonScanner(false);
+        assertFalse(scanner.feed("{\"a\": \"}\""));
+        assertNull(scanner.getJson());
+        assertTrue(scanner.feed("} more"));
+        assertEquals("{\"a\": \"}\"}", scanner.getJson());
+
+        scanner.reset();
+        assertFalse(scanner.isComplete());
+        assertTrue(scanner.feed("{}"));
+        assertEquals("{}", scanner.getJson());
+    }
+}
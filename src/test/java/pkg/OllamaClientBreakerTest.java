@@ -0,0 +1,126 @@
+package pkg;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The circuit breaker around OllamaClient calls, against a stub Ollama server: a half-open trial
+ * call that fails in an unexpected way must not keep the circuit from closing again.
+ */
+class OllamaClientBreakerTest {
+
+    private static final long OPEN_MILLIS = 50;
+    private static final String OK_RESPONSE = "{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"},\"done\":true}";
+
+    private HttpServer server;
+    private OllamaSettings settings;
+    private OllamaAsyncClient client;
+    private volatile int status;
+    private volatile String body;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/chat", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+
+        settings = new OllamaSettings();
+        settings.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+        settings.setHealthCheckInterval(Duration.ZERO);
+        settings.setCallDeadline(Duration.ofSeconds(10));
+        settings.getCache().setEnabled(false);
+        settings.getRetry().setMaxAttempts(1);
+        settings.getBreaker().setFailureThreshold(1);
+        settings.getBreaker().setOpenDuration(Duration.ofMillis(OPEN_MILLIS));
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (client != null) {
+            client.shutdown();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    void truncatedResponseInHalfOpenTrialReleasesTheTrial() throws Exception {
+        settings.setStream(false);
+        client = new OllamaAsyncClient(settings);
+
+        openCircuit();
+        respond(200, "{\"message\":{\"content\":\"o");
+        OllamaException failure = assertThrows(OllamaException.class, () -> OllamaClient.queryOllama("system", "user"));
+        assertFalse(failure.isTransient(), "a malformed response is not worth retrying");
+        assertEquals(CircuitBreaker.State.HALF_OPEN, OllamaClient.getCircuitBreaker().getState());
+
+        assertClosesAgain();
+    }
+
+    @Test
+    void responseWithoutMessageInHalfOpenTrialReleasesTheTrial() throws Exception {
+        settings.setStream(false);
+        client = new OllamaAsyncClient(settings);
+
+        openCircuit();
+        respond(200, "{\"done\":true}");
+        assertThrows(OllamaException.class, () -> OllamaClient.queryOllama("system", "user"));
+
+        assertClosesAgain();
+    }
+
+    @Test
+    void truncatedStreamInHalfOpenTrialReleasesTheTrial() throws Exception {
+        settings.setStream(true);
+        client = new OllamaAsyncClient(settings);
+
+        openCircuit();
+        respond(200, "{\"message\":{\"content\":\"o\"},\"done\":false}\n{\"message\":{\"cont");
+        assertThrows(OllamaException.class, () -> OllamaClient.queryOllama("system", "user"));
+
+        assertClosesAgain();
+    }
+
+    private void respond(int status, String body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    /**
+     * Opens the circuit with a 503 and waits until the next call is let through as the trial.
+     */
+    private void openCircuit() throws InterruptedException {
+        respond(503, "{\"error\":\"overloaded\"}");
+        OllamaException failure = assertThrows(OllamaException.class, () -> OllamaClient.queryOllama("system", "user"));
+        assertTrue(failure.isTransient());
+        assertEquals(CircuitBreaker.State.OPEN, OllamaClient.getCircuitBreaker().getState());
+        Thread.sleep(OPEN_MILLIS * 2);
+    }
+
+    /**
+     * The next call must get through (no CircuitOpenException) and close the circuit.
+     */
+    private void assertClosesAgain() throws Exception {
+        respond(200, settings.isStream() ? OK_RESPONSE + "\n" : OK_RESPONSE);
+        assertEquals("ok", OllamaClient.queryOllama("system", "user"));
+        assertEquals(CircuitBreaker.State.CLOSED, OllamaClient.getCircuitBreaker().getState());
+    }
+}
@@ -0,0 +1,186 @@
+package pkg;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Routing and health tracking of OllamaEndpointPool against two stub Ollama hosts that answer
+ * the /api/tags probes.
+ */
+class OllamaEndpointPoolTest {
+
+    private static final int MAX_FAILURES = 2;
+
+    private StubHost first;
+    private StubHost second;
+    private OllamaEndpointPool pool;
+
+    @BeforeEach
+    void startHosts() throws IOException {
+        first = new StubHost();
+        second = new StubHost();
+        OllamaSettings settings = new OllamaSettings();
+        settings.setMaxFailures(MAX_FAILURES);
+        pool = new OllamaEndpointPool(List.of(first.url(), second.url()), HttpClient.newHttpClient(), settings);
+    }
+
+    @AfterEach
+    void stopHosts() {
+        pool.close();
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    void routesToTheHostWithFewestOutstandingRequests() {
+        OllamaEndpoint busy = pool.acquire(null);
+        OllamaEndpoint other = pool.acquire(null);
+        assertNotSame(busy, other);
+
+        // Both hosts have one request; once the first is done it is the least loaded
+        pool.release(busy);
+        for (int i = 0; i < 5; i++) {
+            OllamaEndpoint next = pool.acquire(null);
+            assertSame(busy, next);
+            pool.release(next);
+        }
+        assertEquals(1, other.getOutstanding());
+        assertEquals(0, busy.getOutstanding());
+    }
+
+    @Test
+    void routesToHostsThatHaveTheModel() {
+        first.models = "{\"models\":[{\"name\":\"llama3:latest\"}]}";
+        second.models = "{\"models\":[{\"name\":\"mistral:7b\"}]}";
+        pool.probeAll();
+
+        OllamaEndpoint llama = endpointOf(first);
+        OllamaEndpoint mistral = endpointOf(second);
+        for (int i = 0; i < 3; i++) {
+            // Untagged names match the "latest" tag
+            OllamaEndpoint picked = pool.acquire("llama3");
+            assertSame(llama, picked);
+            OllamaEndpoint other = pool.acquire("mistral:7b");
+            assertSame(mistral, other);
+        }
+        // The host with the model is picked even though it is the busier one
+        assertEquals(3, llama.getOutstanding());
+        assertThrows(IllegalStateException.class, () -> pool.acquire("phi3"));
+    }
+
+    @Test
+    void ejectsHostAfterMaxFailedProbes() {
+        first.status = 500;
+        OllamaEndpoint failing = endpointOf(first);
+
+        for (int i = 1; i < MAX_FAILURES; i++) {
+            pool.probeAll();
+            assertTrue(failing.isHealthy(), "still healthy after " + i + " failed probes");
+        }
+        pool.probeAll();
+        assertFalse(failing.isHealthy());
+
+        // Requests avoid the ejected host even when it is the least loaded
+        OllamaEndpoint healthy = endpointOf(second);
+        for (int i = 0; i < 3; i++) {
+            assertSame(healthy, pool.acquire(null));
+        }
+    }
+
+    @Test
+    void ejectsHostAfterMaxFailedCalls() {
+        OllamaEndpoint failing = endpointOf(first);
+        for (int i = 0; i < MAX_FAILURES; i++) {
+            pool.markFailure(failing);
+        }
+        assertFalse(failing.isHealthy());
+        assertTrue(endpointOf(second).isHealthy());
+    }
+
+    @Test
+    void reinstatesHostWhenAProbeSucceeds() {
+        first.status = 500;
+        for (int i = 0; i < MAX_FAILURES; i++) {
+            pool.probeAll();
+        }
+        OllamaEndpoint recovered = endpointOf(first);
+        assertFalse(recovered.isHealthy());
+
+        first.status = 200;
+        pool.probeAll();
+        assertTrue(recovered.isHealthy());
+
+        // Back in the rotation: with the other host busy, it gets the next request
+        OllamaEndpoint busy = endpointOf(second);
+        busy.begin();
+        assertSame(recovered, pool.acquire(null));
+    }
+
+    @Test
+    void triesEjectedHostsWhenNoneIsHealthy() {
+        first.status = 500;
+        second.status = 500;
+        for (int i = 0; i < MAX_FAILURES; i++) {
+            pool.probeAll();
+        }
+        assertFalse(endpointOf(first).isHealthy());
+        assertFalse(endpointOf(second).isHealthy());
+
+        OllamaEndpoint picked = pool.acquire(null);
+        assertEquals(1, picked.getOutstanding());
+    }
+
+    private OllamaEndpoint endpointOf(StubHost host) {
+        for (OllamaEndpoint endpoint : pool.getEndpoints()) {
+            if (endpoint.getBaseUri().toString().equals(host.url() + "/")) {
+                return endpoint;
+            }
+        }
+        throw new IllegalStateException("No endpoint for " + host.url());
+    }
+
+    /**
+     * Local HTTP server answering /api/tags with the configured status and model list.
+     */
+    private static class StubHost {
+        private final HttpServer server;
+        private volatile int status = 200;
+        private volatile String models = "{\"models\":[]}";
+
+        StubHost() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/api/tags", exchange -> {
+                byte[] body = (status == 200 ? models : "{\"error\":\"unavailable\"}").getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The task index of Plan on a plan of 10k tasks: IDs stay unique, lookups and ancestors follow the
+ * tree, and removals drop whole subtrees.
+ */
+class PlanTest {
+
+    private static final int SIZE = 10_000;
+
+    private Plan plan;
+
+    @BeforeEach
+    void buildPlan() {
+        plan = new Plan();
+        List<Task> topLevel = new ArrayList<>();
+        for (int id = 1; id <= 10; id++) {
+            topLevel.add(task(id));
+        }
+        plan.addTasks(topLevel);
+
+        // Each task gets up to 4 subtasks, breadth first, until the plan has SIZE tasks
+        Deque<Task> open = new ArrayDeque<>(topLevel);
+        int count = topLevel.size();
+        while (count < SIZE) {
+            Task parent = open.poll();
+            List<Task> subTasks = new ArrayList<>();
+            for (int i = 0; i < 4 && count < SIZE; i++, count++) {
+                subTasks.add(task(plan.nextId()));
+            }
+            parent.addSubTasks(subTasks);
+            open.addAll(subTasks);
+        }
+    }
+
+    @Test
+    void indexesEveryTask() {
+        assertEquals(SIZE, plan.size());
+        for (int id = 1; id <= SIZE; id++) {
+            assertEquals(id, plan.getTask(id).getId());
+        }
+        assertNull(plan.getTask(SIZE + 1));
+    }
+
+    @Test
+    void renumbersTaskAddedWithUsedId() {
+        Task duplicate = task(5);
+        plan.addTask(duplicate);
+
+        assertNotEquals(5, duplicate.getId());
+        assertSame(duplicate, plan.getTask(duplicate.getId()));
+        assertEquals(SIZE + 1, plan.size());
+        Set<Integer> ids = new HashSet<>();
+        for (Task task : plan.getAllTasks()) {
+            assertTrue(ids.add(task.getId()), "ID " + task.getId() + " used twice");
+        }
+    }
+
+    @Test
+    void rewritesDependsOnWhenRenumbering() {
+        Task first = task(3);
+        Task second = task(4);
+        second.setDependsOn(new ArrayList<>(List.of(3)));
+        plan.addTasks(List.of(first, second));
+
+        assertNotEquals(3, first.getId());
+        assertEquals(List.of(first.getId()), second.getDependsOn());
+        assertSame(first, plan.getTask(second.getDependsOn().get(0)));
+    }
+
+    @Test
+    void removeTaskUnindexesSubtree() {
+        Task removed = plan.getTask(2);
+        List<Integer> subtree = new ArrayList<>();
+        collectIds(removed, subtree);
+        assertTrue(subtree.size() > 1000, "the subtree of task 2 is large");
+
+        assertSame(removed, plan.removeTask(2));
+        for (int id : subtree) {
+            assertNull(plan.getTask(id), "task " + id + " still indexed");
+        }
+        assertEquals(SIZE - subtree.size(), plan.size());
+        assertNull(removed.getParent());
+        assertNull(plan.removeTask(2));
+    }
+
+    @Test
+    void removeSubTaskUnindexesSubtree() {
+        Task child = plan.getTask(2).getSubTasks().get(0);
+        List<Integer> subtree = new ArrayList<>();
+        collectIds(child, subtree);
+
+        plan.removeTask(child.getId());
+        assertTrue(plan.getTask(2).getSubTasks().stream().noneMatch(task -> task == child));
+        for (int id : subtree) {
+            assertNull(plan.getTask(id));
+        }
+        assertEquals(SIZE - subtree.size(), plan.size());
+    }
+
+    @Test
+    void findsAncestors() {
+        Task deepest = plan.getTask(SIZE);
+        List<Task> ancestors = plan.getAncestors(deepest);
+
+        assertTrue(ancestors.size() >= 5, "the last task is deep in the tree");
+        assertSame(deepest.getParent(), ancestors.get(0));
+        for (int i = 1; i < ancestors.size(); i++) {
+            assertSame(ancestors.get(i - 1).getParent(), ancestors.get(i));
+        }
+        Task root = ancestors.get(ancestors.size() - 1);
+        assertNull(root.getParent());
+        assertTrue(plan.getTopLevelTasks().contains(root));
+        assertTrue(plan.getAncestors(root).isEmpty());
+    }
+
+    @Test
+    void setIdRejectsUsedId() {
+        Task task = plan.getTask(10);
+        assertThrows(IllegalArgumentException.class, () -> task.setId(20));
+        assertEquals(10, task.getId());
+        assertSame(task, plan.getTask(10));
+
+        task.setId(SIZE + 50);
+        assertSame(task, plan.getTask(SIZE + 50));
+        assertNull(plan.getTask(10));
+        assertEquals(SIZE + 51, plan.nextId());
+    }
+
+    private static Task task(int id) {
+        Task task = new Task(false, id, "task " + id, List.of("true"), "done");
+        task.initSubTasks();
+        return task;
+    }
+
+    private static void collectIds(Task task, List<Integer> ids) {
+        ids.add(task.getId());
+        for (Task subTask : task.getSubTasks()) {
+            collectIds(subTask, ids);
+        }
+    }
+}